@@ -29,8 +29,6 @@ import static com.jejking.hh.nord.gazetteer.GazetteerEntryTypes.CINEMA;
 import static com.jejking.hh.nord.gazetteer.GazetteerEntryTypes.THEATRE;
 import static com.jejking.hh.nord.gazetteer.GazetteerEntryTypes.UNIVERSITY;
 
-import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.GEO;
-
 import java.util.Map;
 
 import org.geotools.referencing.crs.DefaultGeographicCRS;
@@ -47,6 +45,7 @@ import org.neo4j.graphdb.schema.Schema;
 import org.neo4j.helpers.collection.MapUtil;
 
 import com.google.common.collect.ImmutableList;
+import com.jejking.hh.nord.gazetteer.GazetteerLayerNames;
 import com.jejking.hh.nord.gazetteer.GazetteerPropertyNames;
 
 /**
@@ -143,9 +142,12 @@ public abstract class AbstractNeoImporter<T> {
         SpatialDatabaseService spatialDatabaseService = new SpatialDatabaseService(graph);
         Map<String, String> config = SpatialIndexProvider.SIMPLE_WKB_CONFIG;
         
-        EditableLayer editableLayer = (EditableLayer) spatialDatabaseService.createWKBLayer(GEO);
-        editableLayer.setCoordinateReferenceSystem(DefaultGeographicCRS.WGS84);
-        indexManager.forNodes(GEO, config);
+        // one layer per type of entry, so that queries only traverse the relevant R-tree
+        for (String layerName : GazetteerLayerNames.ALL) {
+            EditableLayer editableLayer = (EditableLayer) spatialDatabaseService.createWKBLayer(layerName);
+            editableLayer.setCoordinateReferenceSystem(DefaultGeographicCRS.WGS84);
+            indexManager.forNodes(layerName, config);
+        }
     
     }
     
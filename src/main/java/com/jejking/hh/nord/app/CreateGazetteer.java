@@ -21,6 +21,7 @@ package com.jejking.hh.nord.app;
 import static com.jejking.hh.nord.AbstractNeoImporter.setupSchema;
 import static com.jejking.hh.nord.AbstractNeoImporter.registerShutdownHook;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 import org.geotools.geometry.jts.JTSFactoryFinder;
@@ -28,7 +29,9 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
 import com.jejking.hh.nord.gazetteer.opendata.CreatePartialGazetteerWithOpenData;
+import com.jejking.hh.nord.gazetteer.osm.OsmGazetteerCollections;
 import com.jejking.hh.nord.gazetteer.osm.poi.WritePointsOfInterest;
 import com.jejking.hh.nord.gazetteer.osm.streets.MapStreetsToPolygons;
 import com.jejking.hh.nord.gazetteer.osm.streets.WriteStreets;
@@ -44,7 +47,9 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 public class CreateGazetteer {
 
     /**
-     * @param args
+     * @param args directory for the neo4j database and, optionally, an Open Street Map
+     *  file (PBF or XML) to use instead of the bundled Hamburg-Nord extract. As such files
+     *  may be large, only the locations of nodes actually referenced are kept in memory.
      */
     public static void main(String[] args) {
         Stopwatch stopwatch = Stopwatch.createStarted();
@@ -59,13 +64,20 @@ public class CreateGazetteer {
         CreatePartialGazetteerWithOpenData.writeHamburgPolygons(graph);
         System.out.println("Wrote hamburg polygons. Elapsed time: " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
         
-        WriteStreets.writeStreets(geometryFactory, graph);
+        // parse the OSM extract once for both streets and points of interest
+        OsmGazetteerCollections osmCollections = args.length > 1
+                                                    ? OsmGazetteerCollections.fromFileRetainingReferencedNodes(geometryFactory, new File(args[1]))
+                                                    : OsmGazetteerCollections.fromHamburgNordExtract(geometryFactory);
+        System.out.println("Parsed OSM extract. Elapsed time: " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
+        
+        ImmutableMap<String, Long> streetNodeIds = WriteStreets.writeStreets(osmCollections.getStreets(), graph);
         System.out.println("Wrote streets. Elapsed time: " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
         
         MapStreetsToPolygons.mapStreetsToAdminPolygons(graph);
         System.out.println("Linked streets to polygons. Elapsed time: " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
         
-        WritePointsOfInterest.writePointsOfInterest(geometryFactory, graph);
+        // link points of interest to the streets just written without looking them up again
+        WritePointsOfInterest.writePointsOfInterest(osmCollections.getPointsOfInterest(), streetNodeIds, graph);
         System.out.println("Wrote points of interest. Elapsed time: " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
         
         graph.shutdown();
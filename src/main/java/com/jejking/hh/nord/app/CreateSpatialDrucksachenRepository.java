@@ -25,21 +25,26 @@ import java.util.concurrent.TimeUnit;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.jejking.hh.nord.corpus.FetchedDruckSachenProcessor;
 import com.jejking.hh.nord.corpus.RawDrucksache;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
+import com.jejking.hh.nord.matcher.BatchingRawDrucksacheNeoWriter;
 import com.jejking.hh.nord.matcher.DrucksachenGazetteerKeywordMatcher;
 import com.jejking.hh.nord.matcher.DrucksachenGazetteerKeywordMatcherFactory;
+import com.jejking.hh.nord.matcher.GazetteerNodeLookup;
 import com.jejking.hh.nord.matcher.ImportAndMatch;
 
 
 /**
  * Given a gazetteer Neo4j Database, as created by {@link CreateGazetteer},
- * and a directory of files representing serialised {@link RawDrucksache} instances,
+ * and a directory of segment files holding {@link RawDrucksache} instances,
  * this class co-ordinates the creation of keyword matchers followed by the matching
- * and import pipeline.
+ * and import pipeline. If the database already contains <i>Drucksachen</i> from an earlier run,
+ * only new ones and those affected by changes to the gazetteer are matched again.
  * 
  * @see DrucksachenGazetteerKeywordMatcherFactory
  * @see ImportAndMatch
@@ -50,8 +55,11 @@ public class CreateSpatialDrucksachenRepository {
 
     /**
      * Runs the main importer logic. Supply two parameters: directory where
-     * the Neo4j database is located, directory where the serialised {@link RawDrucksache}
-     * instances are to be found, each in its own file.
+     * the Neo4j database is located, directory with the segment files holding the {@link RawDrucksache}
+     * instances, as written by {@link FetchedDruckSachenProcessor}. Any other files there, such as its
+     * manifest, are ignored. An optional third parameter
+     * gives the number of worker threads to label the <i>Drucksachen</i> with,
+     * defaulting to the number of available processors.
      * 
      * @param args
      */
@@ -62,24 +70,28 @@ public class CreateSpatialDrucksachenRepository {
         System.out.println("Started graph database after " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
         
         DrucksachenGazetteerKeywordMatcherFactory matcherFactory = new DrucksachenGazetteerKeywordMatcherFactory();
-        ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchersMap = matcherFactory
-                                                                                    .createKeywordMatchersFromGazetteer(graph, ImmutableList.of(
-                                                                                        GazetteerEntryTypes.NAMED_AREA,
-                                                                                        GazetteerEntryTypes.STREET,
-                                                                                        GazetteerEntryTypes.SCHOOL,
-                                                                                        GazetteerEntryTypes.HOSPITAL,
-                                                                                        GazetteerEntryTypes.CINEMA,
-                                                                                        GazetteerEntryTypes.UNIVERSITY));
+        GazetteerNodeLookup nodeLookup = matcherFactory
+                                            .createNodeLookupFromGazetteer(graph, ImmutableList.of(
+                                                GazetteerEntryTypes.NAMED_AREA,
+                                                GazetteerEntryTypes.STREET,
+                                                GazetteerEntryTypes.SCHOOL,
+                                                GazetteerEntryTypes.HOSPITAL,
+                                                GazetteerEntryTypes.CINEMA,
+                                                GazetteerEntryTypes.UNIVERSITY));
+        ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchersMap = matcherFactory.createKeywordMatchers(nodeLookup);
 
-        
-        ImportAndMatch importer = new ImportAndMatch(matchersMap);
+        int parallelism = args.length > 2 
+                            ? Integer.parseInt(args[2]) 
+                            : Runtime.getRuntime().availableProcessors();
+        ImportAndMatch importer = new ImportAndMatch(matchersMap, Optional.of(nodeLookup), 
+                                                     parallelism, BatchingRawDrucksacheNeoWriter.DEFAULT_BATCH_SIZE);
         System.out.println("Initialised matchers after " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
         
         importer.createDrucksachenIndexes(graph);
         System.out.println("Created indexes for Drucksachen after " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
         
         File drucksachenDirectory = new File(args[1]); 
-        importer.writeToNeo(Arrays.asList(drucksachenDirectory.listFiles()), graph);
+        importer.updateMatchesInNeo(Arrays.asList(drucksachenDirectory.listFiles()), graph);
         System.out.println("Completed import after " + stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
     }
     
@@ -54,6 +54,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class AllrisHtmlToRawDrucksache implements Func1<File, Optional<RawDrucksache>>{
 
+    /**
+     * Version of the extraction logic. Increment whenever a change would extract different 
+     * results from the same HTML, so that the {@link FetchedDruckSachenProcessor} processes
+     * all files again.
+     */
+    public static final int EXTRACTOR_VERSION = 1;
+    
     private final ImmutableMap<URL, Optional<LocalDate>> urlToDateMap;
     
     public AllrisHtmlToRawDrucksache(ImmutableMap<URL, Optional<LocalDate>> urlToDateMap) {
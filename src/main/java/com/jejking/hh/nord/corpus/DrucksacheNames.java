@@ -33,8 +33,11 @@ public interface DrucksacheNames {
     public static final String ORIGINAL_URL = "ORIGINAL_URL";
     public static final String DATE = "DATE";
     public static final String HEADER = "HEADER";
+    public static final String CONTENT_HASH = "CONTENT_HASH";
     
     public static final String REFS_HEADER = "REFS_HEADER";
     public static final String REFS_BODY = "REFS_BODY";
     
+    public static final String KEYWORD_SNAPSHOT = "KEYWORD_SNAPSHOT";
+    
 }
@@ -19,46 +19,120 @@
  */
 package com.jejking.hh.nord.corpus;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.codec.Charsets;
-import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.joda.time.LocalDate;
 
-import rx.Observable;
-import rx.functions.Action1;
-import rx.functions.Func1;
-import rx.schedulers.Schedulers;
-
 import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 /**
- * Batch processor that to create a directory full of serialised {@link RawDrucksache} objects
+ * Batch processor that to create a directory full of {@link RawDrucksache} segments
  * from a directory full of compressed HTML files extracted from Allris using the {@link DrucksachenHtmlFetcher}. The
  * documents are assigned optional dates given a map of {@link URL} to {@link LocalDate} created from the 
  * Allris Drucksachen index page (or a copy thereof) using {@link DrucksachenLinkAndDateExtractor}. 
  * 
+ * <p>Documents are written {@link #DEFAULT_DOCUMENTS_PER_SEGMENT} at a time to compressed segment files
+ * using the {@link RawDrucksacheSegmentWriter}, rather than one file per document.</p>
+ * 
+ * <p>The HTML is parsed by a pool of worker threads while the calling thread alone writes the segments.
+ * Only a bounded window of files is in flight at any time, so if writing falls behind the parsers 
+ * wait rather than piling up parsed documents in memory. Results are taken from the head of the window, 
+ * so documents are written in the order of their source file names whatever order they are parsed in,
+ * and if two files yield the same <i>Drucksachen</i> id, the one with the lower name wins. The output 
+ * is therefore the same from one run to the next. Processing returns once every file has been 
+ * parsed and every document written.</p>
+ * 
+ * <p>Processing is incremental. A {@link PreprocessingManifest} in the output directory records the hash
+ * of each source file and the {@link AllrisHtmlToRawDrucksache#EXTRACTOR_VERSION} it was processed with, so
+ * only new or changed files, or those processed with an older extractor, are parsed again. Their documents
+ * are written to new segments. Documents still current in segments holding replaced or deleted documents are
+ * then copied to new segments as well and the old segments removed, so each id is held in only one segment.</p>
+ * 
+ * <p>Ownership of an id is decided among the sources present in this run only, again by lowest name. Sources 
+ * which have vanished are dropped from the manifest before anything is written. If an unchanged source now holds 
+ * the lowest name for its id, because the previous owner vanished or changed, it is parsed again and its document
+ * written. If an unchanged source loses its id to a source with a lower name, its document is dropped. Segments
+ * in the output directory which the manifest does not know of, such as those written before there was a manifest,
+ * are treated as stale and their documents written again from the sources.</p>
+ * 
  * @author jejking
  *
  */
 public class FetchedDruckSachenProcessor {
 
-    private final AtomicInteger counter = new AtomicInteger();
+    public static final int DEFAULT_DOCUMENTS_PER_SEGMENT = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    
+    private static final int PROGRESS_INTERVAL = 1000;
+    private static final String SEGMENT_NAME_PREFIX = "drucksachen-";
+    
+    private final int documentsPerSegment;
+    private final boolean compress;
+    private final int parserThreads;
+    private final int queueCapacity;
+    
+    /**
+     * Constructor using {@link #DEFAULT_DOCUMENTS_PER_SEGMENT}, compression, one parser
+     * per available processor and {@link #DEFAULT_QUEUE_CAPACITY}.
+     */
+    public FetchedDruckSachenProcessor() {
+        this(DEFAULT_DOCUMENTS_PER_SEGMENT, true, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param documentsPerSegment maximum number of documents to write to each segment file, at least 1
+     * @param compress whether to compress the documents in the segments
+     * @param parserThreads number of threads to parse the HTML with, at least 1
+     * @param queueCapacity maximum number of files being parsed or waiting to be written, at least 1
+     * @throws IllegalArgumentException if any of the numbers is less than 1
+     */
+    public FetchedDruckSachenProcessor(int documentsPerSegment, boolean compress, int parserThreads, int queueCapacity) {
+        checkArgument(documentsPerSegment >= 1, "documents per segment must be at least 1");
+        checkArgument(parserThreads >= 1, "parser threads must be at least 1");
+        checkArgument(queueCapacity >= 1, "queue capacity must be at least 1");
+        this.documentsPerSegment = documentsPerSegment;
+        this.compress = compress;
+        this.parserThreads = parserThreads;
+        this.queueCapacity = queueCapacity;
+    }
     
     /**
      * Runs the program. The arguments expected are:
      * <ol>
      * <li>file path to a copy of the HTML Drucksachen index.</li>
      * <li>directory containing compressed HTML files downloaded where the file name is the hex encoded originating URL</li>
-     * <li>directory to which serialised {@link RawDrucksache} objects are to be written to</li>
+     * <li>directory to which the segments of {@link RawDrucksache} objects are to be written to</li>
+     * <li>optionally, the number of threads to parse the HTML with. Defaults to the number of available processors.</li>
      * </ol>
      * 
      * @param args, as above
@@ -69,50 +143,501 @@ public class FetchedDruckSachenProcessor {
         
         ImmutableMap<URL, Optional<LocalDate>> urlDateMap = linkAndDateExtractor.call();
         
-        FetchedDruckSachenProcessor proc = new FetchedDruckSachenProcessor();
+        int parserThreads = args.length > 3 
+                                ? Integer.parseInt(args[3]) 
+                                : Runtime.getRuntime().availableProcessors();
+        FetchedDruckSachenProcessor proc = new FetchedDruckSachenProcessor(DEFAULT_DOCUMENTS_PER_SEGMENT, true, 
+                                                                           parserThreads, DEFAULT_QUEUE_CAPACITY);
         proc.preProcessFetchedDocuments(new File(args[1]), new File(args[2]), urlDateMap);
 
     }
 
     public void preProcessFetchedDocuments(final File inputDirectory, final File outputDirectory, ImmutableMap<URL, Optional<LocalDate>> urlDateMap) {
-        Observable.from(inputDirectory.list())
-        .map(new Func1<String, File>() {
+        final AllrisHtmlToRawDrucksache htmlToRawDrucksache = new AllrisHtmlToRawDrucksache(urlDateMap);
+        final StageCounter parseCounter = new StageCounter("Parsed");
+        final StageCounter unchangedCounter = new StageCounter("Unchanged");
+        StageCounter writeCounter = new StageCounter("Written");
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        
+        String[] fileNames = inputDirectory.list();
+        // the order of the output, and which of several files with the same id wins, depends on this alone
+        Arrays.sort(fileNames);
+        
+        PreprocessingManifest manifest = loadManifest(outputDirectory);
+        // only sources still present may own an id, so forget the others before resolving ownership
+        Set<String> staleSegments = removeVanishedSources(ImmutableSet.copyOf(fileNames), manifest);
+        staleSegments.addAll(unknownSegments(outputDirectory, manifest));
+        final ImmutableMap<String, PreprocessingManifest.Entry> previousEntries = manifest.snapshot();
+        
+        RollingSegmentWriter segmentWriter = new RollingSegmentWriter(outputDirectory);
+        ExecutorService parsers = Executors.newFixedThreadPool(this.parserThreads);
+        try {
+            OrderedParseResults parseResults = new OrderedParseResults(Arrays.asList(fileNames).iterator(), parsers, 
+                                                                       this.queueCapacity) {
+                
+                @Override
+                ParseResult parse(String fileName) {
+                    File file = sourceFile(fileName);
+                    long start = System.nanoTime();
+                    try {
+                        String sourceHash = sha1Hex(file);
+                        PreprocessingManifest.Entry previous = previousEntries.get(fileName);
+                        if (previous != null && previous.isUpToDate(sourceHash, AllrisHtmlToRawDrucksache.EXTRACTOR_VERSION)) {
+                            unchangedCounter.record(true, System.nanoTime() - start);
+                            return ParseResult.upToDate(fileName, sourceHash);
+                        }
+                        ParseResult parseResult = ParseResult.parsed(fileName, sourceHash, htmlToRawDrucksache.call(file));
+                        parseCounter.record(parseResult.rawDrucksache.isPresent(), System.nanoTime() - start);
+                        return parseResult;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        parseCounter.record(false, System.nanoTime() - start);
+                        return ParseResult.unreadable(fileName);
+                    }
+                }
+                
+                @Override
+                Optional<RawDrucksache> extract(String fileName) {
+                    long start = System.nanoTime();
+                    Optional<RawDrucksache> rawDrucksache = htmlToRawDrucksache.call(sourceFile(fileName));
+                    parseCounter.record(rawDrucksache.isPresent(), System.nanoTime() - start);
+                    return rawDrucksache;
+                }
+                
+                private File sourceFile(String fileName) {
+                    return new File(inputDirectory.getPath() + File.separator + fileName);
+                }
+                
+            };
+            
+            staleSegments.addAll(writeParsedDocuments(fileNames.length, parseResults, previousEntries, manifest, 
+                                                      segmentWriter, writeCounter, parseCounter));
+            
+            compactStaleSegments(outputDirectory, staleSegments, manifest, segmentWriter);
+        } finally {
+            parsers.shutdownNow();
+            segmentWriter.close();
+        }
+        
+        // the manifest must refer to the new segments before the old ones go, so that a crash in 
+        // between leaves only segments nothing refers to, which the next run removes
+        saveManifest(outputDirectory, manifest);
+        deleteSegments(outputDirectory, staleSegments);
+        
+        long elapsedMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        System.out.println(unchangedCounter.summary(elapsedMillis));
+        System.out.println(parseCounter.summary(elapsedMillis));
+        System.out.println(writeCounter.summary(elapsedMillis));
+        System.out.println("Written " + writeCounter.getSucceeded() + " data sets to " + segmentWriter.getSegmentCount() 
+                + " new segments in " + elapsedMillis + " ms");
+    }
 
-            @Override
-            public File call(String fileName) {
-                return new File(inputDirectory.getPath() + File.separator + fileName);
+    /*
+     * Returns the names of the segments holding documents that have been replaced. The results arrive in
+     * order of source name, so the first source to yield an id is the one with the lowest name.
+     */
+    private Set<String> writeParsedDocuments(int expectedCount, OrderedParseResults parseResults, 
+            ImmutableMap<String, PreprocessingManifest.Entry> previousEntries, PreprocessingManifest manifest,
+            RollingSegmentWriter segmentWriter, StageCounter writeCounter, StageCounter parseCounter) {
+        
+        Set<String> drucksachenIds = new HashSet<>();
+        Set<String> staleSegments = new HashSet<>();
+        for (int i = 1; i <= expectedCount; i++) {
+            ParseResult parseResult = parseResults.next();
+            PreprocessingManifest.Entry previous = previousEntries.get(parseResult.sourceName);
+            if (parseResult.upToDate || !parseResult.sourceHash.isPresent()) {
+                // an unreadable source keeps what it had before, as it has not been shown to have changed
+                if (previous != null) {
+                    keepPreviousDocument(parseResult.sourceName, previous, parseResults, drucksachenIds, staleSegments, 
+                                         manifest, segmentWriter, writeCounter);
+                }
+            } else {
+                if (previous != null && previous.getSegment().isPresent()) {
+                    staleSegments.add(previous.getSegment().get());
+                }
+                
+                Optional<String> drucksachenId = Optional.absent();
+                Optional<String> segment = Optional.absent();
+                if (parseResult.rawDrucksache.isPresent()) {
+                    drucksachenId = Optional.of(parseResult.rawDrucksache.get().getDrucksachenId());
+                    segment = writeIfUnclaimed(parseResult.sourceName, parseResult.rawDrucksache.get(), drucksachenIds, 
+                                               segmentWriter, writeCounter);
+                }
+                
+                manifest.put(parseResult.sourceName, new PreprocessingManifest.Entry(parseResult.sourceHash.get(), 
+                                            AllrisHtmlToRawDrucksache.EXTRACTOR_VERSION, drucksachenId, segment));
+            }
+            if (i % PROGRESS_INTERVAL == 0) {
+                System.out.println("Processed " + i + " of " + expectedCount + " files. " + parseCounter + ". " + writeCounter 
+                        + ". In flight: " + parseResults.getInFlightCount());
+            }
+        }
+        return staleSegments;
+    }
+    
+    /*
+     * For a source not parsed in this run. If a source with a lower name has claimed its id in the meantime 
+     * its document is dropped. If it now has the lowest name for an id it did not hold before, it is parsed 
+     * again after all so that the document is not lost.
+     */
+    private static void keepPreviousDocument(String sourceName, PreprocessingManifest.Entry previous, 
+            OrderedParseResults parseResults, Set<String> drucksachenIds, Set<String> staleSegments, 
+            PreprocessingManifest manifest, RollingSegmentWriter segmentWriter, StageCounter writeCounter) {
+        
+        if (!previous.getDrucksachenId().isPresent()) {
+            return;
+        }
+        String drucksachenId = previous.getDrucksachenId().get();
+        if (drucksachenIds.contains(drucksachenId)) {
+            if (previous.getSegment().isPresent()) {
+                System.err.println("Duplicate drucksachen-id: " + drucksachenId + " in " + sourceName);
+                staleSegments.add(previous.getSegment().get());
+                manifest.put(sourceName, previous.withoutSegment());
+            }
+        } else if (previous.getSegment().isPresent()) {
+            drucksachenIds.add(drucksachenId);
+        } else {
+            Optional<RawDrucksache> rawDrucksache = parseResults.extract(sourceName);
+            if (rawDrucksache.isPresent() && rawDrucksache.get().getDrucksachenId().equals(drucksachenId)) {
+                Optional<String> segment = writeIfUnclaimed(sourceName, rawDrucksache.get(), drucksachenIds, 
+                                                            segmentWriter, writeCounter);
+                if (segment.isPresent()) {
+                    manifest.put(sourceName, previous.withSegment(segment.get()));
+                }
+            }
+        }
+    }
+    
+    /*
+     * Returns the segment written to, absent if the id has already been claimed or writing failed.
+     */
+    private static Optional<String> writeIfUnclaimed(String sourceName, RawDrucksache rawDrucksache, Set<String> drucksachenIds, 
+            RollingSegmentWriter segmentWriter, StageCounter writeCounter) {
+        
+        long start = System.nanoTime();
+        if (!drucksachenIds.add(rawDrucksache.getDrucksachenId())) {
+            System.err.println("Duplicate drucksachen-id: " + rawDrucksache.getDrucksachenId() + " in " + sourceName);
+            writeCounter.record(false, System.nanoTime() - start);
+            return Optional.absent();
+        }
+        try {
+            String segment = segmentWriter.write(rawDrucksache);
+            writeCounter.record(true, System.nanoTime() - start);
+            return Optional.of(segment);
+        } catch (IOException e) {
+            e.printStackTrace();
+            writeCounter.record(false, System.nanoTime() - start);
+            // leave the id to a source with a higher name, or the one which held it before
+            drucksachenIds.remove(rawDrucksache.getDrucksachenId());
+            return Optional.absent();
+        }
+    }
+    
+    /*
+     * Returns the names of the segments holding documents whose sources no longer exist.
+     */
+    private static Set<String> removeVanishedSources(ImmutableSet<String> sourceNames, PreprocessingManifest manifest) {
+        Set<String> staleSegments = new HashSet<>();
+        for (Map.Entry<String, PreprocessingManifest.Entry> entry : manifest.snapshot().entrySet()) {
+            if (!sourceNames.contains(entry.getKey())) {
+                if (entry.getValue().getSegment().isPresent()) {
+                    staleSegments.add(entry.getValue().getSegment().get());
+                }
+                manifest.remove(entry.getKey());
+            }
+        }
+        return staleSegments;
+    }
+    
+    /*
+     * Returns the names of the segments in the output directory which no entry in the manifest refers to.
+     */
+    private static Set<String> unknownSegments(File outputDirectory, PreprocessingManifest manifest) {
+        Set<String> knownSegments = new HashSet<>();
+        for (PreprocessingManifest.Entry entry : manifest.snapshot().values()) {
+            if (entry.getSegment().isPresent()) {
+                knownSegments.add(entry.getSegment().get());
+            }
+        }
+        Set<String> unknownSegments = new HashSet<>();
+        File[] files = outputDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (RawDrucksacheFiles.isSegment(file) && !knownSegments.contains(file.getName())) {
+                    unknownSegments.add(file.getName());
+                }
+            }
+        }
+        return unknownSegments;
+    }
+    
+    /*
+     * Copies the documents which are still current out of segments containing replaced documents
+     * into new segments, so that once the old ones are deleted every id is held in exactly one segment.
+     */
+    private static void compactStaleSegments(File outputDirectory, Set<String> staleSegments, PreprocessingManifest manifest, 
+            RollingSegmentWriter segmentWriter) {
+        for (String staleSegment : staleSegments) {
+            Map<String, String> currentIds = new HashMap<>(); // drucksachen-id to source file name
+            for (Map.Entry<String, PreprocessingManifest.Entry> entry : manifest.snapshot().entrySet()) {
+                if (entry.getValue().getSegment().equals(Optional.of(staleSegment))) {
+                    currentIds.put(entry.getValue().getDrucksachenId().get(), entry.getKey());
+                }
             }
             
-        })
-        .map(new AllrisHtmlToRawDrucksache(urlDateMap))
-        .observeOn(Schedulers.io())
-        .subscribe(new Action1<Optional<RawDrucksache>>() {
-
-            @Override
-            public void call(Optional<RawDrucksache> rawDrucksache) {
-                if (rawDrucksache.isPresent()) {
-                    File destination = new File(outputDirectory 
-                                            + File.separator 
-                                            + Hex.encodeHexString(rawDrucksache.get().getDrucksachenId().getBytes(Charsets.UTF_8))
-                                            + ".dat");
-                    if (!destination.exists()) {
-                        try(ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(destination)))) {
-                            oos.writeObject(rawDrucksache.get());
-                            counter.addAndGet(1);
-                        } catch (Exception e) {
-                            e.printStackTrace();
+            File segmentFile = new File(outputDirectory, staleSegment);
+            if (!currentIds.isEmpty()) {
+                try (RawDrucksacheSegmentReader reader = RawDrucksacheSegmentReader.open(segmentFile)) {
+                    Optional<RawDrucksache> rawDrucksache = reader.read();
+                    while (rawDrucksache.isPresent()) {
+                        String sourceName = currentIds.get(rawDrucksache.get().getDrucksachenId());
+                        if (sourceName != null) {
+                            String newSegment = segmentWriter.write(rawDrucksache.get());
+                            manifest.put(sourceName, manifest.get(sourceName).get().withSegment(newSegment));
                         }
+                        rawDrucksache = reader.read();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not compact segment " + segmentFile, e);
+                }
+            }
+        }
+        
+        // the new copies must be complete before the manifest refers to them
+        segmentWriter.close();
+    }
+    
+    private static void deleteSegments(File outputDirectory, Set<String> staleSegments) {
+        for (String staleSegment : staleSegments) {
+            File segmentFile = new File(outputDirectory, staleSegment);
+            if (segmentFile.exists() && !segmentFile.delete()) {
+                System.err.println("Could not delete stale segment " + segmentFile);
+            }
+        }
+    }
+    
+    private static PreprocessingManifest loadManifest(File outputDirectory) {
+        try {
+            return PreprocessingManifest.load(outputDirectory);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static void saveManifest(File outputDirectory, PreprocessingManifest manifest) {
+        try {
+            manifest.save(outputDirectory);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static String sha1Hex(File file) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return DigestUtils.sha1Hex(inputStream);
+        }
+    }
+    
+    /**
+     * Parses files on a pool of threads, returning the results in the order the files are supplied. At most
+     * a fixed window of files is submitted to the pool ahead of the result being returned.
+     */
+    private abstract static class OrderedParseResults extends AbstractIterator<ParseResult> {
+        
+        private final Iterator<String> fileNames;
+        private final ExecutorService parsers;
+        private final int windowSize;
+        private final Deque<Future<ParseResult>> inFlight;
+        
+        OrderedParseResults(Iterator<String> fileNames, ExecutorService parsers, int windowSize) {
+            this.fileNames = fileNames;
+            this.parsers = parsers;
+            this.windowSize = windowSize;
+            this.inFlight = new ArrayDeque<>(windowSize);
+        }
+        
+        /*
+         * Called on the pool, so must be thread safe. Exactly one result per file.
+         */
+        abstract ParseResult parse(String fileName);
+        
+        /*
+         * Extracts the document from a file regardless of whether it has changed.
+         */
+        abstract Optional<RawDrucksache> extract(String fileName);
 
-                    } else {
-                        System.err.println("Duplicate drucksachen-id: " + rawDrucksache.get().getDrucksachenId());
+        @Override
+        protected ParseResult computeNext() {
+            while (this.inFlight.size() < this.windowSize && this.fileNames.hasNext()) {
+                final String fileName = this.fileNames.next();
+                this.inFlight.addLast(this.parsers.submit(new Callable<ParseResult>() {
+
+                    @Override
+                    public ParseResult call() throws Exception {
+                        return parse(fileName);
                     }
+                    
+                }));
+            }
+            if (this.inFlight.isEmpty()) {
+                return endOfData();
+            }
+            try {
+                return this.inFlight.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        
+        int getInFlightCount() {
+            return this.inFlight.size();
+        }
+    }
+    
+    /**
+     * Thread safe counts of successes and failures of a stage in the pipeline, and the
+     * time spent in it, summed over all threads.
+     */
+    private static final class StageCounter {
+        
+        private final String name;
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong nanos = new AtomicLong();
+        
+        StageCounter(String name) {
+            this.name = name;
+        }
+        
+        void record(boolean success, long elapsedNanos) {
+            if (success) {
+                this.succeeded.incrementAndGet();
+            } else {
+                this.failed.incrementAndGet();
+            }
+            this.nanos.addAndGet(elapsedNanos);
+        }
+        
+        int getSucceeded() {
+            return this.succeeded.get();
+        }
+        
+        String summary(long elapsedMillis) {
+            long perSecond = elapsedMillis > 0 ? (this.succeeded.get() * 1000L) / elapsedMillis : this.succeeded.get();
+            return this + " in " + TimeUnit.NANOSECONDS.toMillis(this.nanos.get()) + " ms of thread time, "
+                    + perSecond + " per second";
+        }
+
+        @Override
+        public String toString() {
+            return this.name + ": " + this.succeeded.get() + " ok, " + this.failed.get() + " failed";
+        }
+        
+    }
+    
+    /**
+     * Result of handling a single source file in the parser pool.
+     */
+    private static final class ParseResult {
+        
+        final String sourceName;
+        final Optional<String> sourceHash;
+        final boolean upToDate;
+        final Optional<RawDrucksache> rawDrucksache;
+        
+        private ParseResult(String sourceName, Optional<String> sourceHash, boolean upToDate, Optional<RawDrucksache> rawDrucksache) {
+            this.sourceName = sourceName;
+            this.sourceHash = sourceHash;
+            this.upToDate = upToDate;
+            this.rawDrucksache = rawDrucksache;
+        }
+        
+        static ParseResult unreadable(String sourceName) {
+            return new ParseResult(sourceName, Optional.<String>absent(), false, Optional.<RawDrucksache>absent());
+        }
+        
+        static ParseResult upToDate(String sourceName, String sourceHash) {
+            return new ParseResult(sourceName, Optional.of(sourceHash), true, Optional.<RawDrucksache>absent());
+        }
+        
+        static ParseResult parsed(String sourceName, String sourceHash, Optional<RawDrucksache> rawDrucksache) {
+            return new ParseResult(sourceName, Optional.of(sourceHash), false, rawDrucksache);
+        }
+    }
+    
+    /**
+     * Writes documents to a sequence of numbered segment files, starting a new one
+     * once the current one is full. Numbering continues after any segments already
+     * in the output directory.
+     */
+    private final class RollingSegmentWriter {
+        
+        private final File outputDirectory;
+        private RawDrucksacheSegmentWriter currentSegment;
+        private String currentSegmentName;
+        private int nextSegmentNumber;
+        private int segmentCount = 0;
+        
+        RollingSegmentWriter(File outputDirectory) {
+            this.outputDirectory = outputDirectory;
+            this.nextSegmentNumber = highestSegmentNumber(outputDirectory) + 1;
+        }
+        
+        /*
+         * Returns the name of the segment the document was written to.
+         */
+        String write(RawDrucksache rawDrucksache) throws IOException {
+            if (this.currentSegment == null) {
+                this.currentSegmentName = String.format(SEGMENT_NAME_PREFIX + "%05d", this.nextSegmentNumber)
+                                            + RawDrucksacheSegmentWriter.FILE_SUFFIX;
+                this.currentSegment = RawDrucksacheSegmentWriter.create(new File(this.outputDirectory, this.currentSegmentName), compress);
+                this.nextSegmentNumber++;
+                this.segmentCount++;
+            }
+            this.currentSegment.write(rawDrucksache);
+            String segmentName = this.currentSegmentName;
+            if (this.currentSegment.getDocumentCount() == documentsPerSegment) {
+                close();
+            }
+            return segmentName;
+        }
+        
+        void close() {
+            if (this.currentSegment != null) {
+                try {
+                    this.currentSegment.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-                
+                this.currentSegment = null;
             }
-            
-        });
+        }
         
-        System.out.println("Written " + counter.get() + " data sets");
+        int getSegmentCount() {
+            return this.segmentCount;
+        }
+    }
+    
+    private static int highestSegmentNumber(File outputDirectory) {
+        int highest = -1;
+        String[] fileNames = outputDirectory.list();
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.startsWith(SEGMENT_NAME_PREFIX) && fileName.endsWith(RawDrucksacheSegmentWriter.FILE_SUFFIX)) {
+                    String number = fileName.substring(SEGMENT_NAME_PREFIX.length(), 
+                                                       fileName.length() - RawDrucksacheSegmentWriter.FILE_SUFFIX.length());
+                    try {
+                        highest = Math.max(highest, Integer.parseInt(number));
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        return highest;
     }
 
 }
@@ -0,0 +1,244 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.FRAME_DOCUMENT;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.FRAME_KEY;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.decodeDocument;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.readHeader;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.readString;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Read-only, random access store of {@link RawDrucksache} instances, keyed by <i>Drucksachen</i> id.
+ * 
+ * <p>Segment files written by the {@link RawDrucksacheSegmentWriter} are memory-mapped and scanned 
+ * once on opening to build an index of id to the position of the document in its segment. As the
+ * id and length of each document precede its bytes, no document is decoded while indexing. Fetching a
+ * document then decodes only that document.</p>
+ * 
+ * <p>Files in the older format of one serialised instance per file, named with the hex encoded id
+ * and <code>.dat</code>, are indexed by name and deserialised on demand.</p>
+ * 
+ * <p>Once opened, the store may be shared between threads.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class MappedRawDrucksacheStore {
+
+    private final Map<String, Location> index;
+    
+    private MappedRawDrucksacheStore(Map<String, Location> index) {
+        this.index = index;
+    }
+    
+    /**
+     * Opens a store on all files in a directory.
+     * 
+     * @param directory directory as written to by the {@link FetchedDruckSachenProcessor}
+     * @return store
+     * @throws IOException if a segment cannot be mapped or is corrupt
+     */
+    public static MappedRawDrucksacheStore open(File directory) throws IOException {
+        File[] files = checkNotNull(directory).listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        return open(ImmutableList.copyOf(files));
+    }
+    
+    /**
+     * Opens a store on the files supplied.
+     * 
+     * @param files segments or serialised files, may not be <code>null</code>
+     * @return store
+     * @throws IOException if a segment cannot be mapped or is corrupt
+     */
+    public static MappedRawDrucksacheStore open(Iterable<File> files) throws IOException {
+        Map<String, Location> index = new HashMap<>();
+        for (File file : checkNotNull(files)) {
+            if (RawDrucksacheFiles.isSegment(file)) {
+                indexSegment(file, index);
+            } else if (RawDrucksacheFiles.isSerialised(file)) {
+                indexSerialised(file, index);
+            }
+        }
+        return new MappedRawDrucksacheStore(index);
+    }
+    
+    /**
+     * @param drucksachenId id to look up
+     * @return the document, or absent if the store does not contain it
+     * @throws RuntimeException if the document cannot be decoded
+     */
+    public Optional<RawDrucksache> get(String drucksachenId) {
+        Location location = this.index.get(drucksachenId);
+        if (location == null) {
+            return Optional.absent();
+        }
+        return Optional.of(location.read(drucksachenId));
+    }
+    
+    /**
+     * @param drucksachenId id to look up
+     * @return <code>true</code> if the store contains the document
+     */
+    public boolean contains(String drucksachenId) {
+        return this.index.containsKey(drucksachenId);
+    }
+    
+    /**
+     * @return ids of all documents in the store
+     */
+    public ImmutableSet<String> getDrucksachenIds() {
+        return ImmutableSet.copyOf(this.index.keySet());
+    }
+    
+    /**
+     * @return number of documents in the store
+     */
+    public int size() {
+        return this.index.size();
+    }
+    
+    private static void indexSegment(File file, Map<String, Location> index) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            // the mapping remains valid once the channel is closed
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        
+        boolean compressed;
+        try {
+            compressed = readHeader(buffer);
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+        Segment segment = new Segment(buffer, compressed);
+        
+        while (buffer.hasRemaining()) {
+            byte frameType = buffer.get();
+            if (frameType == FRAME_KEY) {
+                segment.keys.add(readString(buffer));
+            } else if (frameType == FRAME_DOCUMENT) {
+                String drucksachenId = readString(buffer);
+                int length = buffer.getInt();
+                addToIndex(index, drucksachenId, new SegmentLocation(segment, buffer.position(), length), file);
+                buffer.position(buffer.position() + length);
+            } else {
+                throw new IOException("Unknown frame type " + frameType + " in " + file);
+            }
+        }
+    }
+
+    private static void indexSerialised(File file, Map<String, Location> index) {
+        String hexId = file.getName().substring(0, file.getName().length() - RawDrucksacheFiles.SERIALISED_SUFFIX.length());
+        try {
+            String drucksachenId = new String(Hex.decodeHex(hexId.toCharArray()), Charsets.UTF_8);
+            addToIndex(index, drucksachenId, new SerialisedLocation(file), file);
+        } catch (DecoderException e) {
+            System.err.println("Ignoring file without hex encoded id: " + file);
+        }
+    }
+    
+    private static void addToIndex(Map<String, Location> index, String drucksachenId, Location location, File file) {
+        if (index.containsKey(drucksachenId)) {
+            System.err.println("Duplicate drucksachen-id: " + drucksachenId + " in " + file);
+        } else {
+            index.put(drucksachenId, location);
+        }
+    }
+    
+    private interface Location {
+        RawDrucksache read(String drucksachenId);
+    }
+    
+    private static final class Segment {
+        final ByteBuffer buffer;
+        final boolean compressed;
+        // complete once indexed, only read from afterwards
+        final List<String> keys = new ArrayList<>();
+        
+        Segment(ByteBuffer buffer, boolean compressed) {
+            this.buffer = buffer;
+            this.compressed = compressed;
+        }
+    }
+    
+    private static final class SegmentLocation implements Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        
+        SegmentLocation(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public RawDrucksache read(String drucksachenId) {
+            // position and limit are not shared between duplicates
+            ByteBuffer view = this.segment.buffer.duplicate();
+            view.position(this.offset);
+            byte[] encoded = new byte[this.length];
+            view.get(encoded);
+            try {
+                return decodeDocument(drucksachenId, encoded, this.segment.keys, this.segment.compressed);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    private static final class SerialisedLocation implements Location {
+        private final File file;
+        
+        SerialisedLocation(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public RawDrucksache read(String drucksachenId) {
+            return RawDrucksacheFiles.readSerialised(this.file);
+        }
+    }
+    
+}
@@ -0,0 +1,225 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Records, for each source HTML file processed by the {@link FetchedDruckSachenProcessor}, the hash of
+ * the file, the {@link AllrisHtmlToRawDrucksache#EXTRACTOR_VERSION} used and where the resulting
+ * {@link RawDrucksache} was written to. This allows subsequent runs to skip sources which have not
+ * changed since.
+ * 
+ * <p>Stored as a tab separated text file in the output directory. Not thread safe.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class PreprocessingManifest {
+
+    /**
+     * Name of the manifest file in the output directory.
+     */
+    public static final String FILE_NAME = "manifest.tsv";
+    
+    private static final String HEADER = "# source\tsha1\textractorVersion\tdrucksachenId\tsegment";
+    
+    private final Map<String, Entry> entries;
+    
+    /**
+     * Constructor for an empty manifest.
+     */
+    public PreprocessingManifest() {
+        this.entries = new HashMap<>();
+    }
+    
+    /**
+     * Constructor.
+     * @param entries initial entries keyed by source file name, may not be <code>null</code>
+     */
+    public PreprocessingManifest(Map<String, Entry> entries) {
+        this.entries = new HashMap<>(checkNotNull(entries));
+    }
+    
+    /**
+     * Loads the manifest from a directory.
+     * 
+     * @param directory directory the manifest was saved to
+     * @return manifest, empty if there is no manifest file in the directory
+     * @throws IOException if the manifest exists but cannot be read
+     */
+    public static PreprocessingManifest load(File directory) throws IOException {
+        File manifestFile = new File(directory, FILE_NAME);
+        PreprocessingManifest manifest = new PreprocessingManifest();
+        if (!manifestFile.exists()) {
+            return manifest;
+        }
+        
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), Charsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != 5) {
+                        throw new IOException("Malformed manifest line: " + line);
+                    }
+                    manifest.put(fields[0], new Entry(fields[1], Integer.parseInt(fields[2]), 
+                                                      Optional.fromNullable(emptyToNull(fields[3])), 
+                                                      Optional.fromNullable(emptyToNull(fields[4]))));
+                }
+                line = reader.readLine();
+            }
+        }
+        return manifest;
+    }
+    
+    /**
+     * Saves the manifest to the directory, replacing any previous manifest there.
+     * 
+     * @param directory directory to save to
+     * @throws IOException
+     */
+    public void save(File directory) throws IOException {
+        File tempFile = new File(directory, FILE_NAME + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(entry.getKey() + "\t" + value.getSourceHash() + "\t" + value.getExtractorVersion() + "\t" 
+                        + value.getDrucksachenId().or("") + "\t" + value.getSegment().or(""));
+                writer.newLine();
+            }
+        }
+        
+        File manifestFile = new File(directory, FILE_NAME);
+        if (manifestFile.exists() && !manifestFile.delete()) {
+            throw new IOException("Could not replace " + manifestFile);
+        }
+        if (!tempFile.renameTo(manifestFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + manifestFile);
+        }
+    }
+    
+    public Optional<Entry> get(String sourceName) {
+        return Optional.fromNullable(this.entries.get(sourceName));
+    }
+    
+    public void put(String sourceName, Entry entry) {
+        this.entries.put(checkNotNull(sourceName), checkNotNull(entry));
+    }
+    
+    public void remove(String sourceName) {
+        this.entries.remove(sourceName);
+    }
+    
+    /**
+     * @return immutable copy of the current entries, keyed by source file name
+     */
+    public ImmutableMap<String, Entry> snapshot() {
+        return ImmutableMap.copyOf(this.entries);
+    }
+    
+    private static String emptyToNull(String field) {
+        return field.isEmpty() ? null : field;
+    }
+    
+    /**
+     * What became of a single source file.
+     */
+    public static final class Entry {
+        
+        private final String sourceHash;
+        private final int extractorVersion;
+        private final Optional<String> drucksachenId;
+        private final Optional<String> segment;
+        
+        /**
+         * Constructor.
+         * 
+         * @param sourceHash hex encoded hash of the source file
+         * @param extractorVersion version of the extraction logic applied
+         * @param drucksachenId id of the document extracted, absent if extraction failed
+         * @param segment name of the segment file the document was written to, absent if not written
+         */
+        public Entry(String sourceHash, int extractorVersion, Optional<String> drucksachenId, Optional<String> segment) {
+            this.sourceHash = checkNotNull(sourceHash);
+            this.extractorVersion = extractorVersion;
+            this.drucksachenId = checkNotNull(drucksachenId);
+            this.segment = checkNotNull(segment);
+        }
+        
+        /**
+         * @param currentHash hash of the source file as it is now
+         * @param currentExtractorVersion current version of the extraction logic
+         * @return <code>true</code> if the source need not be processed again
+         */
+        public boolean isUpToDate(String currentHash, int currentExtractorVersion) {
+            return this.sourceHash.equals(currentHash) && this.extractorVersion == currentExtractorVersion;
+        }
+        
+        /**
+         * @param newSegment segment the document has been moved to
+         * @return copy of this entry pointing at the new segment
+         */
+        public Entry withSegment(String newSegment) {
+            return new Entry(this.sourceHash, this.extractorVersion, this.drucksachenId, Optional.of(newSegment));
+        }
+        
+        /**
+         * @return copy of this entry recording that its document is held in no segment
+         */
+        public Entry withoutSegment() {
+            return new Entry(this.sourceHash, this.extractorVersion, this.drucksachenId, Optional.<String>absent());
+        }
+
+        public String getSourceHash() {
+            return sourceHash;
+        }
+
+        public int getExtractorVersion() {
+            return extractorVersion;
+        }
+
+        public Optional<String> getDrucksachenId() {
+            return drucksachenId;
+        }
+
+        public Optional<String> getSegment() {
+            return segment;
+        }
+        
+    }
+    
+}
@@ -21,9 +21,15 @@ package com.jejking.hh.nord.corpus;
 
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Map;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.joda.time.LocalDate;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -122,6 +128,38 @@ public final class RawDrucksache implements Serializable {
         return date;
     }
 
+    /**
+     * Hash over all of the data held, so that a document extracted again can be told apart from
+     * the one extracted before if, and only if, anything about it has changed.
+     * 
+     * @return hex encoded SHA-1 hash of id, URL, date, properties and content
+     */
+    public String contentHash() {
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        update(digest, this.drucksachenId);
+        update(digest, this.originalUrl.toExternalForm());
+        update(digest, this.date.isPresent() ? this.date.get().toString() : "");
+        digest.update(ByteBuffer.allocate(4).putInt(this.extractedProperties.size()).array());
+        for (Map.Entry<String, String> property : this.extractedProperties.entrySet()) {
+            update(digest, property.getKey());
+            update(digest, property.getValue());
+        }
+        digest.update(ByteBuffer.allocate(4).putInt(this.extractedContent.size()).array());
+        for (String content : this.extractedContent) {
+            update(digest, content);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+    
+    /*
+     * Length prefixed, so that moving text from one field to the next changes the hash.
+     */
+    private static void update(MessageDigest digest, String text) {
+        byte[] bytes = text.getBytes(Charsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -0,0 +1,141 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Iterator;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Reads {@link RawDrucksache} instances from files as written by the {@link FetchedDruckSachenProcessor}.
+ * Segment files (ending with {@link RawDrucksacheSegmentWriter#FILE_SUFFIX}) are streamed document by
+ * document, files ending with <code>.dat</code> are assumed to hold a single serialised instance as written 
+ * by earlier versions. Any other files, such as the {@link PreprocessingManifest}, are ignored.
+ * 
+ * @author jejking
+ *
+ */
+public final class RawDrucksacheFiles {
+
+    static final String SERIALISED_SUFFIX = ".dat";
+
+    private RawDrucksacheFiles() {
+        // no instances
+    }
+    
+    /**
+     * Lazily reads all documents in the files supplied, in order. Each segment is closed
+     * once its last document has been read.
+     * 
+     * @param files files to read, may not be <code>null</code>
+     * @return iterable over all documents. Failure to read a file surfaces as a {@link RuntimeException}
+     *  from the iterator.
+     */
+    public static Iterable<RawDrucksache> readAll(final Iterable<File> files) {
+        checkNotNull(files);
+        return new Iterable<RawDrucksache>() {
+
+            @Override
+            public Iterator<RawDrucksache> iterator() {
+                return new RawDrucksacheIterator(files.iterator());
+            }
+            
+        };
+    }
+    
+    /**
+     * @param file file to check
+     * @return <code>true</code> if the file name marks it as a segment
+     */
+    public static boolean isSegment(File file) {
+        return file.getName().endsWith(RawDrucksacheSegmentWriter.FILE_SUFFIX);
+    }
+    
+    /**
+     * @param file file to check
+     * @return <code>true</code> if the file name marks it as holding a single serialised instance
+     */
+    public static boolean isSerialised(File file) {
+        return file.getName().endsWith(SERIALISED_SUFFIX);
+    }
+    
+    /**
+     * Reads a single serialised {@link RawDrucksache} from a file.
+     * 
+     * @param file file to read
+     * @return deserialised instance
+     * @throws RuntimeException wrapping any underlying exception
+     */
+    public static RawDrucksache readSerialised(File file) {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (RawDrucksache) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static final class RawDrucksacheIterator extends AbstractIterator<RawDrucksache> {
+        
+        private final Iterator<File> files;
+        private RawDrucksacheSegmentReader currentSegment;
+        
+        RawDrucksacheIterator(Iterator<File> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected RawDrucksache computeNext() {
+            try {
+                while (true) {
+                    if (this.currentSegment != null) {
+                        Optional<RawDrucksache> next = this.currentSegment.read();
+                        if (next.isPresent()) {
+                            return next.get();
+                        }
+                        this.currentSegment.close();
+                        this.currentSegment = null;
+                    }
+                    
+                    if (!this.files.hasNext()) {
+                        return endOfData();
+                    }
+                    
+                    File file = this.files.next();
+                    if (isSegment(file)) {
+                        this.currentSegment = RawDrucksacheSegmentReader.open(file);
+                    } else if (isSerialised(file)) {
+                        return readSerialised(file);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+    }
+    
+}
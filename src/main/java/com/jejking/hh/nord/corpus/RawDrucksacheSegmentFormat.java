@@ -0,0 +1,221 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.joda.time.LocalDate;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Constants and encoding helpers for the binary segment format in which many
+ * {@link RawDrucksache} instances are stored in a single file.
+ * 
+ * <p>A segment starts with a header of magic number, format version and flags. It is followed by
+ * a sequence of frames, each introduced by a type byte:</p>
+ * <ul>
+ * <li>{@link #FRAME_KEY}: a property key, implicitly numbered in order of appearance. Keys are written
+ * once per segment, before the first document using them, and referred to by number thereafter.</li>
+ * <li>{@link #FRAME_DOCUMENT}: the <i>Drucksachen</i> id, followed by the length of the encoded document 
+ * and the encoded document itself, deflated if the segment header says so.</li>
+ * </ul>
+ * 
+ * <p>As id and length precede the document bytes, a segment can be indexed without decoding any
+ * document at all.</p>
+ * 
+ * @see RawDrucksacheSegmentWriter
+ * @see RawDrucksacheSegmentReader
+ * @author jejking
+ *
+ */
+final class RawDrucksacheSegmentFormat {
+
+    static final int MAGIC = 0x48484453; // "HHDS"
+    static final byte VERSION = 1;
+    static final byte FLAG_COMPRESSED = 0x01;
+    
+    static final byte FRAME_KEY = 1;
+    static final byte FRAME_DOCUMENT = 2;
+    
+    private RawDrucksacheSegmentFormat() {
+        // no instances
+    }
+    
+    static void writeHeader(DataOutput out, boolean compressed) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(compressed ? FLAG_COMPRESSED : 0);
+    }
+    
+    /**
+     * Reads and checks the header.
+     * @param in input positioned at start of segment
+     * @return <code>true</code> if the documents in the segment are compressed
+     * @throws IOException if the header is not that of a segment of a supported version
+     */
+    static boolean readHeader(DataInput in) throws IOException {
+        return checkHeader(in.readInt(), in.readByte(), in.readByte());
+    }
+    
+    /**
+     * Reads and checks the header.
+     * @param buffer buffer positioned at start of segment
+     * @return <code>true</code> if the documents in the segment are compressed
+     * @throws IOException if the header is not that of a segment of a supported version
+     */
+    static boolean readHeader(ByteBuffer buffer) throws IOException {
+        return checkHeader(buffer.getInt(), buffer.get(), buffer.get());
+    }
+    
+    private static boolean checkHeader(int magic, byte version, byte flags) throws IOException {
+        if (magic != MAGIC) {
+            throw new IOException("Not a Drucksachen segment");
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported segment version " + version);
+        }
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+    
+    /*
+     * Length prefixed UTF-8, as DataOutput.writeUTF cannot cope with strings over 64k.
+     */
+    static void writeString(DataOutput out, String string) throws IOException {
+        byte[] bytes = string.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return decodeString(bytes);
+    }
+    
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return decodeString(bytes);
+    }
+    
+    private static String decodeString(byte[] bytes) {
+        return new String(bytes, Charsets.UTF_8);
+    }
+    
+    /**
+     * Encodes everything but the id of the document.
+     * 
+     * @param rawDrucksache document to encode
+     * @param keyNumbers numbers of the property keys, must contain all keys of the document
+     * @param compress whether to deflate the result
+     * @return encoded document
+     * @throws IOException
+     */
+    static byte[] encodeDocument(RawDrucksache rawDrucksache, Map<String, Integer> keyNumbers, boolean compress) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // the stream only ends a deflater it created itself, so we must end this one
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        try (DataOutputStream out = new DataOutputStream(compress ? new DeflaterOutputStream(bytes, deflater) : bytes)) {
+            writeString(out, rawDrucksache.getOriginalUrl().toExternalForm());
+            
+            Optional<LocalDate> date = rawDrucksache.getDate();
+            out.writeBoolean(date.isPresent());
+            if (date.isPresent()) {
+                out.writeShort(date.get().getYear());
+                out.writeByte(date.get().getMonthOfYear());
+                out.writeByte(date.get().getDayOfMonth());
+            }
+            
+            out.writeInt(rawDrucksache.getExtractedProperties().size());
+            for (Map.Entry<String, String> property : rawDrucksache.getExtractedProperties().entrySet()) {
+                out.writeInt(keyNumbers.get(property.getKey()));
+                writeString(out, property.getValue());
+            }
+            
+            out.writeInt(rawDrucksache.getExtractedContent().size());
+            for (String content : rawDrucksache.getExtractedContent()) {
+                writeString(out, content);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Decodes a document encoded by {@link #encodeDocument(RawDrucksache, Map, boolean)}.
+     * 
+     * @param drucksachenId id of the document, from the frame
+     * @param encoded encoded document
+     * @param keys property keys read so far in the segment, by number
+     * @param compressed whether the document is deflated
+     * @return decoded document
+     * @throws IOException
+     */
+    static RawDrucksache decodeDocument(String drucksachenId, byte[] encoded, List<String> keys, boolean compressed) throws IOException {
+        InputStream bytes = new ByteArrayInputStream(encoded);
+        try (DataInputStream in = new DataInputStream(compressed ? new InflaterInputStream(bytes) : bytes)) {
+            URL originalUrl = new URL(readString(in));
+            
+            Optional<LocalDate> date = Optional.absent();
+            if (in.readBoolean()) {
+                int year = in.readShort();
+                int month = in.readByte();
+                int day = in.readByte();
+                date = Optional.of(new LocalDate(year, month, day));
+            }
+            
+            int propertyCount = in.readInt();
+            ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+            for (int i = 0; i < propertyCount; i++) {
+                String key = keys.get(in.readInt());
+                properties.put(key, readString(in));
+            }
+            
+            int contentCount = in.readInt();
+            ImmutableList.Builder<String> content = ImmutableList.builder();
+            for (int i = 0; i < contentCount; i++) {
+                content.add(readString(in));
+            }
+            
+            return new RawDrucksache(drucksachenId, originalUrl, date, properties.build(), content.build());
+        }
+    }
+
+}
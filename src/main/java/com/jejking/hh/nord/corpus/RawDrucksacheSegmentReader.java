@@ -0,0 +1,107 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.FRAME_DOCUMENT;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.FRAME_KEY;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.decodeDocument;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.readHeader;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.readString;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Optional;
+
+/**
+ * Streaming reader of {@link RawDrucksache} instances from a segment written by a
+ * {@link RawDrucksacheSegmentWriter}. Documents are decoded one at a time, in the order
+ * they were written. Not thread safe.
+ * 
+ * @author jejking
+ *
+ */
+public final class RawDrucksacheSegmentReader implements Closeable {
+
+    private final DataInputStream in;
+    private final boolean compressed;
+    private final List<String> keys = new ArrayList<>();
+    
+    /**
+     * Constructor. Reads and checks the segment header straight away.
+     * 
+     * @param inputStream stream to read from, may not be <code>null</code>. Is closed along with the reader.
+     * @throws IOException if the header cannot be read or is not that of a segment
+     */
+    public RawDrucksacheSegmentReader(InputStream inputStream) throws IOException {
+        this.in = new DataInputStream(checkNotNull(inputStream));
+        this.compressed = readHeader(this.in);
+    }
+    
+    /**
+     * Opens a reader on a segment file.
+     * 
+     * @param file segment file
+     * @return reader
+     * @throws IOException
+     */
+    public static RawDrucksacheSegmentReader open(File file) throws IOException {
+        return new RawDrucksacheSegmentReader(new BufferedInputStream(new FileInputStream(file)));
+    }
+    
+    /**
+     * Reads the next document.
+     * 
+     * @return the next document or absent if the end of the segment has been reached
+     * @throws IOException if the segment is corrupt or truncated
+     */
+    public Optional<RawDrucksache> read() throws IOException {
+        int frameType = this.in.read();
+        while (frameType == FRAME_KEY) {
+            this.keys.add(readString(this.in));
+            frameType = this.in.read();
+        }
+        
+        if (frameType == -1) {
+            return Optional.absent();
+        }
+        if (frameType != FRAME_DOCUMENT) {
+            throw new IOException("Unknown frame type " + frameType);
+        }
+        
+        String drucksachenId = readString(this.in);
+        byte[] encoded = new byte[this.in.readInt()];
+        this.in.readFully(encoded);
+        return Optional.of(decodeDocument(drucksachenId, encoded, this.keys, this.compressed));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+}
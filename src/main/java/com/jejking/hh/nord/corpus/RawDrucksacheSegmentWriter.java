@@ -0,0 +1,118 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.FRAME_DOCUMENT;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.FRAME_KEY;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.encodeDocument;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.writeHeader;
+import static com.jejking.hh.nord.corpus.RawDrucksacheSegmentFormat.writeString;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming writer of {@link RawDrucksache} instances to a segment in the format described in
+ * {@link RawDrucksacheSegmentFormat}. Not thread safe.
+ * 
+ * @see RawDrucksacheSegmentReader
+ * @author jejking
+ *
+ */
+public final class RawDrucksacheSegmentWriter implements Closeable {
+
+    /**
+     * Conventional suffix of segment file names.
+     */
+    public static final String FILE_SUFFIX = ".seg";
+    
+    private final DataOutputStream out;
+    private final boolean compress;
+    private final Map<String, Integer> keyNumbers = new HashMap<>();
+    private int documentCount = 0;
+    
+    /**
+     * Constructor. Writes the segment header straight away.
+     * 
+     * @param outputStream stream to write to, may not be <code>null</code>. Is closed along with the writer.
+     * @param compress whether to deflate the documents
+     * @throws IOException if the header cannot be written
+     */
+    public RawDrucksacheSegmentWriter(OutputStream outputStream, boolean compress) throws IOException {
+        this.out = new DataOutputStream(checkNotNull(outputStream));
+        this.compress = compress;
+        writeHeader(this.out, compress);
+    }
+    
+    /**
+     * Creates a writer to a new segment file.
+     * 
+     * @param file file to write to. Should end with {@link #FILE_SUFFIX}.
+     * @param compress whether to deflate the documents
+     * @return writer
+     * @throws IOException
+     */
+    public static RawDrucksacheSegmentWriter create(File file, boolean compress) throws IOException {
+        return new RawDrucksacheSegmentWriter(new BufferedOutputStream(new FileOutputStream(file)), compress);
+    }
+    
+    /**
+     * Appends a document to the segment.
+     * 
+     * @param rawDrucksache document to write, may not be <code>null</code>
+     * @throws IOException
+     */
+    public void write(RawDrucksache rawDrucksache) throws IOException {
+        for (String key : rawDrucksache.getExtractedProperties().keySet()) {
+            if (!this.keyNumbers.containsKey(key)) {
+                this.out.writeByte(FRAME_KEY);
+                writeString(this.out, key);
+                this.keyNumbers.put(key, this.keyNumbers.size());
+            }
+        }
+        
+        byte[] encoded = encodeDocument(rawDrucksache, this.keyNumbers, this.compress);
+        this.out.writeByte(FRAME_DOCUMENT);
+        writeString(this.out, rawDrucksache.getDrucksachenId());
+        this.out.writeInt(encoded.length);
+        this.out.write(encoded);
+        this.documentCount++;
+    }
+
+    /**
+     * @return number of documents written so far
+     */
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+    
+}
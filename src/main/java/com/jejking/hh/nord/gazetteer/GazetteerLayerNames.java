@@ -19,13 +19,37 @@
  */
 package com.jejking.hh.nord.gazetteer;
 
+import com.google.common.collect.ImmutableList;
+
 /**
- * Names of spatial layers for use in the Gazetteer.
+ * Names of spatial layers for use in the Gazetteer. Each broad type of entry
+ * has a layer of its own so that a query for, say, administrative areas does not
+ * have to traverse an R-tree full of streets and points of interest. Databases
+ * written with the former single layer holding all geometries need rebuilding.
+ * 
  * @author jejking
- *
+ * @see GazetteerSpatialQueries
  */
 public interface GazetteerLayerNames {
 
-    public static final String GEO = "GEO";
+    /**
+     * Administrative areas, from the city down to the numbered districts.
+     */
+    public static final String ADMINISTRATIVE = "ADMINISTRATIVE";
+    
+    /**
+     * Streets, each merged from its Open Street Map way segments.
+     */
+    public static final String STREETS = "STREETS";
+    
+    /**
+     * Points of interest such as schools, each as a single point, the centroid for ways and relations.
+     */
+    public static final String POINTS_OF_INTEREST = "POINTS_OF_INTEREST";
+    
+    /**
+     * All layers written by the gazetteer importers.
+     */
+    public static final ImmutableList<String> ALL = ImmutableList.of(ADMINISTRATIVE, STREETS, POINTS_OF_INTEREST);
 
 }
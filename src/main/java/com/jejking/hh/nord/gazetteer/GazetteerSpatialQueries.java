@@ -0,0 +1,104 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import org.neo4j.gis.spatial.Layer;
+import org.neo4j.gis.spatial.SpatialDatabaseService;
+import org.neo4j.gis.spatial.pipes.GeoPipeline;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Facade for spatial queries over one or several of the gazetteer's layers,
+ * see {@link GazetteerLayerNames}. Only the R-trees of the layers named are searched,
+ * so a selective query, for example for the administrative areas a street crosses,
+ * does not touch the far larger street and point of interest indexes.
+ * 
+ * <p>All methods must be called within a transaction.</p>
+ * 
+ * @author jejking
+ *
+ */
+public class GazetteerSpatialQueries {
+
+    private final SpatialDatabaseService spatialDatabaseService;
+    
+    /**
+     * Constructor.
+     * 
+     * @param graph graph with the gazetteer, may not be <code>null</code>
+     * @throws NullPointerException if graph is <code>null</code>
+     */
+    public GazetteerSpatialQueries(GraphDatabaseService graph) {
+        this.spatialDatabaseService = new SpatialDatabaseService(checkNotNull(graph));
+    }
+    
+    /**
+     * Finds the nodes whose geometries intersect the envelope.
+     * 
+     * @param envelope envelope to search within
+     * @param layerNames names of the layers to search, at least one
+     * @return nodes found, layer by layer in the order the layers were named
+     * @throws IllegalArgumentException if no layer is named or a named layer does not exist
+     */
+    public ImmutableList<Node> intersectWindow(Envelope envelope, String... layerNames) {
+        ImmutableList.Builder<Node> nodes = ImmutableList.builder();
+        for (Layer layer : layers(layerNames)) {
+            nodes.addAll(GeoPipeline.startIntersectWindowSearch(layer, envelope).toNodeList());
+        }
+        return nodes.build();
+    }
+    
+    /**
+     * Finds the nodes whose geometries intersect the geometry.
+     * 
+     * @param geometry geometry to intersect with
+     * @param layerNames names of the layers to search, at least one
+     * @return nodes found, layer by layer in the order the layers were named
+     * @throws IllegalArgumentException if no layer is named or a named layer does not exist
+     */
+    public ImmutableList<Node> intersect(Geometry geometry, String... layerNames) {
+        ImmutableList.Builder<Node> nodes = ImmutableList.builder();
+        for (Layer layer : layers(layerNames)) {
+            nodes.addAll(GeoPipeline.startIntersectSearch(layer, geometry).toNodeList());
+        }
+        return nodes.build();
+    }
+    
+    private List<Layer> layers(String... layerNames) {
+        checkArgument(layerNames.length > 0, "at least one layer must be named");
+        ImmutableList.Builder<Layer> layers = ImmutableList.builder();
+        for (String layerName : layerNames) {
+            Layer layer = this.spatialDatabaseService.getLayer(layerName);
+            checkArgument(layer != null, "no layer named %s", layerName);
+            layers.add(layer);
+        }
+        return layers.build();
+    }
+    
+}
@@ -18,8 +18,12 @@
  */
 package com.jejking.hh.nord.gazetteer.opendata;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import rx.functions.Action1;
 import rx.functions.Func1;
@@ -36,6 +40,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class AdminAreaTreeNode<T> {
 
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    
     private final String name;
     private final String type;
     private final HashMap<String, AdminAreaTreeNode<T>> children = new HashMap<String, AdminAreaTreeNode<T>>();
@@ -185,6 +191,69 @@ public class AdminAreaTreeNode<T> {
         };
     }
 
+    /**
+     * Creates function to map over all tree with the composition of two functions, so that 
+     * the tree is traversed and copied only once rather than once per function.
+     * 
+     * @param f
+     *            function from T to U
+     * @param g
+     *            function from U to V, applied to the result of f
+     * @return function to map across
+     */
+    public <U, V> Func1<AdminAreaTreeNode<T>, AdminAreaTreeNode<V>> fmap(final Func1<T, U> f, final Func1<U, V> g) {
+        return fmap(new Func1<T, V>() {
+
+            @Override
+            public V call(T t) {
+                return g.call(f.call(t));
+            }
+            
+        });
+    }
+    
+    /**
+     * As {@link #fmap(Func1)}, but mapping sub-trees in parallel on a fork/join pool with
+     * {@link #DEFAULT_PARALLELISM} threads.
+     * 
+     * @param f
+     *            function from T to U, must be safe to call from several threads at once
+     * @return function to map across
+     */
+    public <U> Func1<AdminAreaTreeNode<T>, AdminAreaTreeNode<U>> parallelFmap(final Func1<T, U> f) {
+        return parallelFmap(f, DEFAULT_PARALLELISM);
+    }
+    
+    /**
+     * As {@link #fmap(Func1)}, but mapping sub-trees in parallel on a fork/join pool. Each
+     * child of a node is mapped as a task of its own while the node's own content is being
+     * mapped. The resulting tree is the same as that created by {@link #fmap(Func1)}.
+     * 
+     * @param f
+     *            function from T to U, must be safe to call from several threads at once
+     * @param parallelism
+     *            number of threads to use, must be at least 1
+     * @return function to map across
+     * @throws IllegalArgumentException if parallelism is less than 1
+     */
+    public <U> Func1<AdminAreaTreeNode<T>, AdminAreaTreeNode<U>> parallelFmap(final Func1<T, U> f, 
+                                                                              final int parallelism) {
+        checkArgument(parallelism >= 1, "parallelism must be at least 1");
+        return new Func1<AdminAreaTreeNode<T>, AdminAreaTreeNode<U>>() {
+
+            @Override
+            public AdminAreaTreeNode<U> call(AdminAreaTreeNode<T> from) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    return pool.invoke(new FmapTask<T, U>(from, f));
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            
+        };
+    }
+    
     /**
      * Descends tree of nodes applying action to node and its children.
      * 
@@ -199,4 +268,39 @@ public class AdminAreaTreeNode<T> {
         }
     }
 
+    private static final class FmapTask<T, U> extends RecursiveTask<AdminAreaTreeNode<U>> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final AdminAreaTreeNode<T> from;
+        private final Func1<T, U> f;
+
+        FmapTask(AdminAreaTreeNode<T> from, Func1<T, U> f) {
+            this.from = from;
+            this.f = f;
+        }
+
+        @Override
+        protected AdminAreaTreeNode<U> compute() {
+            List<String> childKeys = new ArrayList<>(from.getChildren().keySet());
+            List<FmapTask<T, U>> childTasks = new ArrayList<>(childKeys.size());
+            for (String childKey : childKeys) {
+                FmapTask<T, U> childTask = new FmapTask<T, U>(from.getChildren().get(childKey), f);
+                childTask.fork();
+                childTasks.add(childTask);
+            }
+            
+            AdminAreaTreeNode<U> to = new AdminAreaTreeNode<U>(from.getName(), from.getType(), 
+                                                               f.call(from.getContent()));
+            
+            // children are only added once joined, so the map is only written by this task
+            Map<String, AdminAreaTreeNode<U>> toChildren = to.getChildren();
+            for (int i = 0; i < childKeys.size(); i++) {
+                toChildren.put(childKeys.get(i), childTasks.get(i).join());
+            }
+            return to;
+        }
+        
+    }
+
 }
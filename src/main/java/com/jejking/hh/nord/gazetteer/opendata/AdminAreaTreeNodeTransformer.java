@@ -18,7 +18,8 @@
  */
 package com.jejking.hh.nord.gazetteer.opendata;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.JTSFactoryFinder;
@@ -34,39 +35,62 @@ import org.opengis.referencing.operation.TransformException;
 import rx.functions.Func1;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LinearRing;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
 
 /**
  * Function that transforms the results of parsing and assembling
  * the raw Hamburg admin area Open Data into a similarly structured tree that
- * contains polygons in WGS 84 and with a full root node.
+ * contains geometries in WGS 84 and with a full root node.
+ * 
+ * <p>The tree of all polygons from {@link HamburgRawTreeBuilder#buildPolygonTree()} is
+ * transformed with {@link #transformPolygonTree(AdminAreaTreeNode)}, giving a multi-polygon
+ * for areas made up of more than one polygon. The root node's geometry is the cascaded 
+ * union of the boroughs, which may itself be a multi-polygon.</p>
+ * 
+ * <p>Each raw coordinate list is turned into a reprojected polygon in a single step by a
+ * {@link PosListPolygonBuilder}. An area whose coordinates cannot be parsed is reported and
+ * left out of the tree, along with the areas within it. The former textual route via WKT,
+ * {@link CreateWkt}, {@link CreatePolygon} and {@link ConvertPolygonToWGS84}, is legacy and
+ * no longer used.</p>
  * 
  * @author jejking
  *
  */
-public class AdminAreaTreeNodeTransformer implements Func1<AdminAreaTreeNode<String>, AdminAreaTreeNode<Polygon>> {
+public class AdminAreaTreeNodeTransformer implements Func1<AdminAreaTreeNode<String>, AdminAreaTreeNode<Geometry>> {
 
     
     GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
 
     @Override
-    public AdminAreaTreeNode<Polygon> call(AdminAreaTreeNode<String> input) {
+    public AdminAreaTreeNode<Geometry> call(AdminAreaTreeNode<String> input) {
 
-        AdminAreaTreeNode<String> wktStrings = input.fmap(new CreateWkt()).call(input);
-        AdminAreaTreeNode<Optional<Polygon>> epsgPolygons = wktStrings.fmap(new CreatePolygon()).call(wktStrings);
-        AdminAreaTreeNode<Optional<Polygon>> wgs84Polygons = epsgPolygons.fmap(new ConvertPolygonToWGS84()).call(
-                epsgPolygons);
-        AdminAreaTreeNode<Polygon> fixedRoot = new BuildHamburgRootPolygon().call(wgs84Polygons);
+        // reprojection is CPU bound and independent for each node
+        AdminAreaTreeNode<Optional<Geometry>> wgs84Polygons = input.parallelFmap(new CreateWGS84Polygon()).call(input);
+        AdminAreaTreeNode<Geometry> fixedRoot = new BuildHamburgRootPolygon().call(wgs84Polygons);
 
         return fixedRoot;
 
     }
+    
+    /**
+     * Transforms the tree with all polygons, and their holes, of each area.
+     * 
+     * @param input tree as built by {@link HamburgRawTreeBuilder#buildPolygonTree()}
+     * @return tree of polygons and multi-polygons in WGS 84 with a full root node
+     */
+    public AdminAreaTreeNode<Geometry> transformPolygonTree(AdminAreaTreeNode<ImmutableList<GmlPolygon>> input) {
+        
+        AdminAreaTreeNode<Optional<Geometry>> wgs84Geometries = input.parallelFmap(new CreateWGS84Geometry())
+                                                                     .call(input);
+        return new BuildHamburgRootPolygon().call(wgs84Geometries);
+    }
 
     private static MathTransform buildMathTransform() {
         try {
@@ -80,6 +104,58 @@ public class AdminAreaTreeNodeTransformer implements Func1<AdminAreaTreeNode<Str
 
     }
 
+    final class CreateWGS84Polygon implements Func1<String, Optional<Geometry>> {
+        
+        private final PosListPolygonBuilder polygonBuilder = new PosListPolygonBuilder(geometryFactory, 
+                                                                                       buildMathTransform());
+        
+        @Override
+        public Optional<Geometry> call(String in) {
+            // the root node has no polygon
+            if (in.isEmpty()) {
+                return Optional.absent();
+            }
+            try {
+                return Optional.<Geometry>of(polygonBuilder.buildPolygon(in));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping malformed polygon: " + e.getMessage());
+                return Optional.absent();
+            }
+        }
+    }
+    
+    final class CreateWGS84Geometry implements Func1<ImmutableList<GmlPolygon>, Optional<Geometry>> {
+        
+        private final PosListPolygonBuilder polygonBuilder = new PosListPolygonBuilder(geometryFactory, 
+                                                                                       buildMathTransform());
+        
+        @Override
+        public Optional<Geometry> call(ImmutableList<GmlPolygon> in) {
+            // the root node has no polygon
+            if (in.isEmpty()) {
+                return Optional.absent();
+            }
+            try {
+                if (in.size() == 1) {
+                    return Optional.<Geometry>of(polygonBuilder.buildPolygon(in.get(0)));
+                }
+                
+                Polygon[] polygons = new Polygon[in.size()];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = polygonBuilder.buildPolygon(in.get(i));
+                }
+                return Optional.<Geometry>of(geometryFactory.createMultiPolygon(polygons));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping malformed polygon: " + e.getMessage());
+                return Optional.absent();
+            }
+        }
+    }
+    
+    /**
+     * Legacy, first step of the former route via WKT, replaced by {@link CreateWGS84Polygon}.
+     */
+    @Deprecated
     final class CreateWkt implements Func1<String, String> {
     
         @Override
@@ -104,6 +180,10 @@ public class AdminAreaTreeNodeTransformer implements Func1<AdminAreaTreeNode<Str
         }
     }
     
+    /**
+     * Legacy, second step of the former route via WKT, replaced by {@link CreateWGS84Polygon}.
+     */
+    @Deprecated
     final class CreatePolygon implements Func1<String, Optional<Polygon>> {
         @Override
         public Optional<Polygon> call(String in) {
@@ -116,6 +196,10 @@ public class AdminAreaTreeNodeTransformer implements Func1<AdminAreaTreeNode<Str
         }
     }
     
+    /**
+     * Legacy, last step of the former route via WKT, replaced by {@link CreateWGS84Polygon}.
+     */
+    @Deprecated
     final class ConvertPolygonToWGS84 implements Func1<Optional<Polygon>, Optional<Polygon>> {
 
         // convert to WGS 84
@@ -137,54 +221,46 @@ public class AdminAreaTreeNodeTransformer implements Func1<AdminAreaTreeNode<Str
     }
 
     final class BuildHamburgRootPolygon implements
-            Func1<AdminAreaTreeNode<Optional<Polygon>>, AdminAreaTreeNode<Polygon>> {
+            Func1<AdminAreaTreeNode<Optional<Geometry>>, AdminAreaTreeNode<Geometry>> {
 
-        // give the root node ("Hamburg") a polygon of its own
+        // give the root node ("Hamburg") a geometry of its own
         @Override
-        public AdminAreaTreeNode<Polygon> call(AdminAreaTreeNode<Optional<Polygon>> in) {
+        public AdminAreaTreeNode<Geometry> call(AdminAreaTreeNode<Optional<Geometry>> in) {
             Geometry unionOfBoroughs = computeUnionOfBoroughs(in);
-            Polygon boundaryAsPolygon = convertToPolygon(unionOfBoroughs);
 
-            AdminAreaTreeNode<Polygon> fixedRoot = new AdminAreaTreeNode<Polygon>("Hamburg", GazetteerEntryTypes.CITY,
-                    boundaryAsPolygon);
+            AdminAreaTreeNode<Geometry> fixedRoot = new AdminAreaTreeNode<Geometry>("Hamburg", GazetteerEntryTypes.CITY,
+                    unionOfBoroughs);
 
-            Func1<AdminAreaTreeNode<Optional<Polygon>>, AdminAreaTreeNode<Polygon>> f = in
-                    .fmap(new Func1<Optional<Polygon>, Polygon>() {
-
-                        @Override
-                        public Polygon call(Optional<Polygon> t1) {
-                            return t1.get();
-                        }
-
-                    });
-
-            for (String key : in.getChildren().keySet()) {
-                fixedRoot.getChildren().put(key, f.call(in.getChildren().get(key)));
-            }
+            addAreasWithGeometry(in, fixedRoot);
 
             return fixedRoot;
         }
-
-        private Polygon convertToPolygon(Geometry unionOfBoroughs) {
-            LinearRing boundaryAsRing = (LinearRing) unionOfBoroughs;
-
-            GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
-            Polygon boundaryAsPolygon = geometryFactory.createPolygon(boundaryAsRing);
-            return boundaryAsPolygon;
+        
+        // areas without a geometry were malformed, they are left out along with the areas within them
+        private void addAreasWithGeometry(AdminAreaTreeNode<Optional<Geometry>> from, AdminAreaTreeNode<Geometry> to) {
+            for (String key : from.getChildren().keySet()) {
+                AdminAreaTreeNode<Optional<Geometry>> child = from.getChildren().get(key);
+                if (child.getContent().isPresent()) {
+                    AdminAreaTreeNode<Geometry> copy = new AdminAreaTreeNode<Geometry>(child.getName(), child.getType(), 
+                                                                                       child.getContent().get());
+                    addAreasWithGeometry(child, copy);
+                    to.getChildren().put(key, copy);
+                } else {
+                    System.err.println("Leaving out area without geometry: " + child.getName());
+                }
+            }
         }
 
-        private Geometry computeUnionOfBoroughs(AdminAreaTreeNode<Optional<Polygon>> root) {
-            Iterator<AdminAreaTreeNode<Optional<Polygon>>> iterator = root.getChildren().values().iterator();
-            // we basically start at the first borough and add to that....
-            Geometry unionOfBoroughs = iterator.next().getContent().get();
-
-            while (iterator.hasNext()) {
-                unionOfBoroughs = unionOfBoroughs.union(iterator.next().getContent().get());
+        private Geometry computeUnionOfBoroughs(AdminAreaTreeNode<Optional<Geometry>> root) {
+            List<Geometry> boroughs = new ArrayList<>();
+            for (AdminAreaTreeNode<Optional<Geometry>> borough : root.getChildren().values()) {
+                if (borough.getContent().isPresent()) {
+                    boroughs.add(borough.getContent().get());
+                }
             }
-
-            unionOfBoroughs = unionOfBoroughs.getBoundary();
-            return unionOfBoroughs;
-
+            
+            // cascaded union, a polygon or, if the boroughs have exclaves, a multi-polygon
+            return UnaryUnionOp.union(boroughs, geometryFactory);
         }
     }
 
@@ -27,7 +27,8 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
 import com.google.common.base.Stopwatch;
-import com.vividsolutions.jts.geom.Polygon;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Class with main method just to run the importer for the Hamburg City
@@ -59,10 +60,10 @@ public class CreatePartialGazetteerWithOpenData {
 
     public static void writeHamburgPolygons(GraphDatabaseService graph) {
         HamburgRawTreeBuilder hamburgRawTreeBuilder = new HamburgRawTreeBuilder();
-        AdminAreaTreeNode<String> hamburgNodes = hamburgRawTreeBuilder.buildRawTree();
+        AdminAreaTreeNode<ImmutableList<GmlPolygon>> hamburgNodes = hamburgRawTreeBuilder.buildPolygonTree();
     
         AdminAreaTreeNodeTransformer t = new AdminAreaTreeNodeTransformer();
-        AdminAreaTreeNode<Polygon> hamburgPolygons = t.call(hamburgNodes);
+        AdminAreaTreeNode<Geometry> hamburgPolygons = t.transformPolygonTree(hamburgNodes);
         
         HamburgPolygonTreeToNeoImporter hamburgPolygonTreeToNeoImporter = new HamburgPolygonTreeToNeoImporter();
         hamburgPolygonTreeToNeoImporter.writeToNeo(hamburgPolygons, graph);
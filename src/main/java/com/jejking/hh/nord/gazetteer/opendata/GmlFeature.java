@@ -0,0 +1,88 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.opendata;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A feature as read from a GML file: its type, the text of its simple properties
+ * and all the polygons of its geometry.
+ * 
+ * @author jejking
+ *
+ */
+public final class GmlFeature {
+
+    private final String type;
+    private final ImmutableMap<String, String> properties;
+    private final ImmutableList<GmlPolygon> polygons;
+    
+    /**
+     * Constructor.
+     * 
+     * @param type local name of the feature element, may not be <code>null</code>
+     * @param properties local name to text of the simple property elements, may not be <code>null</code>
+     * @param polygons polygons of the feature's geometry, in document order, may not be <code>null</code>
+     * @throws NullPointerException if any parameter is <code>null</code>
+     */
+    public GmlFeature(String type, ImmutableMap<String, String> properties, ImmutableList<GmlPolygon> polygons) {
+        this.type = checkNotNull(type);
+        this.properties = checkNotNull(properties);
+        this.polygons = checkNotNull(polygons);
+    }
+
+    /**
+     * @return local name of the feature element, for example <code>Bezirk</code>
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return local name to text of the simple property elements
+     */
+    public ImmutableMap<String, String> getProperties() {
+        return properties;
+    }
+    
+    /**
+     * @param name local name of a property element
+     * @return trimmed text of the property, if present
+     */
+    public Optional<String> getProperty(String name) {
+        return Optional.fromNullable(this.properties.get(name));
+    }
+
+    /**
+     * @return polygons of the feature's geometry, more than one for multi-part features
+     */
+    public ImmutableList<GmlPolygon> getPolygons() {
+        return polygons;
+    }
+
+    @Override
+    public String toString() {
+        return "GmlFeature [type=" + type + ", properties=" + properties + ", polygons=" + polygons.size() + "]";
+    }
+    
+}
@@ -0,0 +1,178 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.opendata;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Streaming reader of the features in a WFS feature collection, as supplied by the 
+ * Hamburg Open Data portal. Features are read one <code>gml:featureMember</code> at a time
+ * with StAX, so memory use does not grow with the size of the file.
+ * 
+ * <p>Each feature's simple property elements are collected by local name. Every
+ * <code>gml:Polygon</code> in its geometry, however deeply nested in multi-surfaces, is 
+ * collected with its exterior and interior rings, which must be given as 
+ * <code>gml:posList</code>.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class GmlFeatureReader extends AbstractIterator<GmlFeature> implements Closeable {
+
+    static final String GML_NAMESPACE = "http://www.opengis.net/gml";
+    
+    private final InputStream inputStream;
+    private final XMLStreamReader reader;
+    
+    /**
+     * Constructor.
+     * 
+     * @param inputStream stream with GML, may not be <code>null</code>. Closed on closing the reader.
+     * @throws NullPointerException if input stream is <code>null</code>
+     */
+    public GmlFeatureReader(InputStream inputStream) {
+        this.inputStream = checkNotNull(inputStream);
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        try {
+            this.reader = xmlInputFactory.createXMLStreamReader(inputStream);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    @Override
+    protected GmlFeature computeNext() {
+        try {
+            while (this.reader.hasNext()) {
+                if (this.reader.next() == XMLStreamConstants.START_ELEMENT && isGml("featureMember")) {
+                    return readFeature();
+                }
+            }
+            return endOfData();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            this.reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            this.inputStream.close();
+        }
+    }
+    
+    /*
+     * Positioned on the start of gml:featureMember, reads up to the end of the feature element it contains.
+     */
+    private GmlFeature readFeature() throws XMLStreamException {
+        this.reader.nextTag();
+        String type = this.reader.getLocalName();
+        
+        Map<String, String> properties = new LinkedHashMap<>();
+        ImmutableList.Builder<GmlPolygon> polygons = ImmutableList.builder();
+        
+        String propertyName = null;
+        StringBuilder propertyText = new StringBuilder();
+        boolean propertyHasGeometry = false;
+        
+        int depth = 1;
+        while (depth > 0) {
+            int event = this.reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isGml("Polygon")) {
+                    polygons.add(readPolygon());
+                    propertyHasGeometry = true;
+                } else {
+                    if (depth == 1) {
+                        propertyName = this.reader.getLocalName();
+                        propertyText.setLength(0);
+                        propertyHasGeometry = false;
+                    }
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS && depth == 2) {
+                propertyText.append(this.reader.getText());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (depth == 1 && !propertyHasGeometry) {
+                    properties.put(propertyName, propertyText.toString().trim());
+                }
+            }
+        }
+        
+        return new GmlFeature(type, ImmutableMap.copyOf(properties), polygons.build());
+    }
+    
+    /*
+     * Positioned on the start of gml:Polygon, reads up to its end.
+     */
+    private GmlPolygon readPolygon() throws XMLStreamException {
+        String exterior = null;
+        ImmutableList.Builder<String> interiors = ImmutableList.builder();
+        boolean inExterior = false;
+        
+        while (true) {
+            int event = this.reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isGml("exterior")) {
+                    inExterior = true;
+                } else if (isGml("interior")) {
+                    inExterior = false;
+                } else if (isGml("posList")) {
+                    String posList = this.reader.getElementText().trim();
+                    if (inExterior) {
+                        exterior = posList;
+                    } else {
+                        interiors.add(posList);
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && isGml("Polygon")) {
+                if (exterior == null) {
+                    throw new XMLStreamException("Polygon without exterior posList", this.reader.getLocation());
+                }
+                return new GmlPolygon(exterior, interiors.build());
+            }
+        }
+    }
+    
+    private boolean isGml(String localName) {
+        return GML_NAMESPACE.equals(this.reader.getNamespaceURI()) && localName.equals(this.reader.getLocalName());
+    }
+    
+}
@@ -0,0 +1,85 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.opendata;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A polygon as read from a GML file, held as the raw <code>gml:posList</code>
+ * content of its exterior ring and of any interior rings, or holes.
+ * 
+ * @author jejking
+ *
+ */
+public final class GmlPolygon {
+
+    private final String exterior;
+    private final ImmutableList<String> interiors;
+    
+    /**
+     * Constructor.
+     * 
+     * @param exterior whitespace separated coordinates of the exterior ring, may not be <code>null</code>
+     * @param interiors whitespace separated coordinates of each interior ring, may not be <code>null</code>
+     * @throws NullPointerException if either parameter is <code>null</code>
+     */
+    public GmlPolygon(String exterior, ImmutableList<String> interiors) {
+        this.exterior = checkNotNull(exterior);
+        this.interiors = checkNotNull(interiors);
+    }
+
+    /**
+     * @return coordinates of the exterior ring
+     */
+    public String getExterior() {
+        return exterior;
+    }
+
+    /**
+     * @return coordinates of the interior rings, empty if the polygon has no holes
+     */
+    public ImmutableList<String> getInteriors() {
+        return interiors;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * exterior.hashCode() + interiors.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GmlPolygon)) {
+            return false;
+        }
+        GmlPolygon other = (GmlPolygon) obj;
+        return this.exterior.equals(other.exterior) && this.interiors.equals(other.interiors);
+    }
+
+    @Override
+    public String toString() {
+        return "GmlPolygon [interiors=" + interiors.size() + "]";
+    }
+    
+}
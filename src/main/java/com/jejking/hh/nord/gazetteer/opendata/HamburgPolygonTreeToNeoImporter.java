@@ -20,7 +20,7 @@ package com.jejking.hh.nord.gazetteer.opendata;
 
 
 import static com.jejking.hh.nord.gazetteer.GazetteerEntryTypes.NUMBERED_DISTRICT;
-import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.GEO;
+import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.ADMINISTRATIVE;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.NAME;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.NUMBER;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.TYPE;
@@ -36,7 +36,7 @@ import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.Index;
 
 import com.jejking.hh.nord.AbstractNeoImporter;
-import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Class to insert hierarchy of {@link GazetteerEntry} instances
@@ -44,7 +44,7 @@ import com.vividsolutions.jts.geom.Polygon;
  * @author jejking
  *
  */
-public class HamburgPolygonTreeToNeoImporter extends AbstractNeoImporter<AdminAreaTreeNode<Polygon>> {
+public class HamburgPolygonTreeToNeoImporter extends AbstractNeoImporter<AdminAreaTreeNode<Geometry>> {
 
     /**
      * Writes the root node to the graph database, along with all children,
@@ -53,11 +53,11 @@ public class HamburgPolygonTreeToNeoImporter extends AbstractNeoImporter<AdminAr
      * @param root
      * @param graph
      */
-    public void writeToNeo(AdminAreaTreeNode<Polygon> root, GraphDatabaseService graph) {
+    public void writeToNeo(AdminAreaTreeNode<Geometry> root, GraphDatabaseService graph) {
         SpatialDatabaseService spatialDatabaseService = new SpatialDatabaseService(graph);
         
         try (Transaction tx = graph.beginTx()) {
-            EditableLayer administrative = getEditableLayer(spatialDatabaseService, GEO);
+            EditableLayer administrative = getEditableLayer(spatialDatabaseService, ADMINISTRATIVE);
             Index<Node> fullText = graph.index().forNodes(GAZETTEER_FULLTEXT);
             addAdministrativeNode(administrative, fullText, null, root);
             tx.success();
@@ -66,7 +66,7 @@ public class HamburgPolygonTreeToNeoImporter extends AbstractNeoImporter<AdminAr
         
     }
     
-    private Node addAdministrativeNode(EditableLayer layer, Index<Node> fullText, Node neoParent, AdminAreaTreeNode<Polygon> child) {
+    private Node addAdministrativeNode(EditableLayer layer, Index<Node> fullText, Node neoParent, AdminAreaTreeNode<Geometry> child) {
         
         // create the child node
         Node neoChildNode = addNamedNodeToLayer(layer, fullText, child);
@@ -77,7 +77,7 @@ public class HamburgPolygonTreeToNeoImporter extends AbstractNeoImporter<AdminAr
         }
         
         // recurse down the child's children....
-        for (AdminAreaTreeNode<Polygon> childNode : child.getChildren().values()) {
+        for (AdminAreaTreeNode<Geometry> childNode : child.getChildren().values()) {
             addAdministrativeNode(layer, fullText, neoChildNode, childNode);
         }
         
@@ -88,7 +88,7 @@ public class HamburgPolygonTreeToNeoImporter extends AbstractNeoImporter<AdminAr
         neoParent.createRelationshipTo(neoChildNode, CONTAINS);
     }
 
-    private Node addNamedNodeToLayer(EditableLayer layer, Index<Node> fullText, AdminAreaTreeNode<Polygon> node) {
+    private Node addNamedNodeToLayer(EditableLayer layer, Index<Node> fullText, AdminAreaTreeNode<Geometry> node) {
     	
     	String key = node.getType().equals(NUMBERED_DISTRICT) ? NUMBER : NAME;
     	
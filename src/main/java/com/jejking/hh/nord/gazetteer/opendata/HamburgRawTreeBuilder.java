@@ -23,22 +23,17 @@ package com.jejking.hh.nord.gazetteer.opendata;
 import java.io.IOException;
 import java.util.Properties;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import rx.functions.Func1;
 
-import com.jejking.hh.nord.UniversalNamespaceCache;
+import com.google.common.collect.ImmutableList;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-
 /**
  * Class to build a simple tree of nodes extracted from the WFS XML files obtained from the Hamburg Open Data portal.
- * Each node consists of a name, a string representing a list of EPSG coordinate pairs and a map of children.
+ * Each node consists of a name, the polygons of the area as lists of EPSG coordinate pairs and a map of children.
+ * 
+ * <p>The files are streamed feature by feature with a {@link GmlFeatureReader}, so every polygon of
+ * multi-part areas and every hole is retained in the {@link #buildPolygonTree() polygon tree}.</p>
  * 
  * <p>The class assumes that the data files are held locally as resources accessible on the classpath. They are included
  * in the distribution as per Hamburg Open Data License. Copyright of these belongs to Freie und Hansestadt Hamburg.</p>
@@ -48,18 +43,12 @@ import javax.xml.xpath.XPathFactory;
  */
 public class HamburgRawTreeBuilder {
 
-    private final DocumentBuilderFactory documentBuilderFactory;
-    private final XPathFactory xPathFactory;
     private final Properties boroughLookUp;
     
     /**
      * Constructor. Loads the mapping between <i>Bezirk</i> IDs and names.
      */
     public HamburgRawTreeBuilder() {
-        this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        this.documentBuilderFactory.setNamespaceAware(true);
-        
-        this.xPathFactory = XPathFactory.newInstance();
         this.boroughLookUp = loadBezirkProperties();
     }
     
@@ -74,15 +63,38 @@ public class HamburgRawTreeBuilder {
      * 
      * <p>Each is labelled with its name and provides a raw polygon string
      * that ultimately represents a list of of co-ordinate pairs from the 
-     * coordinate reference system EPSG 25832.</p>
+     * coordinate reference system EPSG 25832. This is the exterior of the first
+     * polygon of each area only, see {@link #buildPolygonTree()} for all of them.</p>
      *  
      * @return root node with children
      */
     public AdminAreaTreeNode<String> buildRawTree() {
+        AdminAreaTreeNode<ImmutableList<GmlPolygon>> polygonTree = buildPolygonTree();
+        return polygonTree.fmap(new Func1<ImmutableList<GmlPolygon>, String>() {
+
+            @Override
+            public String call(ImmutableList<GmlPolygon> polygons) {
+                // root node has no polygon
+                return polygons.isEmpty() ? "" : polygons.get(0).getExterior();
+            }
+            
+        }).call(polygonTree);
+    }
+    
+    /**
+     * Constructs the same hierarchical tree of nodes as {@link #buildRawTree()}, but
+     * with all the polygons of each area, including their holes. Three areas are made up
+     * of more than one polygon: the borough Wandsbek, the named area Volksdorf and its
+     * numbered district 525.
+     * 
+     * @return root node, with no polygons, with children
+     */
+    public AdminAreaTreeNode<ImmutableList<GmlPolygon>> buildPolygonTree() {
         // root node. We haven't defined a boundary here, as it's not needed for our purposes.
-        AdminAreaTreeNode<String> hamburg = new AdminAreaTreeNode<String>("Hamburg", 
-                                                           GazetteerEntryTypes.CITY, 
-                                                           "");
+        AdminAreaTreeNode<ImmutableList<GmlPolygon>> hamburg = new AdminAreaTreeNode<ImmutableList<GmlPolygon>>(
+                                                                            "Hamburg", 
+                                                                            GazetteerEntryTypes.CITY, 
+                                                                            ImmutableList.<GmlPolygon>of());
         
         addBoroughs(hamburg);
         addNamedAreas(hamburg);
@@ -91,63 +103,34 @@ public class HamburgRawTreeBuilder {
         return hamburg;
     }
 
-    private void addBoroughs(AdminAreaTreeNode<String> hamburg) {
-        
-        Document boroughsDocument = getDocument("/bezirke.xml");
-        
-        /*
-         * There are 7 boroughs, the xpath *should* give 14 elements,
-         * alternating the ID and the polygon data.
-         * 
-         * But - it returns 15, there are two polygons for Wandsbek. Not clear why.
-         */
-        NodeList data = evaluateXPath(
-                        "//gml:featureMember/INSPIRE:Bezirk/INSPIRE:OBJECTID/text() | //gml:posList/text()",
-                        boroughsDocument);
-        
-        // stride through the node list in intervals of 2
-        for (int i = 0; i < data.getLength(); i = i + 2) {
-            String id = data.item(i).getTextContent();
-            String name = boroughLookUp.getProperty(id);
-            String polygon = data.item(i + 1).getTextContent().trim();
-            AdminAreaTreeNode<String> boroughNode = new AdminAreaTreeNode<String>(name, GazetteerEntryTypes.BOROUGH, polygon);
-            hamburg.getChildren().put(name, boroughNode);
-            
-            // nasty workaround needed as Wandsbek turns out to have two polygons
-            // so we skip the second one for now...
-            if (i + 2 < data.getLength() && data.item(i + 2).getTextContent().length() != 1) {
-                i++;
+    private void addBoroughs(AdminAreaTreeNode<ImmutableList<GmlPolygon>> hamburg) {
+        try (GmlFeatureReader features = openFeatures("/bezirke.xml")) {
+            while (features.hasNext()) {
+                GmlFeature borough = features.next();
+                String name = boroughLookUp.getProperty(borough.getProperty("OBJECTID").get());
+                hamburg.getChildren().put(name, new AdminAreaTreeNode<ImmutableList<GmlPolygon>>(
+                                                        name, GazetteerEntryTypes.BOROUGH, borough.getPolygons()));
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
     
-    private void addNamedAreas(AdminAreaTreeNode<String> hamburg) {
-        Document namedAreasDocument = getDocument("/stadtteile.xml");
+    private void addNamedAreas(AdminAreaTreeNode<ImmutableList<GmlPolygon>> hamburg) {
+        try (GmlFeatureReader features = openFeatures("/stadtteile.xml")) {
+            while (features.hasNext()) {
+                GmlFeature namedArea = features.next();
+                String areaName = normalisePauliAndGeorg(namedArea.getProperty("Stadtteil").get());
+                String boroughName = namedArea.getProperty("Bezirk").get();
                 
-        /*
-         * There are 104 named areas, this *should* returns 312 elements:
-         * -> polygon, area name, borough name.
-         * It actually returns 314 elements as Duvenstedt and Volksdorf are given two polygons.
-         */
-        NodeList data = evaluateXPath(
-                        "//gml:featureMember/INSPIRE:Stadtteile/INSPIRE:Stadtteil/text() | //gml:posList/text() | //gml:featureMember/INSPIRE:Stadtteile/INSPIRE:Bezirk/text()",
-                        namedAreasDocument);
-
-        for (int i = 0; i < data.getLength(); i = i + 3) {
-            String polygon = data.item(i).getTextContent().trim();
-            
-            // if we get another polygon (identified as starting with a digit), then skip forward...
-            if (data.item(i + 1).getTextContent().trim().matches("\\d(.)*")) {
-                i++; // we've got either Duvenstedt or Volksdorf, skip the extra polygon...
+                AdminAreaTreeNode<ImmutableList<GmlPolygon>> boroughNode = hamburg.getChildren().get(boroughName);
+                boroughNode.getChildren().put(areaName, new AdminAreaTreeNode<ImmutableList<GmlPolygon>>(
+                                                                areaName, GazetteerEntryTypes.NAMED_AREA, 
+                                                                namedArea.getPolygons()));
             }
-            String areaName = normalisePauliAndGeorg(data.item(i + 1).getTextContent());
-            String boroughName = data.item(i + 2).getTextContent();
-            
-            AdminAreaTreeNode<String> namedAreaNode = new AdminAreaTreeNode<String>(areaName, GazetteerEntryTypes.NAMED_AREA, polygon);
-            AdminAreaTreeNode<String> boroughNode = hamburg.getChildren().get(boroughName);
-            boroughNode.getChildren().put(areaName, namedAreaNode);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        
     }
     
     /*
@@ -171,53 +154,33 @@ public class HamburgRawTreeBuilder {
         return normalised;
     }
 
-    private void addNumberedDistricts(AdminAreaTreeNode<String> hamburg) {
-        Document numberedDistrictsDocument = getDocument("/ortsteile.xml");
-        
-        /*
-         * There are 180 numbered Ortsteile, this *should* returns 540 elements: 
-         *          -> polygon, area name, numbered district.
-         * 
-         * It actually returns 542 elements as the numbered districts for Duvenstedt and Volksdorf 
-         * are given two polygons.
-         */
-        NodeList data = evaluateXPath(
-              "//gml:featureMember/INSPIRE:Ortsteile/INSPIRE:Stadtteil/text() | //gml:posList/text() | //gml:featureMember/INSPIRE:Ortsteile/INSPIRE:Ortsteilnummer/text()",
-              numberedDistrictsDocument);
-
-        for (int i = 0; i < data.getLength(); i = i + 3) {
-            String polygon = data.item(i).getTextContent().trim();
-            
-            // if we get another polygon (identified as starting with more than 3 digits)
-            if (data.item(i + 1).getTextContent().trim().matches("\\d{4,}(.)*")) {
-                i++; // we've got either Duvenstedt or Volksdorf, skip the extra polygon...
+    private void addNumberedDistricts(AdminAreaTreeNode<ImmutableList<GmlPolygon>> hamburg) {
+        try (GmlFeatureReader features = openFeatures("/ortsteile.xml")) {
+            while (features.hasNext()) {
+                GmlFeature numberedDistrict = features.next();
+                String areaName = numberedDistrict.getProperty("Stadtteil").get();
+                String districtNumber = numberedDistrict.getProperty("Ortsteilnummer").get();
+                
+                AdminAreaTreeNode<ImmutableList<GmlPolygon>> numberedDistrictNode = 
+                        new AdminAreaTreeNode<ImmutableList<GmlPolygon>>(districtNumber, 
+                                                                         GazetteerEntryTypes.NUMBERED_DISTRICT, 
+                                                                         numberedDistrict.getPolygons());
+                
+                // the first digit of the Ortsteil number encodes the borough, you have to know this ;)
+                String boroughName = this.boroughLookUp.getProperty(districtNumber.substring(0, 1));
+                AdminAreaTreeNode<ImmutableList<GmlPolygon>> boroughNode = hamburg.getChildren().get(boroughName);
+                AdminAreaTreeNode<ImmutableList<GmlPolygon>> namedAreaNode = boroughNode.getChildren().get(areaName);
+                namedAreaNode.getChildren().put(districtNumber, numberedDistrictNode);
             }
-            
-            String areaName = data.item(i + 1).getTextContent();
-            String districtNumber = data.item(i + 2).getTextContent();
-
-            
-            AdminAreaTreeNode<String> numberedDistrictNode = new AdminAreaTreeNode<String>(districtNumber, GazetteerEntryTypes.NUMBERED_DISTRICT, polygon);
-            
-            // the first digit of the Ortsteil number encodes the borough, you have to know this ;)
-            String boroughName = this.boroughLookUp.getProperty(districtNumber.substring(0, 1));
-            AdminAreaTreeNode<String> boroughNode = hamburg.getChildren().get(boroughName);
-            AdminAreaTreeNode<String> namedAreaNode = boroughNode.getChildren().get(areaName);
-            namedAreaNode.getChildren().put(districtNumber, numberedDistrictNode);    
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        
     }
 
     // - util methods
     
-    private Document getDocument(String path) {
-        try {
-            DocumentBuilder documentBuilder = this.documentBuilderFactory.newDocumentBuilder();
-            Document doc = documentBuilder.parse(HamburgRawTreeBuilder.class.getResourceAsStream(path));
-            return doc;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    private GmlFeatureReader openFeatures(String path) {
+        return new GmlFeatureReader(HamburgRawTreeBuilder.class.getResourceAsStream(path));
     }
 
     private Properties loadBezirkProperties() {
@@ -230,17 +193,4 @@ public class HamburgRawTreeBuilder {
         return bezirkProps;
     }
     
-    private NodeList evaluateXPath(String expressionString, Document document) {
-        try {
-            XPath xpath = this.xPathFactory.newXPath();
-            xpath.setNamespaceContext(new UniversalNamespaceCache(document, true));
-            
-            XPathExpression xPathExpression = xpath.compile(expressionString);
-            
-            return (NodeList) xPathExpression.evaluate(document, XPathConstants.NODESET);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        
-    }
 }
@@ -0,0 +1,143 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.opendata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+
+/**
+ * Builds JTS polygons directly from the whitespace separated coordinate pairs of 
+ * a <code>gml:posList</code>. The coordinates are parsed into a packed <code>double</code>
+ * array, reprojected in place and handed to the geometry as a 
+ * {@link PackedCoordinateSequence}, with no intermediate WKT or coordinate objects.
+ * 
+ * <p>Instances hold no mutable state and may be shared between threads, as long
+ * as the math transform may be.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class PosListPolygonBuilder {
+
+    private static final int DIMENSION = 2;
+    
+    private final GeometryFactory geometryFactory;
+    private final MathTransform transform;
+    
+    /**
+     * Constructor.
+     * 
+     * @param geometryFactory factory to create rings and polygons with, may not be <code>null</code>
+     * @param transform transform from the coordinate reference system of the GML to that of the 
+     *  polygons, may not be <code>null</code>
+     * @throws NullPointerException if either parameter is <code>null</code>
+     */
+    public PosListPolygonBuilder(GeometryFactory geometryFactory, MathTransform transform) {
+        this.geometryFactory = checkNotNull(geometryFactory);
+        this.transform = checkNotNull(transform);
+    }
+    
+    /**
+     * Builds a polygon without holes.
+     * 
+     * @param exterior coordinates of the exterior ring
+     * @return reprojected polygon
+     * @throws IllegalArgumentException if the coordinates cannot be parsed
+     */
+    public Polygon buildPolygon(String exterior) {
+        return this.geometryFactory.createPolygon(buildRing(exterior), null);
+    }
+    
+    /**
+     * Builds a polygon with any holes it may have.
+     * 
+     * @param gmlPolygon polygon as read from GML
+     * @return reprojected polygon
+     * @throws IllegalArgumentException if the coordinates cannot be parsed
+     */
+    public Polygon buildPolygon(GmlPolygon gmlPolygon) {
+        ImmutableList<String> interiors = gmlPolygon.getInteriors();
+        LinearRing[] holes = new LinearRing[interiors.size()];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = buildRing(interiors.get(i));
+        }
+        return this.geometryFactory.createPolygon(buildRing(gmlPolygon.getExterior()), holes);
+    }
+    
+    /**
+     * Builds a single closed ring.
+     * 
+     * @param posList coordinates of the ring, first and last pair being the same
+     * @return reprojected ring
+     * @throws IllegalArgumentException if the coordinates cannot be parsed
+     */
+    public LinearRing buildRing(String posList) {
+        double[] coordinates = parsePosList(posList);
+        try {
+            this.transform.transform(coordinates, 0, coordinates, 0, coordinates.length / DIMENSION);
+        } catch (TransformException e) {
+            throw new RuntimeException(e);
+        }
+        return this.geometryFactory.createLinearRing(new PackedCoordinateSequence.Double(coordinates, DIMENSION));
+    }
+    
+    /**
+     * Parses whitespace separated numbers into an array without splitting the string.
+     * 
+     * @param posList coordinate pairs
+     * @return x and y values, alternately
+     * @throws IllegalArgumentException if there is an odd number of values or a value is not a number
+     */
+    static double[] parsePosList(String posList) {
+        int length = posList.length();
+        
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(posList.charAt(i)) 
+                    && (i == 0 || Character.isWhitespace(posList.charAt(i - 1)))) {
+                count++;
+            }
+        }
+        checkArgument(count % DIMENSION == 0, "odd number of values in pos list");
+        
+        double[] coordinates = new double[count];
+        int index = 0;
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean separator = i == length || Character.isWhitespace(posList.charAt(i));
+            if (separator && start >= 0) {
+                coordinates[index++] = Double.parseDouble(posList.substring(start, i));
+                start = -1;
+            } else if (!separator && start < 0) {
+                start = i;
+            }
+        }
+        return coordinates;
+    }
+    
+}
@@ -0,0 +1,272 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a bzip2 stream into its compressed blocks, each of which can be re-wrapped as a complete 
+ * single block bzip2 stream and decompressed independently of all the others.
+ * 
+ * <p>Blocks in a bzip2 stream are not byte aligned, so the input is searched at every bit 
+ * offset for the 48 bit block and end of stream markers. Each block is wrapped with a fresh
+ * stream header, the block bits as found (the block header carries the block CRC), an end 
+ * of stream marker and - since the stream holds just the one block - the block CRC as 
+ * combined stream CRC. Concatenated streams, as written by parallel compressors, are handled 
+ * as the stream headers and trailers in between are simply skipped.</p>
+ * 
+ * <p>A chance occurrence of a marker within compressed data, while extremely unlikely, splits a 
+ * block in two. Neither half then passes the CRC check when decompressed, but as the pieces are
+ * emitted without losing any bits in between, they can be {@link CompressedBlock#append(CompressedBlock) joined}
+ * back together again. An end of stream marker is only taken as such if the next marker follows as
+ * closely as a stream trailer and header allow, otherwise the bits from it on are emitted as a piece.</p>
+ * 
+ * @author jejking
+ *
+ */
+final class BZip2BlockScanner implements BZip2BlockSource {
+
+    static final long BLOCK_MAGIC = 0x314159265359L;
+    static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    
+    private static final int MAGIC_BITS = 48;
+    private static final long MAGIC_MASK = (1L << MAGIC_BITS) - 1;
+    
+    // a block is never larger than this when decompressed, so we can always use it in the header
+    private static final byte[] STREAM_HEADER = {'B', 'Z', 'h', '9'};
+    private static final int BLOCK_CRC_OFFSET = STREAM_HEADER.length + MAGIC_BITS / 8;
+    private static final int CRC_BITS = 32;
+    private static final int INITIAL_BUFFER_SIZE = 1 << 21;
+    // end of stream marker, combined crc, padding and the header of the next stream
+    private static final int MAX_STREAM_GAP_BITS = MAGIC_BITS + CRC_BITS + 7 + STREAM_HEADER.length * 8;
+    
+    private final InputStream inputStream;
+    
+    // raw input from the start of the current block on, data[0] is at dataOffset in the input
+    private byte[] data = new byte[INITIAL_BUFFER_SIZE];
+    private long dataOffset = 0;
+    private int dataLength = 0;
+    private int scanIndex = 0;
+    
+    // the last 64 bits scanned
+    private long window = 0;
+    
+    // bit offset of the current block in the input, -1 when between streams
+    private long blockStartBit = -1;
+    
+    // bit offset of the last end of stream marker while between streams, otherwise -1
+    private long endOfStreamBit = -1;
+    
+    private boolean exhausted = false;
+    
+    /**
+     * Constructor.
+     * 
+     * @param inputStream bzip2 compressed data, may not be <code>null</code>
+     * @throws NullPointerException if parameter is <code>null</code>
+     */
+    BZip2BlockScanner(InputStream inputStream) {
+        this.inputStream = checkNotNull(inputStream);
+    }
+    
+    /**
+     * Reads up to the end of the next block in the input.
+     * 
+     * @return the block, or <code>null</code> if there are no more blocks
+     * @throws IOException if reading fails
+     */
+    @Override
+    public CompressedBlock nextBlock() throws IOException {
+        while (true) {
+            while (this.scanIndex < this.dataLength) {
+                this.window = (this.window << 8) | (this.data[this.scanIndex] & 0xFF);
+                this.scanIndex++;
+                long endBit = (this.dataOffset + this.scanIndex) * 8;
+                
+                // check each of the markers that could end within the byte just added
+                for (int shift = 7; shift >= 0; shift--) {
+                    long candidate = (this.window >>> shift) & MAGIC_MASK;
+                    if (candidate == BLOCK_MAGIC || candidate == END_OF_STREAM_MAGIC) {
+                        long markerStartBit = endBit - shift - MAGIC_BITS;
+                        if (this.blockStartBit < 0 && this.endOfStreamBit >= 0 
+                                && markerStartBit - this.endOfStreamBit > MAX_STREAM_GAP_BITS) {
+                            // too far from the end of stream marker for it to have been one
+                            this.blockStartBit = this.endOfStreamBit;
+                        }
+                        CompressedBlock completedBlock = this.blockStartBit >= 0 ? extractBlock(markerStartBit) : null;
+                        this.blockStartBit = candidate == BLOCK_MAGIC ? markerStartBit : -1;
+                        this.endOfStreamBit = candidate == BLOCK_MAGIC ? -1 : markerStartBit;
+                        if (completedBlock != null) {
+                            return completedBlock;
+                        }
+                    }
+                }
+            }
+            
+            if (this.exhausted) {
+                if (this.blockStartBit < 0 && this.endOfStreamBit >= 0
+                        && (this.dataOffset + this.dataLength) * 8 - this.endOfStreamBit > MAGIC_BITS + CRC_BITS + 7) {
+                    // more than a stream trailer follows the last end of stream marker
+                    this.blockStartBit = this.endOfStreamBit;
+                }
+                this.endOfStreamBit = -1;
+                // a truncated stream, hand over what there is and let the decompressor complain
+                if (this.blockStartBit >= 0) {
+                    CompressedBlock completedBlock = extractBlock((this.dataOffset + this.dataLength) * 8);
+                    this.blockStartBit = -1;
+                    return completedBlock;
+                }
+                return null;
+            }
+            readMore();
+        }
+    }
+    
+    private void readMore() throws IOException {
+        // keep the current block, or what follows an end of stream marker until it is known to have been one, 
+        // otherwise the window holds what is needed to find the next marker
+        long keepFrom = this.dataOffset + this.scanIndex;
+        if (this.blockStartBit >= 0) {
+            keepFrom = this.blockStartBit >>> 3;
+        } else if (this.endOfStreamBit >= 0) {
+            keepFrom = this.endOfStreamBit >>> 3;
+        }
+        int keepIndex = (int) (keepFrom - this.dataOffset);
+        if (keepIndex > 0) {
+            System.arraycopy(this.data, keepIndex, this.data, 0, this.dataLength - keepIndex);
+            this.dataOffset += keepIndex;
+            this.dataLength -= keepIndex;
+            this.scanIndex -= keepIndex;
+        }
+        if (this.dataLength == this.data.length) {
+            this.data = Arrays.copyOf(this.data, this.data.length * 2);
+        }
+        
+        int read = this.inputStream.read(this.data, this.dataLength, this.data.length - this.dataLength);
+        if (read == -1) {
+            this.exhausted = true;
+        } else {
+            this.dataLength += read;
+        }
+    }
+    
+    private CompressedBlock extractBlock(long endBit) {
+        long blockBits = endBit - this.blockStartBit;
+        byte[] bits = new byte[(int) ((blockBits + 7) >>> 3)];
+        
+        // shift the block bits so that they start on a byte boundary
+        int from = (int) ((this.blockStartBit >>> 3) - this.dataOffset);
+        int shift = (int) (this.blockStartBit & 7);
+        for (int i = 0; i < bits.length; i++) {
+            int high = this.data[from + i] << shift;
+            int low = shift == 0 || from + i + 1 >= this.dataLength ? 0 : (this.data[from + i + 1] & 0xFF) >>> (8 - shift);
+            bits[i] = (byte) (high | low);
+        }
+        int trailingBits = (int) (blockBits & 7);
+        if (trailingBits != 0) {
+            bits[bits.length - 1] &= 0xFF << (8 - trailingBits);
+        }
+        return new CompressedBlock(bits, blockBits);
+    }
+    
+    private static long writeBits(byte[] target, long bitPosition, long value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (((value >>> i) & 1) != 0) {
+                target[(int) (bitPosition >>> 3)] |= 0x80 >>> (bitPosition & 7);
+            }
+            bitPosition++;
+        }
+        return bitPosition;
+    }
+    
+    /**
+     * The bits of a compressed block, from its block marker up to the next marker, shifted to start
+     * on a byte boundary.
+     */
+    static final class CompressedBlock {
+        
+        private final byte[] bits;
+        private final long bitCount;
+        
+        /**
+         * Constructor.
+         * 
+         * @param bits the bits, starting with the block marker, any bits after the last are zero
+         * @param bitCount number of bits in the block
+         */
+        CompressedBlock(byte[] bits, long bitCount) {
+            this.bits = checkNotNull(bits);
+            this.bitCount = bitCount;
+        }
+        
+        /**
+         * Wraps the block in a stream of its own with a fresh stream header, an end of stream marker
+         * and - since the stream holds just the one block - the block CRC as combined stream CRC.
+         * 
+         * @return the block as complete bzip2 stream
+         */
+        byte[] toStream() {
+            int headerBits = STREAM_HEADER.length * 8;
+            byte[] stream = new byte[(int) ((headerBits + this.bitCount + MAGIC_BITS + CRC_BITS + 7) >>> 3)];
+            System.arraycopy(STREAM_HEADER, 0, stream, 0, STREAM_HEADER.length);
+            System.arraycopy(this.bits, 0, stream, STREAM_HEADER.length, this.bits.length);
+            
+            // block crc follows the block magic
+            long blockCrc = 0;
+            for (int i = BLOCK_CRC_OFFSET; i < BLOCK_CRC_OFFSET + CRC_BITS / 8; i++) {
+                blockCrc = (blockCrc << 8) | (stream[i] & 0xFF);
+            }
+            long bitPosition = headerBits + this.bitCount;
+            bitPosition = writeBits(stream, bitPosition, END_OF_STREAM_MAGIC, MAGIC_BITS);
+            writeBits(stream, bitPosition, blockCrc, CRC_BITS);
+            return stream;
+        }
+        
+        /**
+         * Joins a block split by a chance occurrence of a marker in its compressed data back together.
+         * 
+         * @param next the block following this one in the input
+         * @return block with the bits of both
+         */
+        CompressedBlock append(CompressedBlock next) {
+            long joinedBitCount = this.bitCount + next.bitCount;
+            byte[] joined = Arrays.copyOf(this.bits, (int) ((joinedBitCount + 7) >>> 3));
+            long bitPosition = this.bitCount;
+            for (long remaining = next.bitCount; remaining > 0; remaining -= 8) {
+                int count = (int) Math.min(8, remaining);
+                int nextByte = next.bits[(int) ((next.bitCount - remaining) >>> 3)] & 0xFF;
+                bitPosition = writeBits(joined, bitPosition, nextByte >>> (8 - count), count);
+            }
+            return new CompressedBlock(joined, joinedBitCount);
+        }
+        
+        byte[] getBits() {
+            return this.bits;
+        }
+        
+        long getBitCount() {
+            return this.bitCount;
+        }
+    }
+    
+}
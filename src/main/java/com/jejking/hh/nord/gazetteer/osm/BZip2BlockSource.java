@@ -0,0 +1,39 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import java.io.IOException;
+
+import com.jejking.hh.nord.gazetteer.osm.BZip2BlockScanner.CompressedBlock;
+
+/**
+ * Source of the compressed blocks of a bzip2 stream, in the order they appear in the input.
+ * 
+ * @author jejking
+ *
+ */
+interface BZip2BlockSource {
+
+    /**
+     * @return the next block, or <code>null</code> if there are no more blocks
+     * @throws IOException if reading fails
+     */
+    CompressedBlock nextBlock() throws IOException;
+    
+}
@@ -0,0 +1,111 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact set of Open Street Map ids, held as a sparse bitmap. Ids are grouped into pages
+ * of 65536 consecutive ids, each page a plain bitmap of 8KB, and only pages containing at
+ * least one id are allocated. Ids within an extract tend to cluster, so this needs far less 
+ * memory than a set of boxed longs - and far less than storing the nodes themselves.
+ * 
+ * <p>Lookups of ids in ascending order, as they appear in sorted extracts, are cheapest as
+ * the last page used is cached. Instances are not thread safe, not even for reading.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class IdBitmap {
+
+    private static final int PAGE_BITS = 16;
+    private static final long OFFSET_MASK = (1L << PAGE_BITS) - 1;
+    private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / Long.SIZE;
+    
+    private final Map<Long, long[]> pages = new HashMap<>();
+    private long cardinality = 0;
+    
+    private long lastPageKey = Long.MIN_VALUE;
+    private long[] lastPage = null;
+    
+    /**
+     * Adds an id to the set.
+     * 
+     * @param id OSM id
+     * @return <code>true</code> if the id was not already in the set
+     */
+    public boolean add(long id) {
+        long[] page = page(id >> PAGE_BITS);
+        if (page == null) {
+            page = new long[WORDS_PER_PAGE];
+            this.pages.put(id >> PAGE_BITS, page);
+            this.lastPageKey = id >> PAGE_BITS;
+            this.lastPage = page;
+        }
+        int offset = (int) (id & OFFSET_MASK);
+        long bit = 1L << offset;
+        if ((page[offset >>> 6] & bit) != 0) {
+            return false;
+        }
+        page[offset >>> 6] |= bit;
+        this.cardinality++;
+        return true;
+    }
+    
+    /**
+     * @param id OSM id
+     * @return <code>true</code> if the id is in the set
+     */
+    public boolean contains(long id) {
+        long[] page = page(id >> PAGE_BITS);
+        if (page == null) {
+            return false;
+        }
+        int offset = (int) (id & OFFSET_MASK);
+        return (page[offset >>> 6] & (1L << offset)) != 0;
+    }
+    
+    /**
+     * @return number of ids in the set
+     */
+    public long size() {
+        return this.cardinality;
+    }
+    
+    /**
+     * @return approximate number of bytes allocated to hold the ids
+     */
+    public long getAllocatedBytes() {
+        return (long) this.pages.size() * WORDS_PER_PAGE * (Long.SIZE / Byte.SIZE);
+    }
+    
+    private long[] page(long pageKey) {
+        if (pageKey != this.lastPageKey || this.lastPage == null) {
+            long[] page = this.pages.get(pageKey);
+            if (page == null) {
+                return null;
+            }
+            this.lastPageKey = pageKey;
+            this.lastPage = page;
+        }
+        return this.lastPage;
+    }
+    
+}
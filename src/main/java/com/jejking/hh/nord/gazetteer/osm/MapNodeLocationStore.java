@@ -0,0 +1,68 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * {@link NodeLocationStore} backed by a map of node id to {@link Point}. Convenient for
+ * small data sets and tests, but each entry costs well over a hundred bytes.
+ * 
+ * @author jejking
+ *
+ */
+public final class MapNodeLocationStore implements NodeLocationStore {
+
+    private final Map<Long, Point> osmPoints;
+    private final GeometryFactory geometryFactory;
+    
+    /**
+     * Constructor.
+     * 
+     * @param osmPoints map to read from and write to, may not be <code>null</code>
+     * @param geometryFactory factory to create points with on {@link #put(long, double, double)}, may not be <code>null</code>
+     */
+    public MapNodeLocationStore(Map<Long, Point> osmPoints, GeometryFactory geometryFactory) {
+        this.osmPoints = checkNotNull(osmPoints);
+        this.geometryFactory = checkNotNull(geometryFactory);
+    }
+
+    @Override
+    public void put(long nodeId, double x, double y) {
+        this.osmPoints.put(nodeId, this.geometryFactory.createPoint(new Coordinate(x, y)));
+    }
+
+    @Override
+    public Coordinate getCoordinate(long nodeId) {
+        Point point = this.osmPoints.get(nodeId);
+        return point == null ? null : new Coordinate(point.getCoordinate());
+    }
+
+    @Override
+    public int size() {
+        return this.osmPoints.size();
+    }
+
+}
@@ -0,0 +1,71 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import rx.functions.Action1;
+
+import com.google.common.base.Optional;
+import com.jejking.osm.OsmNode;
+
+/**
+ * Action that records the location of every Open Street Map node it is called with
+ * in a {@link NodeLocationStore}. Subscribe it to the node observable of a parser
+ * once, so that any number of collectors attached to the same parser can share the store.
+ * 
+ * @author jejking
+ *
+ */
+public final class NodeLocationRecorder implements Action1<OsmNode> {
+
+    private final NodeLocationStore nodeLocations;
+    private final Optional<IdBitmap> retainedNodeIds;
+    
+    /**
+     * Constructor. Records all nodes.
+     * 
+     * @param nodeLocations store to record node locations in, may not be <code>null</code>
+     * @throws NullPointerException if parameter is <code>null</code>
+     */
+    public NodeLocationRecorder(NodeLocationStore nodeLocations) {
+        this(nodeLocations, Optional.<IdBitmap>absent());
+    }
+    
+    /**
+     * Constructor. Records only the nodes in the set of retained node ids, if given.
+     * 
+     * @param nodeLocations store to record node locations in, may not be <code>null</code>
+     * @param retainedNodeIds optional set of ids of the nodes to record, may not be <code>null</code>
+     * @throws NullPointerException if either parameter is <code>null</code>
+     */
+    public NodeLocationRecorder(NodeLocationStore nodeLocations, Optional<IdBitmap> retainedNodeIds) {
+        this.nodeLocations = checkNotNull(nodeLocations);
+        this.retainedNodeIds = checkNotNull(retainedNodeIds);
+    }
+    
+    @Override
+    public void call(OsmNode node) {
+        if (this.retainedNodeIds.isPresent() && !this.retainedNodeIds.get().contains(node.getId())) {
+            return;
+        }
+        this.nodeLocations.put(node.getId(), node.getPoint().getX(), node.getPoint().getY());
+    }
+
+}
@@ -0,0 +1,57 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Store of the locations of Open Street Map nodes, keyed by node id, from which way and
+ * relation geometries are then assembled. Implementations may trade speed for
+ * memory, which matters on large extracts with millions of nodes.
+ * 
+ * <p>Implementations need not be thread safe.</p>
+ * 
+ * @see SortedArrayNodeLocationStore
+ * @see MapNodeLocationStore
+ * @author jejking
+ *
+ */
+public interface NodeLocationStore {
+
+    /**
+     * Records the location of a node. If the node is already known, its location is replaced.
+     * 
+     * @param nodeId OSM node id
+     * @param x x coordinate (longitude)
+     * @param y y coordinate (latitude)
+     */
+    void put(long nodeId, double x, double y);
+    
+    /**
+     * @param nodeId OSM node id
+     * @return a new coordinate with the location of the node, or <code>null</code> if unknown
+     */
+    Coordinate getCoordinate(long nodeId);
+    
+    /**
+     * @return number of nodes stored
+     */
+    int size();
+    
+}
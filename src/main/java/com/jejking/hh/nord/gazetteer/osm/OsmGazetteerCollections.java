@@ -0,0 +1,242 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jejking.hh.nord.gazetteer.osm.pbf.PbfOsmSource;
+import com.jejking.hh.nord.gazetteer.osm.poi.PointOfInterest;
+import com.jejking.hh.nord.gazetteer.osm.poi.RxPointOfInterestCollectionBuilder;
+import com.jejking.hh.nord.gazetteer.osm.streets.RxOsmStreetCollectionBuilder;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Streets and points of interest collected from an Open Street Map extract in a single
+ * parse. The nodes, ways and relations emitted by one {@link OsmSource} are fed to both
+ * the {@link RxOsmStreetCollectionBuilder} and the {@link RxPointOfInterestCollectionBuilder},
+ * which share a single {@link NodeLocationStore}, so the extract is only decompressed and 
+ * parsed once.
+ * 
+ * @author jejking
+ *
+ */
+public final class OsmGazetteerCollections {
+
+    /**
+     * Classpath resource with the bzip2 compressed extract of Hamburg-Nord.
+     */
+    public static final String HAMBURG_NORD_EXTRACT = "/hamburg-nord-tm470.osm.bz2";
+    
+    private static final String BZIP2_SUFFIX = ".bz2";
+    
+    private final ImmutableMap<String, Geometry> streets;
+    private final ImmutableList<PointOfInterest> pointsOfInterest;
+    
+    private OsmGazetteerCollections(ImmutableMap<String, Geometry> streets, ImmutableList<PointOfInterest> pointsOfInterest) {
+        this.streets = streets;
+        this.pointsOfInterest = pointsOfInterest;
+    }
+    
+    /**
+     * Parses the bzip2 compressed extract of Hamburg-Nord from the classpath, decompressing
+     * it on several threads.
+     * 
+     * @param geometryFactory geometry factory, may not be <code>null</code>
+     * @return collected streets and points of interest
+     */
+    public static OsmGazetteerCollections fromHamburgNordExtract(GeometryFactory geometryFactory) {
+        try (InputStream inputStream = new ParallelBZip2InputStream(
+                                            OsmGazetteerCollections.class.getResourceAsStream(HAMBURG_NORD_EXTRACT))) {
+            return fromStream(geometryFactory, inputStream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Opens an Open Street Map file, either PBF or - possibly bzip2 compressed - XML
+     * according to the file name suffix, and collects streets and points of interest from it.
+     * 
+     * @param geometryFactory geometry factory, may not be <code>null</code>
+     * @param osmFile file to read, may not be <code>null</code>
+     * @return collected streets and points of interest
+     */
+    public static OsmGazetteerCollections fromFile(GeometryFactory geometryFactory, File osmFile) {
+        try (OsmSource osmSource = openFile(geometryFactory, osmFile)) {
+            return fromSource(geometryFactory, osmSource);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * As {@link #fromFile(GeometryFactory, File)}, but keeping only the locations of the
+     * nodes that are actually referenced, at the cost of reading the file three times.
+     * 
+     * @param geometryFactory geometry factory, may not be <code>null</code>
+     * @param osmFile file to read, may not be <code>null</code>
+     * @return collected streets and points of interest
+     * @see #fromSourcesRetainingReferencedNodes(GeometryFactory, Supplier)
+     */
+    public static OsmGazetteerCollections fromFileRetainingReferencedNodes(final GeometryFactory geometryFactory, 
+            final File osmFile) {
+        
+        return fromSourcesRetainingReferencedNodes(geometryFactory, new Supplier<OsmSource>() {
+
+            @Override
+            public OsmSource get() {
+                return openFile(geometryFactory, osmFile);
+            }
+            
+        });
+    }
+    
+    /**
+     * Collects streets and points of interest keeping only the locations of those nodes
+     * which the street and point of interest ways actually refer to, which in a city extract
+     * are a small fraction of all nodes. This takes three passes over the data:
+     * <ol>
+     * <li>the relations are scanned for the ids of the ways making up multipolygons,</li>
+     * <li>the ways are scanned for the ids of the nodes needed by streets, points of interest and
+     *     the multipolygon ways, all recorded in compact {@link IdBitmap}s,</li>
+     * <li>the data is collected, recording only the needed node locations and the geometry
+     *     of only the multipolygon ways.</li>
+     * </ol>
+     * 
+     * @param geometryFactory geometry factory, may not be <code>null</code>
+     * @param osmSources supplier of a fresh source over the same data for each pass, may not be <code>null</code>.
+     *  Each source is closed after its pass.
+     * @return collected streets and points of interest
+     */
+    public static OsmGazetteerCollections fromSourcesRetainingReferencedNodes(GeometryFactory geometryFactory, 
+            Supplier<? extends OsmSource> osmSources) {
+        
+        checkNotNull(geometryFactory);
+        checkNotNull(osmSources);
+        
+        try {
+            IdBitmap relationWayIds = new IdBitmap();
+            try (OsmSource relationScan = osmSources.get()) {
+                RxPointOfInterestCollectionBuilder.collectRelationWayIds(relationScan.getRelationObservable(), relationWayIds);
+                relationScan.parse();
+            }
+            
+            IdBitmap nodeIds = new IdBitmap();
+            try (OsmSource wayScan = osmSources.get()) {
+                RxOsmStreetCollectionBuilder.collectReferencedNodeIds(wayScan.getWayObservable(), nodeIds);
+                RxPointOfInterestCollectionBuilder.collectReferencedNodeIds(wayScan.getWayObservable(), relationWayIds, nodeIds);
+                wayScan.parse();
+            }
+            System.out.println("Scanned OSM extract. Referenced ways: " + relationWayIds.size() + ", referenced nodes: " 
+                                + nodeIds.size() + " in " + nodeIds.getAllocatedBytes() / 1024 + " KB");
+            
+            try (OsmSource osmSource = osmSources.get()) {
+                return collect(geometryFactory, osmSource, Optional.of(nodeIds), Optional.of(relationWayIds));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Collects streets and points of interest from XML Open Street Map data flowing from the input stream,
+     * parsing it once only.
+     * 
+     * @param geometryFactory geometry factory, may not be <code>null</code>
+     * @param inputStream with XML data, may not be <code>null</code>
+     * @return collected streets and points of interest
+     */
+    public static OsmGazetteerCollections fromStream(GeometryFactory geometryFactory, InputStream inputStream) {
+        return fromSource(geometryFactory, new XmlOsmSource(inputStream));
+    }
+    
+    /**
+     * Collects streets and points of interest from a source of Open Street Map data, parsing it once only.
+     * 
+     * @param geometryFactory geometry factory, may not be <code>null</code>
+     * @param osmSource source of data, not yet parsed, may not be <code>null</code>
+     * @return collected streets and points of interest
+     */
+    public static OsmGazetteerCollections fromSource(GeometryFactory geometryFactory, OsmSource osmSource) {
+        checkNotNull(geometryFactory);
+        checkNotNull(osmSource);
+        return collect(geometryFactory, osmSource, Optional.<IdBitmap>absent(), Optional.<IdBitmap>absent());
+    }
+    
+    private static OsmGazetteerCollections collect(GeometryFactory geometryFactory, OsmSource osmSource, 
+            Optional<IdBitmap> retainedNodeIds, Optional<IdBitmap> retainedWayIds) {
+        
+        NodeLocationStore nodeLocations = new SortedArrayNodeLocationStore();
+        
+        RxOsmStreetCollectionBuilder streetBuilder = new RxOsmStreetCollectionBuilder(geometryFactory, nodeLocations);
+        RxPointOfInterestCollectionBuilder poiBuilder = new RxPointOfInterestCollectionBuilder(geometryFactory, nodeLocations,
+                                                                                               retainedWayIds);
+        
+        // record the node locations once, for both builders
+        osmSource.getNodeObservable().subscribe(new NodeLocationRecorder(nodeLocations, retainedNodeIds));
+        streetBuilder.attachTo(osmSource);
+        poiBuilder.attachTo(osmSource);
+        
+        osmSource.parse();
+        
+        System.out.println("Parsed OSM extract once. Nodes: " + nodeLocations.size());
+        return new OsmGazetteerCollections(streetBuilder.getStreets(), poiBuilder.getPointsOfInterest());
+    }
+    
+    private static OsmSource openFile(GeometryFactory geometryFactory, File osmFile) {
+        String fileName = osmFile.getName();
+        try {
+            if (fileName.endsWith(PbfOsmSource.FILE_SUFFIX)) {
+                return new PbfOsmSource(new FileInputStream(osmFile), geometryFactory);
+            } else if (fileName.endsWith(BZIP2_SUFFIX)) {
+                return new XmlOsmSource(new ParallelBZip2InputStream(new FileInputStream(osmFile)));
+            } else {
+                return new XmlOsmSource(new FileInputStream(osmFile));
+            }
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return immutable map of street name to geometry
+     */
+    public ImmutableMap<String, Geometry> getStreets() {
+        return streets;
+    }
+
+    /**
+     * @return immutable list of points of interest
+     */
+    public ImmutableList<PointOfInterest> getPointsOfInterest() {
+        return pointsOfInterest;
+    }
+    
+}
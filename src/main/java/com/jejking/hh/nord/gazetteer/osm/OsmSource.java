@@ -0,0 +1,61 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import java.io.Closeable;
+
+import rx.Observable;
+
+import com.jejking.osm.OsmNode;
+import com.jejking.osm.OsmRelation;
+import com.jejking.osm.OsmWay;
+
+/**
+ * Source of Open Street Map data, whatever the file format, which emits the nodes, ways and
+ * relations it reads in file order to any number of subscribers. Subscribe first, then call
+ * {@link #parse()}. Closing the source closes the underlying stream.
+ * 
+ * @see XmlOsmSource
+ * @see com.jejking.hh.nord.gazetteer.osm.pbf.PbfOsmSource
+ * @author jejking
+ *
+ */
+public interface OsmSource extends Closeable {
+
+    /**
+     * @return observable of nodes
+     */
+    Observable<OsmNode> getNodeObservable();
+    
+    /**
+     * @return observable of ways
+     */
+    Observable<OsmWay> getWayObservable();
+    
+    /**
+     * @return observable of relations
+     */
+    Observable<OsmRelation> getRelationObservable();
+    
+    /**
+     * Reads the underlying data to the end, emitting everything found to the subscribers.
+     */
+    void parse();
+    
+}
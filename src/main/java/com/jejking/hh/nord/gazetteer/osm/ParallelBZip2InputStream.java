@@ -0,0 +1,252 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jejking.hh.nord.gazetteer.osm.BZip2BlockScanner.CompressedBlock;
+
+/**
+ * Drop in replacement for {@link BZip2CompressorInputStream} which decompresses the blocks
+ * of the bzip2 stream on several threads. The reading thread splits the input into blocks using 
+ * a {@link BZip2BlockScanner}, which is cheap compared to decompression, and hands each block to
+ * a fixed pool of threads. The decompressed blocks are then read back in their original order.
+ * 
+ * <p>At most two blocks per thread are in flight at any one time, so memory use is bounded
+ * regardless of the size of the input.</p>
+ * 
+ * <p>Should a block fail to decompress, it may have been split in two by a chance occurrence of
+ * a marker in its compressed data. Decompressing from that offset on with a plain
+ * {@link BZip2CompressorInputStream} is no help, as that checks the combined CRC of the stream from
+ * its start, so instead the failed block is joined with the blocks following it, one at a time, and
+ * each join decompressed on the reading thread. Only if none of those succeed is the original failure 
+ * reported.</p>
+ * 
+ * <p>Like other input streams, instances are not thread safe.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class ParallelBZip2InputStream extends InputStream {
+
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    
+    private static final byte[] NO_BYTES = new byte[0];
+    
+    // a block split by more than a couple of chance markers is not worth looking for
+    private static final int MAX_JOINED_BLOCKS = 4;
+    
+    private final InputStream compressedStream;
+    private final BZip2BlockSource blockSource;
+    private final ExecutorService decompressors;
+    private final int maxBlocksInFlight;
+    private final Deque<PendingBlock> blocksInFlight = new ArrayDeque<>();
+    
+    private boolean scannerExhausted = false;
+    private byte[] currentBlock = NO_BYTES;
+    private int position = 0;
+    
+    /**
+     * Constructor, decompressing on {@link #DEFAULT_THREADS} threads.
+     * 
+     * @param compressedStream stream of bzip2 compressed data, may not be <code>null</code>
+     * @throws NullPointerException if parameter is <code>null</code>
+     */
+    public ParallelBZip2InputStream(InputStream compressedStream) {
+        this(compressedStream, DEFAULT_THREADS);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param compressedStream stream of bzip2 compressed data, may not be <code>null</code>
+     * @param threads number of threads to decompress on, at least 1
+     * @throws NullPointerException if stream is <code>null</code>
+     * @throws IllegalArgumentException if threads less than 1
+     */
+    public ParallelBZip2InputStream(InputStream compressedStream, int threads) {
+        this(compressedStream, new BZip2BlockScanner(new BufferedInputStream(checkNotNull(compressedStream))), threads);
+    }
+    
+    /**
+     * Constructor taking the blocks from the given source rather than scanning the stream for them.
+     * 
+     * @param compressedStream stream to close when closed, may not be <code>null</code>
+     * @param blockSource source of the compressed blocks, may not be <code>null</code>
+     * @param threads number of threads to decompress on, at least 1
+     * @throws NullPointerException if stream or source is <code>null</code>
+     * @throws IllegalArgumentException if threads less than 1
+     */
+    ParallelBZip2InputStream(InputStream compressedStream, BZip2BlockSource blockSource, int threads) {
+        checkArgument(threads >= 1, "threads must be at least 1");
+        this.compressedStream = checkNotNull(compressedStream);
+        this.blockSource = checkNotNull(blockSource);
+        // daemon threads, as the parser reading from us may never close the stream
+        this.decompressors = Executors.newFixedThreadPool(threads, 
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bzip2-%d").build());
+        this.maxBlocksInFlight = threads * 2;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return this.currentBlock[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int count = Math.min(len, this.currentBlock.length - this.position);
+        System.arraycopy(this.currentBlock, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+    
+    @Override
+    public int available() {
+        return this.currentBlock.length - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.decompressors.shutdownNow();
+        this.blocksInFlight.clear();
+        this.compressedStream.close();
+    }
+    
+    private boolean ensureAvailable() throws IOException {
+        while (this.position == this.currentBlock.length) {
+            fillPipeline();
+            PendingBlock nextBlock = this.blocksInFlight.poll();
+            if (nextBlock == null) {
+                this.decompressors.shutdown();
+                return false;
+            }
+            this.currentBlock = awaitBlock(nextBlock);
+            this.position = 0;
+        }
+        return true;
+    }
+    
+    private void fillPipeline() throws IOException {
+        while (!this.scannerExhausted && this.blocksInFlight.size() < this.maxBlocksInFlight) {
+            final CompressedBlock compressedBlock = this.blockSource.nextBlock();
+            if (compressedBlock == null) {
+                this.scannerExhausted = true;
+            } else {
+                this.blocksInFlight.add(new PendingBlock(compressedBlock, this.decompressors.submit(new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() throws IOException {
+                        return decompress(compressedBlock);
+                    }
+                    
+                })));
+            }
+        }
+    }
+    
+    private byte[] awaitBlock(PendingBlock block) throws IOException {
+        try {
+            return block.decompressed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for block to be decompressed");
+        } catch (ExecutionException e) {
+            return decompressJoined(block.compressed, new IOException("failed to decompress block", e.getCause()));
+        }
+    }
+    
+    private byte[] decompressJoined(CompressedBlock failedBlock, IOException failure) throws IOException {
+        CompressedBlock joinedBlock = failedBlock;
+        for (int joined = 1; joined < MAX_JOINED_BLOCKS; joined++) {
+            CompressedBlock nextBlock = takeNextCompressedBlock();
+            if (nextBlock == null) {
+                break;
+            }
+            joinedBlock = joinedBlock.append(nextBlock);
+            try {
+                return decompress(joinedBlock);
+            } catch (IOException | RuntimeException e) {
+                // not yet the whole block, try again with the next one
+            }
+        }
+        throw failure;
+    }
+    
+    private CompressedBlock takeNextCompressedBlock() throws IOException {
+        PendingBlock nextBlock = this.blocksInFlight.poll();
+        if (nextBlock != null) {
+            nextBlock.decompressed.cancel(true);
+            return nextBlock.compressed;
+        }
+        if (this.scannerExhausted) {
+            return null;
+        }
+        CompressedBlock compressedBlock = this.blockSource.nextBlock();
+        this.scannerExhausted = compressedBlock == null;
+        return compressedBlock;
+    }
+    
+    private static byte[] decompress(CompressedBlock compressedBlock) throws IOException {
+        try (InputStream blockStream = new BZip2CompressorInputStream(new ByteArrayInputStream(compressedBlock.toStream()))) {
+            return ByteStreams.toByteArray(blockStream);
+        }
+    }
+    
+    /**
+     * A block handed to the decompressors, along with its compressed bits in case it needs to be joined.
+     */
+    private static final class PendingBlock {
+        
+        private final CompressedBlock compressed;
+        private final Future<byte[]> decompressed;
+        
+        PendingBlock(CompressedBlock compressed, Future<byte[]> decompressed) {
+            this.compressed = compressed;
+            this.decompressed = decompressed;
+        }
+    }
+    
+}
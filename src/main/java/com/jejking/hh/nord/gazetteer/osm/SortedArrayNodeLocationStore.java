@@ -0,0 +1,156 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Compact {@link NodeLocationStore} holding node ids and coordinates in parallel primitive arrays,
+ * about 24 bytes per node. Lookups use binary search over the ids.
+ * 
+ * <p>OSM extracts list nodes in ascending id order, in which case nodes are simply appended. Should
+ * a node arrive out of order, the arrays are sorted once, on the next lookup. Should a node
+ * be put twice, the later location wins.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class SortedArrayNodeLocationStore implements NodeLocationStore {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1 << 16;
+    
+    private long[] ids;
+    private double[] xs;
+    private double[] ys;
+    private int size = 0;
+    private boolean sorted = true;
+    
+    /**
+     * Constructor with a default initial capacity.
+     */
+    public SortedArrayNodeLocationStore() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+    
+    /**
+     * Constructor.
+     * @param initialCapacity expected number of nodes. The store grows as needed.
+     */
+    public SortedArrayNodeLocationStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        this.ids = new long[capacity];
+        this.xs = new double[capacity];
+        this.ys = new double[capacity];
+    }
+    
+    @Override
+    public void put(long nodeId, double x, double y) {
+        if (this.size == this.ids.length) {
+            grow();
+        }
+        if (this.size > 0 && nodeId <= this.ids[this.size - 1]) {
+            this.sorted = false;
+        }
+        this.ids[this.size] = nodeId;
+        this.xs[this.size] = x;
+        this.ys[this.size] = y;
+        this.size++;
+    }
+
+    @Override
+    public Coordinate getCoordinate(long nodeId) {
+        if (!this.sorted) {
+            sortAndRemoveDuplicates();
+        }
+        int index = Arrays.binarySearch(this.ids, 0, this.size, nodeId);
+        return index < 0 ? null : new Coordinate(this.xs[index], this.ys[index]);
+    }
+
+    @Override
+    public int size() {
+        if (!this.sorted) {
+            sortAndRemoveDuplicates();
+        }
+        return this.size;
+    }
+    
+    private void grow() {
+        int newCapacity = this.ids.length + (this.ids.length >> 1);
+        this.ids = Arrays.copyOf(this.ids, newCapacity);
+        this.xs = Arrays.copyOf(this.xs, newCapacity);
+        this.ys = Arrays.copyOf(this.ys, newCapacity);
+    }
+    
+    private void sortAndRemoveDuplicates() {
+        // stable with respect to insertion order, so the last put of an id can win
+        sortById();
+        
+        int last = -1;
+        for (int i = 0; i < this.size; i++) {
+            if (last >= 0 && this.ids[last] == this.ids[i]) {
+                this.xs[last] = this.xs[i];
+                this.ys[last] = this.ys[i];
+            } else {
+                last++;
+                this.ids[last] = this.ids[i];
+                this.xs[last] = this.xs[i];
+                this.ys[last] = this.ys[i];
+            }
+        }
+        this.size = last + 1;
+        this.sorted = true;
+    }
+    
+    /*
+     * Bottom up merge sort of the three arrays together, keyed on the ids. Stable, so equal ids
+     * keep their insertion order.
+     */
+    private void sortById() {
+        long[] idBuffer = new long[this.size];
+        double[] xBuffer = new double[this.size];
+        double[] yBuffer = new double[this.size];
+        for (int width = 1; width < this.size; width <<= 1) {
+            for (int low = 0; low < this.size; low += width << 1) {
+                int middle = Math.min(low + width, this.size);
+                int high = Math.min(low + (width << 1), this.size);
+                int left = low;
+                int right = middle;
+                for (int k = low; k < high; k++) {
+                    if (left < middle && (right >= high || this.ids[left] <= this.ids[right])) {
+                        idBuffer[k] = this.ids[left];
+                        xBuffer[k] = this.xs[left];
+                        yBuffer[k] = this.ys[left];
+                        left++;
+                    } else {
+                        idBuffer[k] = this.ids[right];
+                        xBuffer[k] = this.xs[right];
+                        yBuffer[k] = this.ys[right];
+                        right++;
+                    }
+                }
+            }
+            System.arraycopy(idBuffer, 0, this.ids, 0, this.size);
+            System.arraycopy(xBuffer, 0, this.xs, 0, this.size);
+            System.arraycopy(yBuffer, 0, this.ys, 0, this.size);
+        }
+    }
+
+}
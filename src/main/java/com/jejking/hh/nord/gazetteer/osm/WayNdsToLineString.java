@@ -18,6 +18,8 @@
  */
 package com.jejking.hh.nord.gazetteer.osm;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -34,7 +36,7 @@ import com.vividsolutions.jts.geom.Point;
 /**
  * Class to compute a {@link Geometry}, in this case a {@link LineString} or
  * a {@link LinearRing} (if the line string is closed from a list of <tt>nd</tt> identifiers. 
- * The lookup table to map the identifier to a {@link Point} is supplied in 
+ * The {@link NodeLocationStore} to map the identifier to a location is supplied in 
  * the constructor (which sort of closes the function).
  * 
  * @author jejking
@@ -43,7 +45,7 @@ import com.vividsolutions.jts.geom.Point;
 public class WayNdsToLineString implements Func1<List<Long>, Geometry> {
 
     private final GeometryFactory geometryFactory;
-    private final Map<Long, Point> knownOsmPoints;
+    private final NodeLocationStore nodeLocations;
     
     /**
      * Constructor.
@@ -51,31 +53,35 @@ public class WayNdsToLineString implements Func1<List<Long>, Geometry> {
      * @param knownOsmPoints may not be <code>null</code>
      */
     public WayNdsToLineString(GeometryFactory geometryFactory, Map<Long, Point> knownOsmPoints) {
-        this.knownOsmPoints = knownOsmPoints;
-        this.geometryFactory = geometryFactory;
+        this(geometryFactory, new MapNodeLocationStore(knownOsmPoints, geometryFactory));
+    }
+    
+    /**
+     * Constructor.
+     * @param geometryFactory may not be <code>null</code>
+     * @param nodeLocations may not be <code>null</code>
+     */
+    public WayNdsToLineString(GeometryFactory geometryFactory, NodeLocationStore nodeLocations) {
+        this.nodeLocations = checkNotNull(nodeLocations);
+        this.geometryFactory = checkNotNull(geometryFactory);
     }
     
     
     @Override
     public LineString call(List<Long> wayNdList) {
-        List<Point> pointList = new ArrayList<>(wayNdList.size());
+        List<Coordinate> coordinateList = new ArrayList<>(wayNdList.size());
         
         // find all the referenced points. Ignore any we can't find, perhaps
         // because they were orphaned as we cut the extract around Nord.
         for (Long osmId : wayNdList) {
-            Point point = this.knownOsmPoints.get(osmId);
-            if (point != null) {
-                pointList.add(point);
+            Coordinate coordinate = this.nodeLocations.getCoordinate(osmId);
+            if (coordinate != null) {
+                coordinateList.add(coordinate);
             }
         }
         
         // create a line string from the nodes....
-        Coordinate[] coordinates = new Coordinate[pointList.size()];
-        
-        for (int i = 0; i < pointList.size(); i++) {
-            coordinates[i] = pointList.get(i).getCoordinate();
-        }
-        return geometryFactory.createLineString(coordinates);
+        return geometryFactory.createLineString(coordinateList.toArray(new Coordinate[coordinateList.size()]));
     }
 
 
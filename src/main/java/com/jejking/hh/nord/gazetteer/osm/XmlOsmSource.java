@@ -0,0 +1,80 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import rx.Observable;
+
+import com.jejking.osm.OsmNode;
+import com.jejking.osm.OsmRelation;
+import com.jejking.osm.OsmWay;
+import com.jejking.osm.RxOsmParser;
+
+/**
+ * {@link OsmSource} reading Open Street Map XML with the {@link RxOsmParser}.
+ * 
+ * @author jejking
+ *
+ */
+public final class XmlOsmSource implements OsmSource {
+
+    private final InputStream inputStream;
+    private final RxOsmParser parser;
+    
+    /**
+     * Constructor.
+     * 
+     * @param inputStream stream of XML data, may not be <code>null</code>
+     * @throws NullPointerException if parameter is <code>null</code>
+     */
+    public XmlOsmSource(InputStream inputStream) {
+        this.inputStream = checkNotNull(inputStream);
+        this.parser = new RxOsmParser(inputStream);
+    }
+    
+    @Override
+    public Observable<OsmNode> getNodeObservable() {
+        return this.parser.getNodeObservable();
+    }
+
+    @Override
+    public Observable<OsmWay> getWayObservable() {
+        return this.parser.getWayObservable();
+    }
+
+    @Override
+    public Observable<OsmRelation> getRelationObservable() {
+        return this.parser.getRelationObservable();
+    }
+
+    @Override
+    public void parse() {
+        this.parser.parseOsmStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inputStream.close();
+    }
+
+}
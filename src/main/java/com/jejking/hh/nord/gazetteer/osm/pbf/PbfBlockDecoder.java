@@ -0,0 +1,605 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.pbf;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.jejking.hh.nord.gazetteer.osm.pbf.ProtobufReader.decodeZigZag;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.jejking.osm.OsmMetadata;
+import com.jejking.osm.OsmMetadataHolder;
+import com.jejking.osm.OsmNode;
+import com.jejking.osm.OsmRelation;
+import com.jejking.osm.OsmRelation.Member;
+import com.jejking.osm.OsmRelation.Member.MemberType;
+import com.jejking.osm.OsmWay;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Decodes the blobs of an Open Street Map PBF file into the same node, way and relation objects
+ * that the XML parser produces. See <a href="http://wiki.openstreetmap.org/wiki/PBF_Format">the
+ * format description</a> and the <code>fileformat.proto</code> and <code>osmformat.proto</code>
+ * definitions for the field numbers used here.
+ * 
+ * <p>Instances hold no mutable state, so may decode blobs on several threads at once.</p>
+ * 
+ * @author jejking
+ *
+ */
+final class PbfBlockDecoder {
+
+    /**
+     * Content of one data blob, in file order.
+     */
+    static final class PbfBlock {
+        
+        final ImmutableList<OsmNode> nodes;
+        final ImmutableList<OsmWay> ways;
+        final ImmutableList<OsmRelation> relations;
+        
+        PbfBlock(ImmutableList<OsmNode> nodes, ImmutableList<OsmWay> ways, ImmutableList<OsmRelation> relations) {
+            this.nodes = nodes;
+            this.ways = ways;
+            this.relations = relations;
+        }
+    }
+    
+    static final ImmutableSet<String> SUPPORTED_FEATURES = ImmutableSet.of("OsmSchema-V0.6", "DenseNodes");
+    
+    private static final double NANO_DEGREES = 1e-9;
+    private static final MemberType[] MEMBER_TYPES = {MemberType.NODE, MemberType.WAY, MemberType.RELATION};
+    
+    private final GeometryFactory geometryFactory;
+    
+    /**
+     * Constructor.
+     * 
+     * @param geometryFactory factory for the node points, may not be <code>null</code>
+     * @throws NullPointerException if parameter is <code>null</code>
+     */
+    PbfBlockDecoder(GeometryFactory geometryFactory) {
+        this.geometryFactory = checkNotNull(geometryFactory);
+    }
+    
+    /**
+     * Checks that the features required to read the file, as listed in the
+     * header blob, are supported.
+     * 
+     * @param blob the raw <code>OSMHeader</code> blob
+     * @throws IOException if malformed or a feature is not supported
+     */
+    void checkHeader(byte[] blob) throws IOException {
+        ProtobufReader headerBlock = new ProtobufReader(blobData(blob));
+        while (headerBlock.next()) {
+            if (headerBlock.fieldNumber() == 4) {
+                String requiredFeature = headerBlock.readString();
+                if (!SUPPORTED_FEATURES.contains(requiredFeature)) {
+                    throw new IOException("PBF file requires unsupported feature " + requiredFeature);
+                }
+            } else {
+                headerBlock.skip();
+            }
+        }
+    }
+    
+    /**
+     * Decodes a data blob.
+     * 
+     * @param blob the raw <code>OSMData</code> blob
+     * @return the elements in the blob
+     * @throws IOException if malformed or compressed in an unsupported way
+     */
+    PbfBlock decode(byte[] blob) throws IOException {
+        ProtobufReader primitiveBlock = new ProtobufReader(blobData(blob));
+        
+        // the groups may precede the fields needed to decode them, so collect everything first
+        List<String> stringTable = new ArrayList<>();
+        List<ProtobufReader> groups = new ArrayList<>();
+        long granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        long dateGranularity = 1000;
+        
+        while (primitiveBlock.next()) {
+            switch (primitiveBlock.fieldNumber()) {
+                case 1:
+                    ProtobufReader strings = primitiveBlock.readMessage();
+                    while (strings.next()) {
+                        if (strings.fieldNumber() == 1) {
+                            stringTable.add(strings.readString());
+                        } else {
+                            strings.skip();
+                        }
+                    }
+                    break;
+                case 2:
+                    groups.add(primitiveBlock.readMessage());
+                    break;
+                case 17:
+                    granularity = primitiveBlock.readVarint();
+                    break;
+                case 18:
+                    dateGranularity = primitiveBlock.readVarint();
+                    break;
+                case 19:
+                    latOffset = primitiveBlock.readVarint();
+                    break;
+                case 20:
+                    lonOffset = primitiveBlock.readVarint();
+                    break;
+                default:
+                    primitiveBlock.skip();
+            }
+        }
+        
+        BlockContext context = new BlockContext(stringTable.toArray(new String[stringTable.size()]), 
+                                                granularity, latOffset, lonOffset, dateGranularity);
+        ImmutableList.Builder<OsmNode> nodes = ImmutableList.builder();
+        ImmutableList.Builder<OsmWay> ways = ImmutableList.builder();
+        ImmutableList.Builder<OsmRelation> relations = ImmutableList.builder();
+        for (ProtobufReader group : groups) {
+            while (group.next()) {
+                switch (group.fieldNumber()) {
+                    case 1:
+                        nodes.add(decodeNode(group.readMessage(), context));
+                        break;
+                    case 2:
+                        decodeDenseNodes(group.readMessage(), context, nodes);
+                        break;
+                    case 3:
+                        ways.add(decodeWay(group.readMessage(), context));
+                        break;
+                    case 4:
+                        relations.add(decodeRelation(group.readMessage(), context));
+                        break;
+                    default:
+                        group.skip();
+                }
+            }
+        }
+        return new PbfBlock(nodes.build(), ways.build(), relations.build());
+    }
+    
+    private OsmNode decodeNode(ProtobufReader node, BlockContext context) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        long[] keys = new long[0];
+        long[] values = new long[0];
+        Optional<ProtobufReader> info = Optional.absent();
+        while (node.next()) {
+            switch (node.fieldNumber()) {
+                case 1:
+                    id = node.readSInt64();
+                    break;
+                case 2:
+                    keys = concat(keys, node.readVarints());
+                    break;
+                case 3:
+                    values = concat(values, node.readVarints());
+                    break;
+                case 4:
+                    info = Optional.of(node.readMessage());
+                    break;
+                case 8:
+                    lat = node.readSInt64();
+                    break;
+                case 9:
+                    lon = node.readSInt64();
+                    break;
+                default:
+                    node.skip();
+            }
+        }
+        return new OsmNode(decodeInfo(id, info, context), context.tags(keys, values), point(lat, lon, context));
+    }
+    
+    private void decodeDenseNodes(ProtobufReader dense, BlockContext context, ImmutableList.Builder<OsmNode> nodes) 
+            throws IOException {
+        
+        long[] ids = new long[0];
+        long[] lats = new long[0];
+        long[] lons = new long[0];
+        long[] keysValues = new long[0];
+        DenseInfo denseInfo = null;
+        while (dense.next()) {
+            switch (dense.fieldNumber()) {
+                case 1:
+                    ids = concat(ids, dense.readVarints());
+                    break;
+                case 5:
+                    denseInfo = decodeDenseInfo(dense.readMessage());
+                    break;
+                case 8:
+                    lats = concat(lats, dense.readVarints());
+                    break;
+                case 9:
+                    lons = concat(lons, dense.readVarints());
+                    break;
+                case 10:
+                    keysValues = concat(keysValues, dense.readVarints());
+                    break;
+                default:
+                    dense.skip();
+            }
+        }
+        if (lats.length != ids.length || lons.length != ids.length) {
+            throw new IOException("dense nodes with inconsistent lengths");
+        }
+        
+        // ids, coordinates and most of the metadata are delta coded
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        int keyValueIndex = 0;
+        for (int i = 0; i < ids.length; i++) {
+            id += decodeZigZag(ids[i]);
+            lat += decodeZigZag(lats[i]);
+            lon += decodeZigZag(lons[i]);
+            
+            ImmutableMap.Builder<String, String> tags = ImmutableMap.builder();
+            // tags of each node are terminated by a 0, the whole field is absent if no node has tags
+            while (keyValueIndex < keysValues.length && keysValues[keyValueIndex] != 0) {
+                tags.put(context.string(keysValues[keyValueIndex]), context.string(keysValues[keyValueIndex + 1]));
+                keyValueIndex += 2;
+            }
+            keyValueIndex++;
+            
+            OsmMetadata metadata = denseInfo == null ? noInfo(id) : denseInfo.next(id, context);
+            nodes.add(new OsmNode(metadata, tags.build(), point(lat, lon, context)));
+        }
+    }
+    
+    private OsmWay decodeWay(ProtobufReader way, BlockContext context) throws IOException {
+        long id = 0;
+        long[] keys = new long[0];
+        long[] values = new long[0];
+        long[] refs = new long[0];
+        Optional<ProtobufReader> info = Optional.absent();
+        while (way.next()) {
+            switch (way.fieldNumber()) {
+                case 1:
+                    id = way.readVarint();
+                    break;
+                case 2:
+                    keys = concat(keys, way.readVarints());
+                    break;
+                case 3:
+                    values = concat(values, way.readVarints());
+                    break;
+                case 4:
+                    info = Optional.of(way.readMessage());
+                    break;
+                case 8:
+                    refs = concat(refs, way.readVarints());
+                    break;
+                default:
+                    way.skip();
+            }
+        }
+        
+        ImmutableList.Builder<Long> ndRefs = ImmutableList.builder();
+        long ref = 0;
+        for (long delta : refs) {
+            ref += decodeZigZag(delta);
+            ndRefs.add(ref);
+        }
+        return new OsmWay(decodeInfo(id, info, context), context.tags(keys, values), ndRefs.build());
+    }
+    
+    private OsmRelation decodeRelation(ProtobufReader relation, BlockContext context) throws IOException {
+        long id = 0;
+        long[] keys = new long[0];
+        long[] values = new long[0];
+        long[] roles = new long[0];
+        long[] memberIds = new long[0];
+        long[] types = new long[0];
+        Optional<ProtobufReader> info = Optional.absent();
+        while (relation.next()) {
+            switch (relation.fieldNumber()) {
+                case 1:
+                    id = relation.readVarint();
+                    break;
+                case 2:
+                    keys = concat(keys, relation.readVarints());
+                    break;
+                case 3:
+                    values = concat(values, relation.readVarints());
+                    break;
+                case 4:
+                    info = Optional.of(relation.readMessage());
+                    break;
+                case 8:
+                    roles = concat(roles, relation.readVarints());
+                    break;
+                case 9:
+                    memberIds = concat(memberIds, relation.readVarints());
+                    break;
+                case 10:
+                    types = concat(types, relation.readVarints());
+                    break;
+                default:
+                    relation.skip();
+            }
+        }
+        if (roles.length != memberIds.length || types.length != memberIds.length) {
+            throw new IOException("relation " + id + " with inconsistent member lengths");
+        }
+        
+        ImmutableList.Builder<Member> members = ImmutableList.builder();
+        long memberId = 0;
+        for (int i = 0; i < memberIds.length; i++) {
+            memberId += decodeZigZag(memberIds[i]);
+            if (types[i] < 0 || types[i] >= MEMBER_TYPES.length) {
+                throw new IOException("relation " + id + " has member of unknown type " + types[i]);
+            }
+            String role = context.string(roles[i]);
+            members.add(new Member(MEMBER_TYPES[(int) types[i]], memberId, 
+                                   role.isEmpty() ? Optional.<String>absent() : Optional.of(role)));
+        }
+        return new OsmRelation(decodeInfo(id, info, context), context.tags(keys, values), members.build());
+    }
+    
+    private Point point(long lat, long lon, BlockContext context) {
+        return this.geometryFactory.createPoint(new Coordinate(context.lon(lon), context.lat(lat)));
+    }
+    
+    private static OsmMetadata decodeInfo(long id, Optional<ProtobufReader> optionalInfo, BlockContext context) 
+            throws IOException {
+        
+        if (!optionalInfo.isPresent()) {
+            return noInfo(id);
+        }
+        ProtobufReader info = optionalInfo.get();
+        Optional<Long> version = Optional.absent();
+        Optional<DateTime> timestamp = Optional.absent();
+        Optional<Long> changeset = Optional.absent();
+        Optional<Long> uid = Optional.absent();
+        Optional<String> user = Optional.absent();
+        while (info.next()) {
+            switch (info.fieldNumber()) {
+                case 1:
+                    version = Optional.of(Long.valueOf(info.readInt32()));
+                    break;
+                case 2:
+                    timestamp = Optional.of(context.timestamp(info.readVarint()));
+                    break;
+                case 3:
+                    changeset = Optional.of(info.readVarint());
+                    break;
+                case 4:
+                    uid = Optional.of(Long.valueOf(info.readInt32()));
+                    break;
+                case 5:
+                    user = Optional.of(context.string(info.readVarint()));
+                    break;
+                default:
+                    info.skip();
+            }
+        }
+        return new OsmMetadataHolder(id, version, timestamp, changeset, uid, user);
+    }
+    
+    private static OsmMetadata noInfo(long id) {
+        return new OsmMetadataHolder(id, Optional.<Long>absent(), Optional.<DateTime>absent(), 
+                                     Optional.<Long>absent(), Optional.<Long>absent(), Optional.<String>absent());
+    }
+    
+    private static DenseInfo decodeDenseInfo(ProtobufReader denseInfo) throws IOException {
+        DenseInfo result = new DenseInfo();
+        while (denseInfo.next()) {
+            switch (denseInfo.fieldNumber()) {
+                case 1:
+                    result.versions = concat(result.versions, denseInfo.readVarints());
+                    break;
+                case 2:
+                    result.timestamps = concat(result.timestamps, denseInfo.readVarints());
+                    break;
+                case 3:
+                    result.changesets = concat(result.changesets, denseInfo.readVarints());
+                    break;
+                case 4:
+                    result.uids = concat(result.uids, denseInfo.readVarints());
+                    break;
+                case 5:
+                    result.userSids = concat(result.userSids, denseInfo.readVarints());
+                    break;
+                default:
+                    denseInfo.skip();
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Uncompresses the data of a blob.
+     * 
+     * @param blob raw blob
+     * @return the uncompressed data
+     * @throws IOException if malformed or compressed other than with zlib
+     */
+    static byte[] blobData(byte[] blob) throws IOException {
+        ProtobufReader reader = new ProtobufReader(blob);
+        byte[] raw = null;
+        byte[] zlibData = null;
+        int rawSize = -1;
+        while (reader.next()) {
+            switch (reader.fieldNumber()) {
+                case 1:
+                    raw = reader.readBytes();
+                    break;
+                case 2:
+                    rawSize = reader.readInt32();
+                    break;
+                case 3:
+                    zlibData = reader.readBytes();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        if (raw != null) {
+            return raw;
+        }
+        if (zlibData == null || rawSize < 0) {
+            throw new IOException("blob is neither raw nor zlib compressed");
+        }
+        
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlibData);
+            byte[] data = new byte[rawSize];
+            int inflated = 0;
+            while (inflated < rawSize) {
+                int count = inflater.inflate(data, inflated, rawSize - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("zlib data shorter than declared size " + rawSize);
+                }
+                inflated += count;
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    private static long[] concat(long[] first, long[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        long[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+    
+    /**
+     * Block wide fields needed to decode the elements.
+     */
+    private static final class BlockContext {
+        
+        private final String[] stringTable;
+        private final long granularity;
+        private final long latOffset;
+        private final long lonOffset;
+        private final long dateGranularity;
+        
+        BlockContext(String[] stringTable, long granularity, long latOffset, long lonOffset, long dateGranularity) {
+            this.stringTable = stringTable;
+            this.granularity = granularity;
+            this.latOffset = latOffset;
+            this.lonOffset = lonOffset;
+            this.dateGranularity = dateGranularity;
+        }
+        
+        String string(long index) throws IOException {
+            if (index < 0 || index >= this.stringTable.length) {
+                throw new IOException("string table index " + index + " out of bounds");
+            }
+            return this.stringTable[(int) index];
+        }
+        
+        ImmutableMap<String, String> tags(long[] keys, long[] values) throws IOException {
+            if (keys.length != values.length) {
+                throw new IOException("tags with inconsistent lengths");
+            }
+            ImmutableMap.Builder<String, String> tags = ImmutableMap.builder();
+            for (int i = 0; i < keys.length; i++) {
+                tags.put(string(keys[i]), string(values[i]));
+            }
+            return tags.build();
+        }
+        
+        DateTime timestamp(long timestamp) {
+            return new DateTime(timestamp * this.dateGranularity);
+        }
+        
+        double lat(long lat) {
+            return NANO_DEGREES * (this.latOffset + this.granularity * lat);
+        }
+        
+        double lon(long lon) {
+            return NANO_DEGREES * (this.lonOffset + this.granularity * lon);
+        }
+    }
+    
+    /**
+     * Metadata of dense nodes, held in parallel arrays and mostly delta coded.
+     */
+    private static final class DenseInfo {
+        
+        private long[] versions = new long[0];
+        private long[] timestamps = new long[0];
+        private long[] changesets = new long[0];
+        private long[] uids = new long[0];
+        private long[] userSids = new long[0];
+        
+        private int index = 0;
+        private long timestamp = 0;
+        private long changeset = 0;
+        private long uid = 0;
+        private long userSid = 0;
+        
+        OsmMetadata next(long id, BlockContext context) throws IOException {
+            int i = this.index++;
+            Optional<Long> version = Optional.absent();
+            Optional<DateTime> optionalTimestamp = Optional.absent();
+            Optional<Long> optionalChangeset = Optional.absent();
+            Optional<Long> optionalUid = Optional.absent();
+            Optional<String> user = Optional.absent();
+            
+            if (i < this.versions.length) {
+                version = Optional.of(Long.valueOf((int) this.versions[i]));
+            }
+            if (i < this.timestamps.length) {
+                this.timestamp += decodeZigZag(this.timestamps[i]);
+                optionalTimestamp = Optional.of(context.timestamp(this.timestamp));
+            }
+            if (i < this.changesets.length) {
+                this.changeset += decodeZigZag(this.changesets[i]);
+                optionalChangeset = Optional.of(this.changeset);
+            }
+            if (i < this.uids.length) {
+                this.uid += decodeZigZag(this.uids[i]);
+                optionalUid = Optional.of(this.uid);
+            }
+            if (i < this.userSids.length) {
+                this.userSid += decodeZigZag(this.userSids[i]);
+                user = Optional.of(context.string(this.userSid));
+            }
+            return new OsmMetadataHolder(id, version, optionalTimestamp, optionalChangeset, optionalUid, user);
+        }
+    }
+    
+}
@@ -0,0 +1,235 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.pbf;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jejking.hh.nord.gazetteer.osm.OsmSource;
+import com.jejking.hh.nord.gazetteer.osm.pbf.PbfBlockDecoder.PbfBlock;
+import com.jejking.osm.OsmNode;
+import com.jejking.osm.OsmRelation;
+import com.jejking.osm.OsmWay;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * {@link OsmSource} reading the Open Street Map PBF format, as published by Geofabrik and others,
+ * which is much faster to decode than compressed XML. It emits the same node, way and relation
+ * objects as the XML parser, so the street and point of interest builders work unchanged.
+ * 
+ * <p>The file is a sequence of independently compressed blobs. These are read on the calling thread, 
+ * then decompressed and decoded on a fixed pool of threads. The decoded elements are emitted, in file order,
+ * on the calling thread. At most two blobs per thread are in flight at any one time.</p>
+ * 
+ * <p>Only zlib compressed or uncompressed blobs are supported, which is what the common tools write.</p>
+ * 
+ * @author jejking
+ *
+ */
+public final class PbfOsmSource implements OsmSource {
+
+    public static final String FILE_SUFFIX = ".pbf";
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    
+    private static final String OSM_HEADER = "OSMHeader";
+    private static final String OSM_DATA = "OSMData";
+    private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    
+    private final DataInputStream inputStream;
+    private final PbfBlockDecoder decoder;
+    private final int threads;
+    
+    private final PublishSubject<OsmNode> nodeSubject = PublishSubject.create();
+    private final PublishSubject<OsmWay> waySubject = PublishSubject.create();
+    private final PublishSubject<OsmRelation> relationSubject = PublishSubject.create();
+    
+    private int nextBlobSize = -1;
+    
+    /**
+     * Constructor, decoding on {@link #DEFAULT_THREADS} threads.
+     * 
+     * @param inputStream stream of PBF data, may not be <code>null</code>
+     * @param geometryFactory factory for node points, may not be <code>null</code>
+     * @throws NullPointerException if either parameter is <code>null</code>
+     */
+    public PbfOsmSource(InputStream inputStream, GeometryFactory geometryFactory) {
+        this(inputStream, geometryFactory, DEFAULT_THREADS);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param inputStream stream of PBF data, may not be <code>null</code>
+     * @param geometryFactory factory for node points, may not be <code>null</code>
+     * @param threads number of threads to decode blobs on, at least 1
+     * @throws NullPointerException if either stream or geometry factory is <code>null</code>
+     * @throws IllegalArgumentException if threads less than 1
+     */
+    public PbfOsmSource(InputStream inputStream, GeometryFactory geometryFactory, int threads) {
+        checkArgument(threads >= 1, "threads must be at least 1");
+        this.inputStream = new DataInputStream(new BufferedInputStream(checkNotNull(inputStream)));
+        this.decoder = new PbfBlockDecoder(geometryFactory);
+        this.threads = threads;
+    }
+    
+    @Override
+    public Observable<OsmNode> getNodeObservable() {
+        return this.nodeSubject;
+    }
+
+    @Override
+    public Observable<OsmWay> getWayObservable() {
+        return this.waySubject;
+    }
+
+    @Override
+    public Observable<OsmRelation> getRelationObservable() {
+        return this.relationSubject;
+    }
+
+    @Override
+    public void parse() {
+        ExecutorService decoders = Executors.newFixedThreadPool(this.threads, 
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pbf-%d").build());
+        Deque<Future<PbfBlock>> blocksInFlight = new ArrayDeque<>();
+        int maxBlocksInFlight = this.threads * 2;
+        try {
+            String type;
+            while ((type = readBlobType()) != null) {
+                final byte[] blob = readBlob();
+                if (type.equals(OSM_HEADER)) {
+                    this.decoder.checkHeader(blob);
+                } else if (type.equals(OSM_DATA)) {
+                    if (blocksInFlight.size() == maxBlocksInFlight) {
+                        emit(blocksInFlight.poll());
+                    }
+                    blocksInFlight.add(decoders.submit(new Callable<PbfBlock>() {
+
+                        @Override
+                        public PbfBlock call() throws IOException {
+                            return PbfOsmSource.this.decoder.decode(blob);
+                        }
+                        
+                    }));
+                }
+                // any other blob types are to be skipped, according to the specification
+            }
+            while (!blocksInFlight.isEmpty()) {
+                emit(blocksInFlight.poll());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            decoders.shutdownNow();
+        }
+        
+        this.nodeSubject.onCompleted();
+        this.waySubject.onCompleted();
+        this.relationSubject.onCompleted();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        this.inputStream.close();
+    }
+    
+    private void emit(Future<PbfBlock> futureBlock) throws IOException {
+        PbfBlock block;
+        try {
+            block = futureBlock.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for block to be decoded", e);
+        } catch (ExecutionException e) {
+            throw new IOException("failed to decode block", e.getCause());
+        }
+        for (OsmNode node : block.nodes) {
+            this.nodeSubject.onNext(node);
+        }
+        for (OsmWay way : block.ways) {
+            this.waySubject.onNext(way);
+        }
+        for (OsmRelation relation : block.relations) {
+            this.relationSubject.onNext(relation);
+        }
+    }
+    
+    /*
+     * Reads the blob header, leaving the blob itself to be read.
+     * Returns null at the end of the stream.
+     */
+    private String readBlobType() throws IOException {
+        int headerSize;
+        try {
+            headerSize = this.inputStream.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_BLOB_HEADER_SIZE) {
+            throw new IOException("blob header size " + headerSize + " out of range");
+        }
+        byte[] header = new byte[headerSize];
+        this.inputStream.readFully(header);
+        
+        ProtobufReader blobHeader = new ProtobufReader(header);
+        String type = null;
+        this.nextBlobSize = -1;
+        while (blobHeader.next()) {
+            switch (blobHeader.fieldNumber()) {
+                case 1:
+                    type = blobHeader.readString();
+                    break;
+                case 3:
+                    this.nextBlobSize = blobHeader.readInt32();
+                    break;
+                default:
+                    blobHeader.skip();
+            }
+        }
+        if (type == null || this.nextBlobSize < 0 || this.nextBlobSize > MAX_BLOB_SIZE) {
+            throw new IOException("invalid blob header");
+        }
+        return type;
+    }
+    
+    private byte[] readBlob() throws IOException {
+        byte[] blob = new byte[this.nextBlobSize];
+        this.inputStream.readFully(blob);
+        return blob;
+    }
+    
+}
@@ -0,0 +1,215 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.pbf;
+
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Minimal reader of the protocol buffers wire format, just enough to decode the
+ * few messages of the Open Street Map PBF format without generated classes.
+ * 
+ * <p>A reader covers a range of a byte array. Length delimited fields, which hold
+ * embedded messages, strings and packed repeated fields, are read by way of a 
+ * further reader over the sub-range, without copying.</p>
+ * 
+ * @author jejking
+ *
+ */
+final class ProtobufReader {
+
+    static final int WIRE_TYPE_VARINT = 0;
+    static final int WIRE_TYPE_FIXED64 = 1;
+    static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    static final int WIRE_TYPE_FIXED32 = 5;
+    
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+    private int lastTag;
+    
+    ProtobufReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+    
+    ProtobufReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+    
+    /**
+     * Reads the next field key.
+     * 
+     * @return <code>true</code> if there is a further field, <code>false</code> at the end of the message
+     * @throws IOException if the data is malformed
+     */
+    boolean next() throws IOException {
+        if (this.position >= this.limit) {
+            return false;
+        }
+        this.lastTag = (int) readVarint();
+        return true;
+    }
+    
+    /**
+     * @return field number of the field last read by {@link #next()}
+     */
+    int fieldNumber() {
+        return this.lastTag >>> 3;
+    }
+    
+    /**
+     * @return wire type of the field last read by {@link #next()}
+     */
+    int wireType() {
+        return this.lastTag & 7;
+    }
+    
+    long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (this.position >= this.limit) {
+                throw new IOException("truncated varint");
+            }
+            byte b = this.buffer[this.position++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+    
+    int readInt32() throws IOException {
+        return (int) readVarint();
+    }
+    
+    long readSInt64() throws IOException {
+        return decodeZigZag(readVarint());
+    }
+    
+    boolean readBool() throws IOException {
+        return readVarint() != 0;
+    }
+    
+    /**
+     * Reads a repeated integer field, whether packed or not. Unpacked fields hold just one value
+     * per key, so the caller must concatenate the results if the field occurs more than once.
+     * 
+     * @return the raw varint values, zig-zag encoded if the field is signed
+     * @throws IOException if the data is malformed
+     */
+    long[] readVarints() throws IOException {
+        if (wireType() != WIRE_TYPE_LENGTH_DELIMITED) {
+            return new long[] {readVarint()};
+        }
+        int length = readLength();
+        int end = this.position + length;
+        int count = 0;
+        for (int i = this.position; i < end; i++) {
+            if ((this.buffer[i] & 0x80) == 0) {
+                count++;
+            }
+        }
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readVarint();
+        }
+        if (this.position != end) {
+            throw new IOException("malformed packed field");
+        }
+        return values;
+    }
+    
+    /**
+     * @param raw zig-zag encoded value as read from a <code>sint32</code> or <code>sint64</code> field
+     * @return the signed value
+     */
+    static long decodeZigZag(long raw) {
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+    
+    /**
+     * @return reader over the content of the current length delimited field
+     * @throws IOException if the data is malformed
+     */
+    ProtobufReader readMessage() throws IOException {
+        int length = readLength();
+        ProtobufReader message = new ProtobufReader(this.buffer, this.position, length);
+        this.position += length;
+        return message;
+    }
+    
+    byte[] readBytes() throws IOException {
+        int length = readLength();
+        byte[] bytes = new byte[length];
+        System.arraycopy(this.buffer, this.position, bytes, 0, length);
+        this.position += length;
+        return bytes;
+    }
+    
+    String readString() throws IOException {
+        int length = readLength();
+        String string = new String(this.buffer, this.position, length, Charsets.UTF_8);
+        this.position += length;
+        return string;
+    }
+    
+    /**
+     * Skips the value of the field last read by {@link #next()}.
+     * 
+     * @throws IOException if the wire type is not supported or the data malformed
+     */
+    void skip() throws IOException {
+        switch (wireType()) {
+            case WIRE_TYPE_VARINT:
+                readVarint();
+                break;
+            case WIRE_TYPE_FIXED64:
+                skipBytes(8);
+                break;
+            case WIRE_TYPE_LENGTH_DELIMITED:
+                skipBytes(readLength());
+                break;
+            case WIRE_TYPE_FIXED32:
+                skipBytes(4);
+                break;
+            default:
+                throw new IOException("unsupported wire type " + wireType());
+        }
+    }
+    
+    private void skipBytes(int count) throws IOException {
+        if (this.position + count > this.limit) {
+            throw new IOException("truncated field");
+        }
+        this.position += count;
+    }
+    
+    private int readLength() throws IOException {
+        long length = readVarint();
+        if (length < 0 || this.position + length > this.limit) {
+            throw new IOException("length delimited field exceeds message");
+        }
+        return (int) length;
+    }
+    
+}
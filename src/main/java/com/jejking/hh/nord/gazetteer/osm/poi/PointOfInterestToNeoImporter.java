@@ -18,12 +18,16 @@
  */
 package com.jejking.hh.nord.gazetteer.osm.poi;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.HOUSE_NUMBER;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.NAME;
-import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.GEO;
+import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.POINTS_OF_INTEREST;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.TYPE;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.neo4j.gis.spatial.EditableLayer;
 import org.neo4j.gis.spatial.SpatialDatabaseRecord;
@@ -35,9 +39,14 @@ import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.Index;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.jejking.hh.nord.AbstractNeoImporter;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
 import com.jejking.hh.nord.gazetteer.GazetteerRelationshipTypes;
+import com.jejking.hh.nord.gazetteer.osm.streets.OsmStreetCollectionToNeoImporter;
 
 /**
  * Writes {@link PointOfInterest} instances to Neo4j. In particular, connections are made, where possible, to street
@@ -47,50 +56,171 @@ import com.jejking.hh.nord.gazetteer.GazetteerRelationshipTypes;
  */
 public class PointOfInterestToNeoImporter extends AbstractNeoImporter<List<PointOfInterest>> {
 
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    
+    /**
+     * Default listener, printing progress to standard out.
+     */
+    public static final ProgressListener PRINTING_PROGRESS_LISTENER = new ProgressListener() {
+        
+        @Override
+        public void batchWritten(int batchNumber, int batchCount, int written, int failed, long elapsedMillis) {
+            System.out.println("Batch " + batchNumber + " of " + batchCount + ": written " + written 
+                    + " points of interest, " + failed + " failed, in " + elapsedMillis + " ms");
+        }
+        
+        @Override
+        public void importFinished(int written, int failed, long commitMillis, long elapsedMillis) {
+            System.out.println("Wrote " + written + " points of interest, " + failed + " failed. Time spent committing: " 
+                    + commitMillis + " ms of " + elapsedMillis + " ms");
+        }
+    };
+    
+    private final int batchSize;
+    private final ImmutableMap<String, Long> streetNodeIds;
+    private final ProgressListener progressListener;
+    
+    /**
+     * Constructor, using {@link #DEFAULT_BATCH_SIZE}.
+     */
+    public PointOfInterestToNeoImporter() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Constructor. Streets are looked up in the graph.
+     * 
+     * @param batchSize number of points of interest to write per transaction, must be at least 1
+     * @throws IllegalArgumentException if batch size is less than 1
+     */
+    public PointOfInterestToNeoImporter(int batchSize) {
+        this(batchSize, ImmutableMap.<String, Long>of());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param batchSize number of points of interest to write per transaction, must be at least 1
+     * @param streetNodeIds map of street name to id of the street node, as handed back by
+     *  {@link OsmStreetCollectionToNeoImporter#writeStreetsToNeo(Map, GraphDatabaseService)}, 
+     *  may not be <code>null</code>. Streets not in the map are looked up in the graph.
+     * @throws IllegalArgumentException if batch size is less than 1
+     * @throws NullPointerException if map is <code>null</code>
+     */
+    public PointOfInterestToNeoImporter(int batchSize, Map<String, Long> streetNodeIds) {
+        this(batchSize, streetNodeIds, PRINTING_PROGRESS_LISTENER);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param batchSize number of points of interest to write per transaction, must be at least 1
+     * @param streetNodeIds map of street name to id of the street node, may not be <code>null</code>. 
+     *  Streets not in the map are looked up in the graph.
+     * @param progressListener told of the progress of the import, may not be <code>null</code>
+     * @throws IllegalArgumentException if batch size is less than 1
+     * @throws NullPointerException if map or listener is <code>null</code>
+     */
+    public PointOfInterestToNeoImporter(int batchSize, Map<String, Long> streetNodeIds, 
+            ProgressListener progressListener) {
+        checkArgument(batchSize >= 1, "batch size must be at least 1");
+        this.batchSize = batchSize;
+        this.streetNodeIds = ImmutableMap.copyOf(streetNodeIds);
+        this.progressListener = checkNotNull(progressListener);
+    }
+    
+    /**
+     * Writes the points of interest, committing a transaction once per batch. If a point of
+     * interest cannot be written, or the batch fails to commit, the whole batch is rolled back
+     * and its points of interest are retried one per transaction, so that only those that cannot
+     * be written are lost, and none are left half written. Progress is reported to the listener
+     * after each batch.
+     */
     public void writeToNeo(List<PointOfInterest> pois, GraphDatabaseService graph) {
         SpatialDatabaseService spatialDatabaseService = new SpatialDatabaseService(graph);
-
-        int i = 0;
-        for (PointOfInterest poi : pois) {
-            try (Transaction tx = graph.beginTx()) {
-                EditableLayer poiLayer = getEditableLayer(spatialDatabaseService, GEO);
-                Index<Node> fullText = graph.index().forNodes(GAZETTEER_FULLTEXT);
-
-                addPoi(poi, poiLayer, fullText);
-                tx.success();
-                i++;
-
-                if (i % 1000 == 0) {
-                    System.out.println("Written " + i + " points of interest of " + pois.size());
-                }
+        Stopwatch totalStopwatch = Stopwatch.createStarted();
+        
+        int batchCount = (pois.size() + this.batchSize - 1) / this.batchSize;
+        int written = 0;
+        int failed = 0;
+        Stopwatch commitStopwatch = Stopwatch.createUnstarted();
+        
+        int batchNumber = 0;
+        for (List<PointOfInterest> batch : Lists.partition(pois, this.batchSize)) {
+            batchNumber++;
+            try {
+                writeBatch(batch, graph, spatialDatabaseService, commitStopwatch);
+                written += batch.size();
             } catch (Exception e) {
+                System.err.println("Error writing batch " + batchNumber + " of " + batch.size() 
+                        + " points of interest, retrying them one at a time");
                 e.printStackTrace();
+                for (PointOfInterest poi : batch) {
+                    try {
+                        writeBatch(ImmutableList.of(poi), graph, spatialDatabaseService, commitStopwatch);
+                        written++;
+                    } catch (Exception retryException) {
+                        System.err.println("Error writing poi: " + poi);
+                        retryException.printStackTrace();
+                        failed++;
+                    }
+                }
             }
+            this.progressListener.batchWritten(batchNumber, batchCount, written, failed, 
+                    totalStopwatch.elapsed(TimeUnit.MILLISECONDS));
         }
+        
+        this.progressListener.importFinished(written, failed, commitStopwatch.elapsed(TimeUnit.MILLISECONDS), 
+                totalStopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+    
+    /*
+     * Writes the points of interest in a single transaction, which is rolled back if any of them fails.
+     */
+    private void writeBatch(List<PointOfInterest> batch, GraphDatabaseService graph, 
+            SpatialDatabaseService spatialDatabaseService, Stopwatch commitStopwatch) {
+        
+        Transaction tx = graph.beginTx();
+        try {
+            EditableLayer poiLayer = getEditableLayer(spatialDatabaseService, POINTS_OF_INTEREST);
+            Index<Node> fullText = graph.index().forNodes(GAZETTEER_FULLTEXT);
 
+            for (PointOfInterest poi : batch) {
+                addPoi(poi, poiLayer, fullText);
+            }
+            tx.success();
+        } finally {
+            // commits, or rolls back if the batch could not be assembled
+            commitStopwatch.start();
+            try {
+                tx.close();
+            } finally {
+                commitStopwatch.stop();
+            }
+        }
     }
 
     private void addPoi(PointOfInterest poi, EditableLayer poiLayer, Index<Node> fullText) {
+        SpatialDatabaseRecord record = createSpatialDatabaseRecord(poi, poiLayer);
+        Node neoNode = record.getGeomNode();
 
-        try {
-            SpatialDatabaseRecord record = createSpatialDatabaseRecord(poi, poiLayer);
-            Node neoNode = record.getGeomNode();
-
-            labelNode(poi, neoNode);
-
-            linkNodeToStreet(poi, neoNode, fullText.getGraphDatabase());
+        labelNode(poi, neoNode);
 
-            doFullTextIndexing(poi, neoNode, fullText);
-        } catch (Exception e) {
-            System.err.println("Error inserting poi: " + poi);
-            e.printStackTrace();
-        }
+        linkNodeToStreet(poi, neoNode, fullText.getGraphDatabase());
 
+        doFullTextIndexing(poi, neoNode, fullText);
     }
 
     private void linkNodeToStreet(PointOfInterest poi, Node neoNode, GraphDatabaseService graphDatabaseService) {
         if (poi.getStreet().isPresent()) {
 
+            Long streetNodeId = this.streetNodeIds.get(poi.getStreet().get());
+            if (streetNodeId != null) {
+                graphDatabaseService.getNodeById(streetNodeId).createRelationshipTo(neoNode, 
+                                                                                    GazetteerRelationshipTypes.CONTAINS);
+                return;
+            }
+            
             try (ResourceIterator<Node> iterator = graphDatabaseService.findNodesByLabelAndProperty(
                     DynamicLabel.label(GazetteerEntryTypes.STREET), NAME, poi.getStreet().get()).iterator()) {
 
@@ -136,5 +266,32 @@ public class PointOfInterestToNeoImporter extends AbstractNeoImporter<List<Point
 
         return record;
     }
+    
+    /**
+     * Told of the progress of an import.
+     */
+    public interface ProgressListener {
+        
+        /**
+         * Called once a batch has been committed, or retried.
+         * 
+         * @param batchNumber number of the batch, starting at 1
+         * @param batchCount total number of batches
+         * @param written points of interest written so far
+         * @param failed points of interest that could not be written so far
+         * @param elapsedMillis time since the import started
+         */
+        void batchWritten(int batchNumber, int batchCount, int written, int failed, long elapsedMillis);
+        
+        /**
+         * Called once all batches have been written.
+         * 
+         * @param written points of interest written
+         * @param failed points of interest that could not be written
+         * @param commitMillis time spent committing transactions
+         * @param elapsedMillis time the import took
+         */
+        void importFinished(int written, int failed, long commitMillis, long elapsedMillis);
+    }
 
 }
@@ -19,10 +19,13 @@
 package com.jejking.hh.nord.gazetteer.osm.poi;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.houseNumber;
+import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.inner;
 import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.multipolygon;
 import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.name;
 import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.natural;
+import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.outer;
 import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.street;
 import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.type;
 import static com.jejking.hh.nord.gazetteer.osm.OsmConstants.waterway;
@@ -38,13 +41,19 @@ import rx.functions.Func1;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.jejking.hh.nord.gazetteer.osm.IdBitmap;
+import com.jejking.hh.nord.gazetteer.osm.MapNodeLocationStore;
+import com.jejking.hh.nord.gazetteer.osm.NodeLocationRecorder;
+import com.jejking.hh.nord.gazetteer.osm.NodeLocationStore;
+import com.jejking.hh.nord.gazetteer.osm.OsmSource;
 import com.jejking.hh.nord.gazetteer.osm.RelationWaysToPolygon;
+import com.jejking.hh.nord.gazetteer.osm.SortedArrayNodeLocationStore;
 import com.jejking.hh.nord.gazetteer.osm.WayNdsToLineString;
+import com.jejking.hh.nord.gazetteer.osm.XmlOsmSource;
 import com.jejking.osm.OsmComponent;
 import com.jejking.osm.OsmNode;
 import com.jejking.osm.OsmRelation;
 import com.jejking.osm.OsmWay;
-import com.jejking.osm.RxOsmParser;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
@@ -54,6 +63,9 @@ import com.vividsolutions.jts.geom.Polygon;
  * Class to assemble useful descriptions of buildings and other points of interest from an Open Street Map file for
  * further processing.
  * 
+ * <p>The node locations and geometries collected belong to a single extract, so each
+ * instance may only be used to collect from one source.</p>
+ * 
  * @author jejking
  * 
  */
@@ -95,9 +107,26 @@ public class RxPointOfInterestCollectionBuilder {
     }
 
     private static final IsOsmFeaturePointOfInterest isInterestingOsmFeaturePredicate = new IsOsmFeaturePointOfInterest();
+    private static final Func1<OsmRelation, Boolean> isMultipolygon = new Func1<OsmRelation, Boolean>() {
+
+        @Override
+        public Boolean call(OsmRelation osmRelation) {
+            if (osmRelation.getProperties().containsKey(type)
+                    && osmRelation.getProperties().get(type).equals(multipolygon)) {
+                return Boolean.TRUE;
+            }
+            return Boolean.FALSE;
+        }
+
+    };
     private static final OsmComponentPointOfInterestLabeller osmComponentLabeller = new OsmComponentPointOfInterestLabeller();
 
     private final GeometryFactory geometryFactory;
+    private final NodeLocationStore nodeLocations;
+    private final Optional<IdBitmap> retainedWayIds;
+    private final ImmutableList.Builder<PointOfInterest> pointOfInterestListBuilder = new ImmutableList.Builder<>();
+    private final Map<Long, LineString> osmLineStrings = new HashMap<>();
+    private boolean used = false;
 
     /**
      * Constructor.
@@ -108,7 +137,42 @@ public class RxPointOfInterestCollectionBuilder {
      *             if geometry factory <code>null</code>
      */
     public RxPointOfInterestCollectionBuilder(GeometryFactory geometryFactory) {
+        this(geometryFactory, new SortedArrayNodeLocationStore());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param geometryFactory
+     *            a geometry factory, may not be <code>null</code>
+     * @param nodeLocations
+     *            store to record the node locations in, may not be <code>null</code>
+     * @throws NullPointerException
+     *             if either parameter is <code>null</code>
+     */
+    public RxPointOfInterestCollectionBuilder(GeometryFactory geometryFactory, NodeLocationStore nodeLocations) {
+        this(geometryFactory, nodeLocations, Optional.<IdBitmap>absent());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param geometryFactory
+     *            a geometry factory, may not be <code>null</code>
+     * @param nodeLocations
+     *            store to record the node locations in, may not be <code>null</code>
+     * @param retainedWayIds
+     *            optional set of ids of the ways whose geometry is to be kept for assembling 
+     *            relations, otherwise that of all ways is kept. May not be <code>null</code>
+     * @throws NullPointerException
+     *             if any parameter is <code>null</code>
+     * @see #collectRelationWayIds(Observable, IdBitmap)
+     */
+    public RxPointOfInterestCollectionBuilder(GeometryFactory geometryFactory, NodeLocationStore nodeLocations, 
+            Optional<IdBitmap> retainedWayIds) {
         this.geometryFactory = checkNotNull(geometryFactory);
+        this.nodeLocations = checkNotNull(nodeLocations);
+        this.retainedWayIds = checkNotNull(retainedWayIds);
     }
 
     /**
@@ -118,43 +182,133 @@ public class RxPointOfInterestCollectionBuilder {
      * @param inputStream
      *            with XML data
      * @return map of street name to geometry mappings
+     * @throws IllegalStateException if this builder has been used before
      */
     public ImmutableList<PointOfInterest> pointsOfInterestFromStream(final InputStream inputStream) {
-        ImmutableList.Builder<PointOfInterest> pointOfInterestListBuilder = new ImmutableList.Builder<>();
-        Map<Long, Point> osmPoints = new HashMap<>();
-        Map<Long, LineString> osmLineStrings = new HashMap<>();
-
-        RxOsmParser rxOsmParser = new RxOsmParser(inputStream);
-
-        attachNodeGeometryMapBuilderTo(rxOsmParser.getNodeObservable(), osmPoints);
-        attachNodePointOfInterestBuilderTo(rxOsmParser.getNodeObservable(), pointOfInterestListBuilder);
-
-        attachWayGeometryMapBuilderTo(rxOsmParser.getWayObservable(), osmPoints, osmLineStrings);
-        attachWayPointOfInterestBuilderTo(rxOsmParser.getWayObservable(), osmPoints, pointOfInterestListBuilder);
+        return pointsOfInterestFromSource(new XmlOsmSource(inputStream));
+    }
 
-        attachRelationPointOfInterestBuilderTo(rxOsmParser.getRelationObservable(), osmLineStrings,
-                pointOfInterestListBuilder);
+    /**
+     * Constructs a list of points of interest (including buildings) from Open Street Map
+     * data in any supported format.
+     * 
+     * @param osmSource
+     *            source of data, not yet parsed
+     * @return list of points of interest
+     * @throws IllegalStateException if this builder has been used before
+     */
+    public ImmutableList<PointOfInterest> pointsOfInterestFromSource(OsmSource osmSource) {
+        checkNotUsed();
+        
+        osmSource.getNodeObservable().subscribe(new NodeLocationRecorder(this.nodeLocations));
+        attachCollectorsTo(checkNotNull(osmSource));
+
+        osmSource.parse();
+        return getPointsOfInterest();
+    }
 
-        rxOsmParser.parseOsmStream();
-        return pointOfInterestListBuilder.build();
+    /**
+     * Attaches the point of interest collectors to the observables of a source that may also be feeding
+     * other collectors. The source is not parsed. Node locations are <i>not</i> recorded, the caller
+     * must ensure they reach the store supplied at construction before the ways are parsed, 
+     * for example by subscribing a {@link NodeLocationRecorder} to the node observable.
+     * 
+     * @param osmSource
+     *            source to attach to, may not be <code>null</code>
+     * @throws IllegalStateException if this builder has been used before
+     * @see #getPointsOfInterest()
+     */
+    public void attachTo(OsmSource osmSource) {
+        checkNotUsed();
+        attachCollectorsTo(checkNotNull(osmSource));
     }
+    
+    private void attachCollectorsTo(OsmSource osmSource) {
+        attachNodePointOfInterestBuilderTo(osmSource.getNodeObservable(), this.pointOfInterestListBuilder);
 
-    void attachRelationPointOfInterestBuilderTo(Observable<OsmRelation> relationObservable,
-            final Map<Long, LineString> osmLineStrings, final Builder<PointOfInterest> poiListBuilder) {
+        attachWayGeometryMapBuilderTo(osmSource.getWayObservable(), this.nodeLocations, this.osmLineStrings);
+        attachWayPointOfInterestBuilderTo(osmSource.getWayObservable(), this.nodeLocations, this.pointOfInterestListBuilder);
 
+        attachRelationPointOfInterestBuilderTo(osmSource.getRelationObservable(), this.osmLineStrings,
+                this.pointOfInterestListBuilder);
+    }
+    
+    /**
+     * Attaches a collector of the ids of the ways that relations which may be points of interest 
+     * are assembled from. Relations follow the ways in a file, so this needs a pass of its own.
+     * 
+     * @param relationObservable
+     *            relations to scan
+     * @param wayIds
+     *            set to add the way ids to
+     */
+    public static void collectRelationWayIds(Observable<OsmRelation> relationObservable, final IdBitmap wayIds) {
         relationObservable.filter(isInterestingOsmFeaturePredicate).filter(new FilterWaterwaysPredicate())
-                .filter(new Func1<OsmRelation, Boolean>() {
+                .filter(isMultipolygon).subscribe(new Action1<OsmRelation>() {
 
                     @Override
-                    public Boolean call(OsmRelation osmRelation) {
-                        if (osmRelation.getProperties().containsKey(type)
-                                && osmRelation.getProperties().get(type).equals(multipolygon)) {
-                            return Boolean.TRUE;
+                    public void call(OsmRelation osmRelation) {
+                        for (OsmRelation.Member member : osmRelation.getMembers()) {
+                            if (member.getRole().isPresent()
+                                    && (member.getRole().get().equals(outer) || member.getRole().get().equals(inner))) {
+                                wayIds.add(member.getRef());
+                            }
                         }
-                        return Boolean.FALSE;
                     }
+                });
+    }
+    
+    /**
+     * Attaches a collector of the ids of the nodes needed to build points of interest from ways 
+     * and from the ways making up relations.
+     * 
+     * @param wayObservable
+     *            ways to scan
+     * @param relationWayIds
+     *            ids of the ways relations are assembled from
+     * @param nodeIds
+     *            set to add the node ids to
+     */
+    public static void collectReferencedNodeIds(Observable<OsmWay> wayObservable, final IdBitmap relationWayIds, 
+            final IdBitmap nodeIds) {
+        
+        final FilterWaterwaysPredicate filterWaterwaysPredicate = new FilterWaterwaysPredicate();
+        wayObservable.filter(new Func1<OsmWay, Boolean>() {
+
+            @Override
+            public Boolean call(OsmWay osmWay) {
+                return relationWayIds.contains(osmWay.getId())
+                        || (isInterestingOsmFeaturePredicate.call(osmWay) && filterWaterwaysPredicate.call(osmWay));
+            }
+            
+        }).subscribe(new Action1<OsmWay>() {
+
+            @Override
+            public void call(OsmWay osmWay) {
+                for (Long nodeId : osmWay.getNdRefs()) {
+                    nodeIds.add(nodeId);
+                }
+            }
+        });
+    }
+    
+    private void checkNotUsed() {
+        checkState(!this.used, "A point of interest collection builder may only be used once, create a new one for each source");
+        this.used = true;
+    }
+    
+    /**
+     * @return immutable list of points of interest collected so far
+     */
+    public ImmutableList<PointOfInterest> getPointsOfInterest() {
+        return this.pointOfInterestListBuilder.build();
+    }
 
-                }).map(new Func1<OsmRelation, Optional<PointOfInterest>>() {
+    void attachRelationPointOfInterestBuilderTo(Observable<OsmRelation> relationObservable,
+            final Map<Long, LineString> osmLineStrings, final Builder<PointOfInterest> poiListBuilder) {
+
+        relationObservable.filter(isInterestingOsmFeaturePredicate).filter(new FilterWaterwaysPredicate())
+                .filter(isMultipolygon).map(new Func1<OsmRelation, Optional<PointOfInterest>>() {
 
                     final RelationWaysToPolygon relationWaysToPolygon = new RelationWaysToPolygon(geometryFactory,
                             osmLineStrings);
@@ -195,8 +349,13 @@ public class RxPointOfInterestCollectionBuilder {
 
     void attachWayPointOfInterestBuilderTo(Observable<OsmWay> wayObservable, Map<Long, Point> osmPoints,
             final Builder<PointOfInterest> poiListBuilder) {
+        attachWayPointOfInterestBuilderTo(wayObservable, new MapNodeLocationStore(osmPoints, geometryFactory), poiListBuilder);
+    }
+    
+    void attachWayPointOfInterestBuilderTo(Observable<OsmWay> wayObservable, NodeLocationStore nodeLocations,
+            final Builder<PointOfInterest> poiListBuilder) {
 
-        final WayNdsToLineString wayNdsToLineString = new WayNdsToLineString(geometryFactory, osmPoints);
+        final WayNdsToLineString wayNdsToLineString = new WayNdsToLineString(geometryFactory, nodeLocations);
 
         wayObservable.filter(isInterestingOsmFeaturePredicate).filter(new FilterWaterwaysPredicate())
                 .map(new PointOfInterestBuilder<OsmWay>(new Func1<OsmWay, Point>() {
@@ -243,27 +402,18 @@ public class RxPointOfInterestCollectionBuilder {
                         });
     }
 
-    private void attachNodeGeometryMapBuilderTo(Observable<OsmNode> nodeObservable, final Map<Long, Point> nodePointMap) {
-
-        nodeObservable.subscribe(new Action1<OsmNode>() {
-
-            @Override
-            public void call(OsmNode node) {
-                nodePointMap.put(node.getId(), node.getPoint());
-            }
-        });
-
-    }
-
-    private void attachWayGeometryMapBuilderTo(Observable<OsmWay> wayObservable, final Map<Long, Point> nodePointMap,
+    private void attachWayGeometryMapBuilderTo(Observable<OsmWay> wayObservable, NodeLocationStore nodeLocations,
             final Map<Long, LineString> osmLineStrings) {
 
-        final WayNdsToLineString wayNdsToLineString = new WayNdsToLineString(geometryFactory, nodePointMap);
+        final WayNdsToLineString wayNdsToLineString = new WayNdsToLineString(geometryFactory, nodeLocations);
 
         wayObservable.subscribe(new Action1<OsmWay>() {
 
             @Override
             public void call(OsmWay osmWay) {
+                if (retainedWayIds.isPresent() && !retainedWayIds.get().contains(osmWay.getId())) {
+                    return;
+                }
                 osmLineStrings.put(osmWay.getId(), wayNdsToLineString.call(osmWay.getNdRefs()));
             }
         });
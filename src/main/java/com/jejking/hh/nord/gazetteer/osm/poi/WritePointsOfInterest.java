@@ -21,15 +21,19 @@ package com.jejking.hh.nord.gazetteer.osm.poi;
 import static com.jejking.hh.nord.AbstractNeoImporter.registerShutdownHook;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.jejking.hh.nord.gazetteer.osm.OsmGazetteerCollections;
+import com.jejking.hh.nord.gazetteer.osm.ParallelBZip2InputStream;
 import com.vividsolutions.jts.geom.GeometryFactory;
 
 
@@ -57,16 +61,43 @@ public class WritePointsOfInterest {
 
     public static void writePointsOfInterest(GeometryFactory geometryFactory, GraphDatabaseService graph) {
         RxPointOfInterestCollectionBuilder builder = new RxPointOfInterestCollectionBuilder(geometryFactory);
-        try {
-            List<PointOfInterest> pois = builder
-                    .pointsOfInterestFromStream(new BZip2CompressorInputStream(
-                            WritePointsOfInterest.class.getResourceAsStream("/hamburg-nord-tm470.osm.bz2")));
+        try (InputStream inputStream = new ParallelBZip2InputStream(
+                            WritePointsOfInterest.class.getResourceAsStream(OsmGazetteerCollections.HAMBURG_NORD_EXTRACT))) {
+            List<PointOfInterest> pois = builder.pointsOfInterestFromStream(inputStream);
     
-            PointOfInterestToNeoImporter importer = new PointOfInterestToNeoImporter();
-            importer.writeToNeo(pois, graph);
+            writePointsOfInterest(pois, graph);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Writes points of interest that have already been collected, for example in a
+     * single pass with the streets.
+     * 
+     * @param pois points of interest
+     * @param graph graph to write to
+     * @see OsmGazetteerCollections
+     */
+    public static void writePointsOfInterest(List<PointOfInterest> pois, GraphDatabaseService graph) {
+        writePointsOfInterest(pois, ImmutableMap.<String, Long>of(), graph);
+    }
+    
+    /**
+     * Writes points of interest that have already been collected, linking them to the
+     * streets just written without looking the streets up in the graph.
+     * 
+     * @param pois points of interest
+     * @param streetNodeIds map of street name to id of the street node, as returned on writing the streets
+     * @param graph graph to write to
+     * @see com.jejking.hh.nord.gazetteer.osm.streets.WriteStreets#writeStreets(java.util.Map, GraphDatabaseService)
+     */
+    public static void writePointsOfInterest(List<PointOfInterest> pois, Map<String, Long> streetNodeIds, 
+            GraphDatabaseService graph) {
+        
+        PointOfInterestToNeoImporter importer = new PointOfInterestToNeoImporter(
+                                                        PointOfInterestToNeoImporter.DEFAULT_BATCH_SIZE, streetNodeIds);
+        importer.writeToNeo(pois, graph);
+    }
+
 }
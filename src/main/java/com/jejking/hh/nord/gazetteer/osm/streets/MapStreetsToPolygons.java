@@ -51,8 +51,14 @@ public class MapStreetsToPolygons {
 
     }
 
+    /**
+     * Maps the streets to the numbered districts in parallel.
+     * 
+     * @param graph graph with polygons and streets already written
+     * @see ParallelStreetToAdminPolygonMapper
+     */
     public static void mapStreetsToAdminPolygons(GraphDatabaseService graph) {
-        StreetToAdminPolygonMapper streetToAdminPolygonMapper = new StreetToAdminPolygonMapper();
+        ParallelStreetToAdminPolygonMapper streetToAdminPolygonMapper = new ParallelStreetToAdminPolygonMapper();
         streetToAdminPolygonMapper.mapStreetsToPolygons(graph);
     }
 
@@ -20,7 +20,7 @@ package com.jejking.hh.nord.gazetteer.osm.streets;
 
 import static com.jejking.hh.nord.gazetteer.GazetteerEntryTypes.STREET;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.NAME;
-import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.GEO;
+import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.STREETS;
 import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.TYPE;
 
 
@@ -36,6 +36,7 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.Index;
 
+import com.google.common.collect.ImmutableMap;
 import com.jejking.hh.nord.AbstractNeoImporter;
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -51,22 +52,38 @@ import com.vividsolutions.jts.geom.Geometry;
 public class OsmStreetCollectionToNeoImporter extends AbstractNeoImporter<Map<String, Geometry>> {
 
     public void writeToNeo(Map<String, Geometry> streets, GraphDatabaseService graph) {
+        writeStreetsToNeo(streets, graph);
+    }
+    
+    /**
+     * Writes the streets, as {@link #writeToNeo(Map, GraphDatabaseService)}, and hands back the
+     * ids of the nodes created so that later importers can link to the streets without looking
+     * them up in the graph again.
+     * 
+     * @param streets map of street name to geometry
+     * @param graph graph to write to
+     * @return immutable map of street name to id of the street node
+     */
+    public ImmutableMap<String, Long> writeStreetsToNeo(Map<String, Geometry> streets, GraphDatabaseService graph) {
         SpatialDatabaseService spatialDatabaseService = new SpatialDatabaseService(graph);
+        ImmutableMap.Builder<String, Long> streetNodeIds = ImmutableMap.builder();
         
         try (Transaction tx = graph.beginTx()) {
-            EditableLayer streetLayer = getEditableLayer(spatialDatabaseService, GEO);
+            EditableLayer streetLayer = getEditableLayer(spatialDatabaseService, STREETS);
             Index<Node> fullText = graph.index().forNodes(GAZETTEER_FULLTEXT);
             
             for (Entry<String, Geometry> entry : streets.entrySet()) {
-                addStreet(entry.getKey(), entry.getValue(), streetLayer, fullText);
+                Node neoNode = addStreet(entry.getKey(), entry.getValue(), streetLayer, fullText);
+                streetNodeIds.put(entry.getKey(), neoNode.getId());
             }
             
             tx.success();
         }
         
+        return streetNodeIds.build();
     }
 
-    private void addStreet(String name, Geometry geometry, EditableLayer streetLayer, Index<Node> fullText) {
+    private Node addStreet(String name, Geometry geometry, EditableLayer streetLayer, Index<Node> fullText) {
         SpatialDatabaseRecord record = streetLayer.add(geometry, new String[]{NAME}, new Object[]{name});
         Node neoNode = record.getGeomNode();
         neoNode.addLabel(DynamicLabel.label(STREET));
@@ -74,6 +91,7 @@ public class OsmStreetCollectionToNeoImporter extends AbstractNeoImporter<Map<St
         fullText.add(neoNode, NAME, name);
         fullText.add(neoNode, TYPE, STREET);
         
+        return neoNode;
     }
     
 }
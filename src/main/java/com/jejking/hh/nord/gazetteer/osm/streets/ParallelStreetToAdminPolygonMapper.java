@@ -0,0 +1,230 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.streets;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.jejking.hh.nord.gazetteer.GazetteerEntryTypes.NUMBERED_DISTRICT;
+import static com.jejking.hh.nord.gazetteer.GazetteerEntryTypes.STREET;
+import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.ADMINISTRATIVE;
+import static com.jejking.hh.nord.gazetteer.GazetteerRelationshipTypes.CONTAINS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.gis.spatial.GeometryEncoder;
+import org.neo4j.gis.spatial.Layer;
+import org.neo4j.gis.spatial.SpatialDatabaseService;
+import org.neo4j.gis.spatial.WKBGeometryEncoder;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Associates streets with the administrative polygons of the lowest level, as 
+ * {@link StreetToAdminPolygonMapper} does, without querying the shared spatial layer once
+ * per street. The numbered districts are few, so they are loaded once as 
+ * {@link PreparedGeometry} instances into an in-memory {@link STRtree} just for them.
+ * Streets are then intersected with the districts on several threads and the resulting
+ * relationships written in batched transactions.
+ * 
+ * @author jejking
+ *
+ */
+public class ParallelStreetToAdminPolygonMapper {
+
+    /**
+     * Default number of threads to intersect streets with districts on, one per available processor.
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Default number of relationships to create per transaction.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    
+    private static final int STREETS_PER_TASK = 250;
+    
+    private final int threads;
+    private final int batchSize;
+    
+    /**
+     * Constructor, using {@link #DEFAULT_THREADS} and {@link #DEFAULT_BATCH_SIZE}.
+     */
+    public ParallelStreetToAdminPolygonMapper() {
+        this(DEFAULT_THREADS, DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param threads number of threads to intersect on, must be at least 1
+     * @param batchSize number of relationships to create per transaction, must be at least 1
+     * @throws IllegalArgumentException if either parameter is less than 1
+     */
+    public ParallelStreetToAdminPolygonMapper(int threads, int batchSize) {
+        checkArgument(threads >= 1, "threads must be at least 1");
+        checkArgument(batchSize >= 1, "batch size must be at least 1");
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Does the work. Assumes that the graph database service has been
+     * preloaded with adminstrative polygons and street geometries.
+     * 
+     * @param graph
+     */
+    public void mapStreetsToPolygons(GraphDatabaseService graph) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        
+        final STRtree districts = new STRtree();
+        final List<StreetGeometry> streets = new ArrayList<>();
+        
+        try (Transaction tx = graph.beginTx()) {
+            SpatialDatabaseService spatial = new SpatialDatabaseService(graph);
+            Layer adminLayer = spatial.getLayer(ADMINISTRATIVE);
+            
+            GeometryEncoder encoder = new WKBGeometryEncoder();
+            encoder.init(adminLayer);
+            
+            GlobalGraphOperations ops = GlobalGraphOperations.at(graph);
+            
+            for (Node districtNode : ops.getAllNodesWithLabel(DynamicLabel.label(NUMBERED_DISTRICT))) {
+                Geometry geometry = encoder.decodeGeometry(districtNode);
+                districts.insert(geometry.getEnvelopeInternal(), 
+                                 new District(districtNode.getId(), PreparedGeometryFactory.prepare(geometry)));
+            }
+            
+            for (Node streetNode : ops.getAllNodesWithLabel(DynamicLabel.label(STREET))) {
+                streets.add(new StreetGeometry(streetNode.getId(), encoder.decodeGeometry(streetNode)));
+            }
+            
+            tx.success();
+        }
+        // must be built before being queried from several threads
+        districts.build();
+        System.out.println("Loaded " + districts.size() + " districts and " + streets.size() + " streets in " 
+                + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+        
+        List<long[]> containments = intersect(districts, streets);
+        System.out.println("Found " + containments.size() + " streets in districts after " 
+                + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+        
+        writeRelationships(graph, containments);
+        System.out.println("Wrote street to district relationships after " 
+                + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+    }
+
+    private List<long[]> intersect(final STRtree districts, List<StreetGeometry> streets) {
+        ExecutorService intersectors = Executors.newFixedThreadPool(this.threads, 
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("street-district-%d").build());
+        try {
+            List<Future<List<long[]>>> futures = new ArrayList<>();
+            for (final List<StreetGeometry> chunk : Lists.partition(streets, STREETS_PER_TASK)) {
+                futures.add(intersectors.submit(new Callable<List<long[]>>() {
+
+                    @Override
+                    public List<long[]> call() {
+                        return intersectChunk(districts, chunk);
+                    }
+                    
+                }));
+            }
+            
+            List<long[]> containments = new ArrayList<>();
+            for (Future<List<long[]>> future : futures) {
+                containments.addAll(future.get());
+            }
+            return containments;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            intersectors.shutdownNow();
+        }
+    }
+    
+    /*
+     * Pairs of district node id and street node id.
+     */
+    private static List<long[]> intersectChunk(STRtree districts, List<StreetGeometry> streets) {
+        List<long[]> containments = new ArrayList<>();
+        for (StreetGeometry street : streets) {
+            for (Object candidate : districts.query(street.geometry.getEnvelopeInternal())) {
+                District district = (District) candidate;
+                if (district.geometry.intersects(street.geometry)) {
+                    containments.add(new long[] {district.nodeId, street.nodeId});
+                }
+            }
+        }
+        return containments;
+    }
+    
+    private void writeRelationships(GraphDatabaseService graph, List<long[]> containments) {
+        for (List<long[]> batch : Lists.partition(containments, this.batchSize)) {
+            try (Transaction tx = graph.beginTx()) {
+                for (long[] containment : batch) {
+                    graph.getNodeById(containment[0]).createRelationshipTo(graph.getNodeById(containment[1]), CONTAINS);
+                }
+                tx.success();
+            }
+        }
+    }
+    
+    private static final class District {
+        
+        private final long nodeId;
+        private final PreparedGeometry geometry;
+        
+        District(long nodeId, PreparedGeometry geometry) {
+            this.nodeId = nodeId;
+            this.geometry = geometry;
+        }
+    }
+    
+    private static final class StreetGeometry {
+        
+        private final long nodeId;
+        private final Geometry geometry;
+        
+        StreetGeometry(long nodeId, Geometry geometry) {
+            this.nodeId = nodeId;
+            this.geometry = geometry;
+        }
+    }
+    
+}
@@ -19,28 +19,38 @@
 package com.jejking.hh.nord.gazetteer.osm.streets;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+
 import rx.Observable;
 import rx.functions.Action1;
 import rx.functions.Func1;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.jejking.hh.nord.gazetteer.osm.IdBitmap;
+import com.jejking.hh.nord.gazetteer.osm.NodeLocationRecorder;
+import com.jejking.hh.nord.gazetteer.osm.NodeLocationStore;
+import com.jejking.hh.nord.gazetteer.osm.OsmSource;
+import com.jejking.hh.nord.gazetteer.osm.SortedArrayNodeLocationStore;
 import com.jejking.hh.nord.gazetteer.osm.WayNdsToLineString;
-import com.jejking.osm.OsmNode;
+import com.jejking.hh.nord.gazetteer.osm.XmlOsmSource;
 import com.jejking.osm.OsmWay;
-import com.jejking.osm.RxOsmParser;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.Point;
 
 /**
  * Class to extract street names and geometries from an Open Street Map XML file.
  * 
+ * <p>The node locations and street segments collected belong to a single extract, so each
+ * instance may only be used to collect from one source.</p>
+ * 
  * @author jejking
  */
 public class RxOsmStreetCollectionBuilder {
@@ -49,9 +59,11 @@ public class RxOsmStreetCollectionBuilder {
     private static final String NAME = "name";
     private static final String PUBLIC_TRANSPORT = "public_transport";
 
-    private final Map<Long, Point> osmPoints = new HashMap<>();
-    private final Map<String, Geometry> osmNamedStreets = new HashMap<>();
+    private final NodeLocationStore nodeLocations;
+    private final Map<String, List<LineString>> osmNamedStreetSegments = new HashMap<>();
     private final GeometryFactory geometryFactory;
+    private boolean used = false;
+    private ImmutableMap<String, Geometry> streets = null;
 
     private static final ImmutableSet<String> acceptableHighwayTypes = ImmutableSet.of(
                                                                             "motorway",
@@ -65,6 +77,24 @@ public class RxOsmStreetCollectionBuilder {
                                                                             "road", 
                                                                             "pedestrian");
     private static final ImmutableSet<String> streetsToFilter = ImmutableSet.of("Plan", "Galerie");
+    
+    private static final Func1<OsmWay, Boolean> isNamedStreet = new Func1<OsmWay, Boolean>() {
+
+        @Override
+        public Boolean call(OsmWay way) {
+            // retain just the right sort of Highway, and just those with names
+            if (!(way.getProperties().containsKey(HIGHWAY) && way.getProperties().containsKey(NAME)
+                    && acceptableHighwayTypes.contains(way.getProperties().get(HIGHWAY)))) {
+                return Boolean.FALSE;
+            }
+            // Excludes "highways" that are also things like platforms, bus stops, etc.
+            if (way.getProperties().containsKey(PUBLIC_TRANSPORT)) {
+                return Boolean.FALSE;
+            }
+            // work around to exclude streets with common names
+            return !streetsToFilter.contains(way.getProperties().get(NAME));
+        }
+    };
 
     /**
      * Constructor.
@@ -75,7 +105,22 @@ public class RxOsmStreetCollectionBuilder {
      *             if geometry factory <code>null</code>
      */
     public RxOsmStreetCollectionBuilder(GeometryFactory geometryFactory) {
+        this(geometryFactory, new SortedArrayNodeLocationStore());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param geometryFactory
+     *            a geometry factory, may not be <code>null</code>
+     * @param nodeLocations
+     *            store to record the node locations in, may not be <code>null</code>
+     * @throws NullPointerException
+     *             if either parameter is <code>null</code>
+     */
+    public RxOsmStreetCollectionBuilder(GeometryFactory geometryFactory, NodeLocationStore nodeLocations) {
         this.geometryFactory = checkNotNull(geometryFactory);
+        this.nodeLocations = checkNotNull(nodeLocations);
     }
 
     /**
@@ -85,45 +130,95 @@ public class RxOsmStreetCollectionBuilder {
      * @param inputStream
      *            with XML data
      * @return map of street name to geometry mappings
+     * @throws IllegalStateException if this builder has been used before
      */
     public Map<String, Geometry> streetsFromStream(InputStream inputStream) {
+        return streetsFromSource(new XmlOsmSource(inputStream));
+    }
 
-        RxOsmParser parser = new RxOsmParser(inputStream);
-        attachNodeMapBuilder(parser);
-        attachWayBuilder(parser);
+    /**
+     * Constructs an immutable map of street name to geometry from Open Street Map data in any
+     * supported format.
+     * 
+     * @param osmSource
+     *            source of data, not yet parsed
+     * @return map of street name to geometry mappings
+     * @throws IllegalStateException if this builder has been used before
+     */
+    public Map<String, Geometry> streetsFromSource(OsmSource osmSource) {
+        checkNotUsed();
+        
+        osmSource.getNodeObservable().subscribe(new NodeLocationRecorder(this.nodeLocations));
+        attachWayBuilder(checkNotNull(osmSource));
 
-        parser.parseOsmStream();
+        osmSource.parse();
 
-        return ImmutableMap.copyOf(osmNamedStreets);
+        return getStreets();
 
     }
 
-    private void attachWayBuilder(RxOsmParser parser) {
-        // first, filter to retain just the right sort of Highway, and just those with names
-        parser.getWayObservable().filter(new Func1<OsmWay, Boolean>() {
+    /**
+     * Attaches the street collector to the way observable of a source that may also be feeding
+     * other collectors. The source is not parsed. Node locations are <i>not</i> recorded, the caller
+     * must ensure they reach the store supplied at construction before the ways are parsed, 
+     * for example by subscribing a {@link NodeLocationRecorder} to the node observable.
+     * 
+     * @param osmSource
+     *            source to attach to, may not be <code>null</code>
+     * @throws IllegalStateException if this builder has been used before
+     * @see #getStreets()
+     */
+    public void attachTo(OsmSource osmSource) {
+        checkNotUsed();
+        attachWayBuilder(checkNotNull(osmSource));
+    }
 
-            @Override
-            public Boolean call(OsmWay way) {
-                return way.getProperties().containsKey(HIGHWAY) && way.getProperties().containsKey(NAME)
-                        && acceptableHighwayTypes.contains(way.getProperties().get(HIGHWAY));
-            }
-        }).filter(new Func1<OsmWay, Boolean>() {
+    /**
+     * Attaches a collector of the ids of the nodes the street ways refer to, which are the
+     * only nodes whose locations this builder needs.
+     * 
+     * @param wayObservable
+     *            ways to scan
+     * @param nodeIds
+     *            set to add the node ids to
+     */
+    public static void collectReferencedNodeIds(Observable<OsmWay> wayObservable, final IdBitmap nodeIds) {
+        wayObservable.filter(isNamedStreet).subscribe(new Action1<OsmWay>() {
 
-            // Excludes "highways" that are also things like platforms, bus stops, etc.
             @Override
-            public Boolean call(OsmWay way) {
-                return !way.getProperties().containsKey(PUBLIC_TRANSPORT);
+            public void call(OsmWay way) {
+                for (Long nodeId : way.getNdRefs()) {
+                    nodeIds.add(nodeId);
+                }
             }
-        }).filter(new Func1<OsmWay, Boolean>() {
+        });
+    }
 
-            // work around to exclude streets with common names
-            @Override
-            public Boolean call(OsmWay way) {
-                return !streetsToFilter.contains(way.getProperties().get(NAME));
-            }
-        }).subscribe(new Action1<OsmWay>() {
+    /**
+     * Merges the segments collected for each street name, using a {@link StreetSegmentMerger}. The
+     * merge happens once only, on the first call, which must therefore come after the source has
+     * been parsed. Later calls return the same streets.
+     * 
+     * @return immutable map of street name to geometry
+     */
+    public ImmutableMap<String, Geometry> getStreets() {
+        if (this.streets == null) {
+            this.streets = new StreetSegmentMerger(geometryFactory).mergeAll(osmNamedStreetSegments);
+            // the segments are no longer needed
+            this.osmNamedStreetSegments.clear();
+        }
+        return this.streets;
+    }
+
+    private void checkNotUsed() {
+        checkState(!this.used, "A street collection builder may only be used once, create a new one for each source");
+        this.used = true;
+    }
+
+    private void attachWayBuilder(OsmSource osmSource) {
+        osmSource.getWayObservable().filter(isNamedStreet).subscribe(new Action1<OsmWay>() {
 
-            final WayNdsToLineString wayNdsToLineString = new WayNdsToLineString(geometryFactory, osmPoints);
+            final WayNdsToLineString wayNdsToLineString = new WayNdsToLineString(geometryFactory, nodeLocations);
 
             @Override
             public void call(OsmWay way) {
@@ -132,12 +227,13 @@ public class RxOsmStreetCollectionBuilder {
                 // assemble geometry from the points referenced in nd child elements of way
                 LineString wayLineString = wayNdsToLineString.call(way.getNdRefs());
 
-                if (osmNamedStreets.containsKey(name)) {
-                    // if we already have the name of the street, then perform a union with existing geometry
-                    osmNamedStreets.put(name, wayLineString.union(osmNamedStreets.get(name)));
-                } else {
-                    osmNamedStreets.put(name, wayLineString);
+                // segments sharing a name are merged in one go once all have been collected
+                List<LineString> segments = osmNamedStreetSegments.get(name);
+                if (segments == null) {
+                    segments = new ArrayList<>();
+                    osmNamedStreetSegments.put(name, segments);
                 }
+                segments.add(wayLineString);
 
             }
 
@@ -145,16 +241,4 @@ public class RxOsmStreetCollectionBuilder {
 
     }
 
-    private void attachNodeMapBuilder(RxOsmParser parser) {
-
-        Observable<OsmNode> nodeObservable = parser.getNodeObservable();
-        nodeObservable.subscribe(new Action1<OsmNode>() {
-
-            @Override
-            public void call(OsmNode node) {
-                RxOsmStreetCollectionBuilder.this.osmPoints.put(node.getId(), node.getPoint());
-            }
-        });
-
-    }
 }
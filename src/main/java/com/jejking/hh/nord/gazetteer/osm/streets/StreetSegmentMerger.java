@@ -0,0 +1,149 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.streets;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Merges the way segments making up each named street into a single geometry. All segments 
+ * of a street are unioned in one operation rather than one segment at a time, as each pairwise
+ * union nodes the whole of the geometry accumulated so far, which is quadratic in the number 
+ * of segments of long streets. Streets are independent of each other, so they are merged on
+ * several threads.
+ * 
+ * @author jejking
+ *
+ */
+public final class StreetSegmentMerger {
+
+    /**
+     * Default number of threads to merge streets on, one per available processor.
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    
+    private final GeometryFactory geometryFactory;
+    private final int threads;
+    
+    /**
+     * Constructor, using {@link #DEFAULT_THREADS}.
+     * 
+     * @param geometryFactory
+     *            a geometry factory, may not be <code>null</code>
+     * @throws NullPointerException
+     *             if geometry factory is <code>null</code>
+     */
+    public StreetSegmentMerger(GeometryFactory geometryFactory) {
+        this(geometryFactory, DEFAULT_THREADS);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param geometryFactory
+     *            a geometry factory, may not be <code>null</code>
+     * @param threads
+     *            number of threads to merge streets on, must be at least 1
+     * @throws NullPointerException
+     *             if geometry factory is <code>null</code>
+     * @throws IllegalArgumentException
+     *             if threads is less than 1
+     */
+    public StreetSegmentMerger(GeometryFactory geometryFactory, int threads) {
+        checkArgument(threads >= 1, "threads must be at least 1");
+        this.geometryFactory = checkNotNull(geometryFactory);
+        this.threads = threads;
+    }
+    
+    /**
+     * Merges the segments of one street.
+     * 
+     * @param segments
+     *            segments of the street, may not be empty
+     * @return the single segment, if there is only one, or else the union of all segments
+     */
+    public Geometry merge(List<LineString> segments) {
+        checkArgument(!segments.isEmpty(), "a street needs at least one segment");
+        if (segments.size() == 1) {
+            return segments.get(0);
+        }
+        return this.geometryFactory.buildGeometry(segments).union();
+    }
+    
+    /**
+     * Merges the segments of every street.
+     * 
+     * @param segmentsByName
+     *            map of street name to the segments of that street, may not be <code>null</code>
+     * @return immutable map of street name to merged geometry, in the iteration order of the parameter
+     */
+    public ImmutableMap<String, Geometry> mergeAll(Map<String, ? extends List<LineString>> segmentsByName) {
+        ImmutableMap.Builder<String, Geometry> streets = ImmutableMap.builder();
+        if (this.threads == 1 || segmentsByName.size() < 2) {
+            for (Map.Entry<String, ? extends List<LineString>> entry : segmentsByName.entrySet()) {
+                streets.put(entry.getKey(), merge(entry.getValue()));
+            }
+            return streets.build();
+        }
+        
+        ExecutorService mergers = Executors.newFixedThreadPool(this.threads, 
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("street-merger-%d").build());
+        try {
+            Map<String, Future<Geometry>> mergedStreets = new LinkedHashMap<>();
+            for (Map.Entry<String, ? extends List<LineString>> entry : segmentsByName.entrySet()) {
+                final List<LineString> segments = entry.getValue();
+                mergedStreets.put(entry.getKey(), mergers.submit(new Callable<Geometry>() {
+
+                    @Override
+                    public Geometry call() {
+                        return merge(segments);
+                    }
+                    
+                }));
+            }
+            for (Map.Entry<String, Future<Geometry>> entry : mergedStreets.entrySet()) {
+                streets.put(entry.getKey(), entry.getValue().get());
+            }
+            return streets.build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            mergers.shutdownNow();
+        }
+    }
+    
+}
@@ -21,15 +21,18 @@ package com.jejking.hh.nord.gazetteer.osm.streets;
 import static com.jejking.hh.nord.AbstractNeoImporter.registerShutdownHook;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.jejking.hh.nord.gazetteer.osm.OsmGazetteerCollections;
+import com.jejking.hh.nord.gazetteer.osm.ParallelBZip2InputStream;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 
@@ -61,16 +64,27 @@ public class WriteStreets {
 
     public static void writeStreets(GeometryFactory geometryFactory, GraphDatabaseService graph) {
         RxOsmStreetCollectionBuilder builder = new RxOsmStreetCollectionBuilder(geometryFactory);
-        try {
-            Map<String, Geometry> streets = builder
-                                        .streetsFromStream(
-                                                new BZip2CompressorInputStream(
-                                                    WriteStreets.class.getResourceAsStream("/hamburg-nord-tm470.osm.bz2")));
-            OsmStreetCollectionToNeoImporter importer = new OsmStreetCollectionToNeoImporter();
-            importer.writeToNeo(streets, graph);
+        try (InputStream inputStream = new ParallelBZip2InputStream(
+                                            WriteStreets.class.getResourceAsStream(OsmGazetteerCollections.HAMBURG_NORD_EXTRACT))) {
+            Map<String, Geometry> streets = builder.streetsFromStream(inputStream);
+            writeStreets(streets, graph);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Writes streets that have already been collected, for example in a
+     * single pass with points of interest.
+     * 
+     * @param streets map of street name to geometry
+     * @param graph graph to write to
+     * @return immutable map of street name to id of the street node
+     * @see OsmGazetteerCollections
+     */
+    public static ImmutableMap<String, Long> writeStreets(Map<String, Geometry> streets, GraphDatabaseService graph) {
+        OsmStreetCollectionToNeoImporter importer = new OsmStreetCollectionToNeoImporter();
+        return importer.writeStreetsToNeo(streets, graph);
+    }
+
 }
@@ -0,0 +1,150 @@
+/*
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import rx.Observer;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+
+/**
+ * Observer that writes {@link RawDrucksacheWithLabelledMatches} instances to Neo4j using
+ * the {@link RawDrucksacheWithLabelledMatchesNeoImporter}, committing a transaction only
+ * once per batch of documents rather than once per document. Any partial batch is
+ * committed when the observed sequence completes.
+ *
+ * <p>Neo4j transactions are bound to the thread that opened them, so all notifications
+ * must arrive on the same thread.</p>
+ *
+ * @author jejking
+ *
+ */
+public final class BatchingRawDrucksacheNeoWriter implements Observer<RawDrucksacheWithLabelledMatches> {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final GraphDatabaseService graph;
+    private final int batchSize;
+    private final RawDrucksacheWithLabelledMatchesNeoImporter importer;
+    private final Stopwatch totalStopwatch = Stopwatch.createUnstarted();
+
+    private Transaction transaction;
+    private int countInBatch = 0;
+    private int batchCount = 0;
+    private int totalCount = 0;
+    private long totalCommitMillis = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param graph graph to write to, may not be <code>null</code>
+     * @param batchSize number of documents to write per transaction, must be at least 1
+     * @throws NullPointerException if graph is <code>null</code>
+     * @throws IllegalArgumentException if batch size is less than 1
+     */
+    public BatchingRawDrucksacheNeoWriter(GraphDatabaseService graph, int batchSize) {
+        this(graph, batchSize, Optional.<GazetteerNodeLookup>absent());
+    }
+    
+    /**
+     * Constructor.
+     *
+     * @param graph graph to write to, may not be <code>null</code>
+     * @param batchSize number of documents to write per transaction, must be at least 1
+     * @param nodeLookup optional table to resolve matches to gazetteer nodes with, may not be <code>null</code>
+     * @throws NullPointerException if graph or lookup is <code>null</code>
+     * @throws IllegalArgumentException if batch size is less than 1
+     * @see RawDrucksacheWithLabelledMatchesNeoImporter
+     */
+    public BatchingRawDrucksacheNeoWriter(GraphDatabaseService graph, int batchSize, Optional<GazetteerNodeLookup> nodeLookup) {
+        checkArgument(batchSize >= 1, "batch size must be at least 1");
+        this.graph = checkNotNull(graph);
+        this.batchSize = batchSize;
+        this.importer = new RawDrucksacheWithLabelledMatchesNeoImporter(graph, nodeLookup);
+    }
+
+    @Override
+    public void onNext(RawDrucksacheWithLabelledMatches rawDrucksacheWithLabelledMatches) {
+        if (this.transaction == null) {
+            if (!this.totalStopwatch.isRunning()) {
+                this.totalStopwatch.start();
+            }
+            this.transaction = this.graph.beginTx();
+        }
+
+        this.importer.writeWithinTransaction(rawDrucksacheWithLabelledMatches, this.graph);
+        this.countInBatch++;
+
+        if (this.countInBatch == this.batchSize) {
+            commitBatch();
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        if (this.transaction != null) {
+            commitBatch();
+        }
+        System.out.println("Wrote " + this.totalCount + " Drucksachen in " + this.batchCount + " batches. "
+                + "Time spent committing: " + this.totalCommitMillis + " ms of "
+                + this.totalStopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        if (this.transaction != null) {
+            System.err.println("Rolling back batch of " + this.countInBatch + " Drucksachen");
+            this.transaction.failure();
+            this.transaction.close();
+            this.transaction = null;
+            this.countInBatch = 0;
+        }
+        throw new RuntimeException(e);
+    }
+
+    private void commitBatch() {
+        int countInCommittedBatch = this.countInBatch;
+        Stopwatch commitStopwatch = Stopwatch.createStarted();
+        try {
+            this.transaction.success();
+            this.transaction.close();
+        } finally {
+            // a transaction that failed to commit is dead, the next document opens a fresh one
+            this.transaction = null;
+            this.countInBatch = 0;
+        }
+        long commitMillis = commitStopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+        this.batchCount++;
+        this.totalCount += countInCommittedBatch;
+        this.totalCommitMillis += commitMillis;
+
+        System.out.println("Committed batch " + this.batchCount + " of " + countInCommittedBatch
+                + " Drucksachen in " + commitMillis + " ms, " + this.totalCount + " written so far");
+    }
+
+}
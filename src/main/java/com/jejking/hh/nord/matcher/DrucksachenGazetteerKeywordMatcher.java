@@ -81,7 +81,7 @@ public class DrucksachenGazetteerKeywordMatcher implements Func1<RawDrucksache,
     }
 
 
-    String extractTitle(RawDrucksache rawDrucksache) {
+    static String extractTitle(RawDrucksache rawDrucksache) {
         if (rawDrucksache.getExtractedProperties().containsKey(DrucksachenPropertyKeys.BETREFF)) {
             return rawDrucksache.getExtractedProperties().get(DrucksachenPropertyKeys.BETREFF);
         } else {
@@ -90,7 +90,7 @@ public class DrucksachenGazetteerKeywordMatcher implements Func1<RawDrucksache,
     }
 
 
-    String concatenateContent(RawDrucksache rawDrucksache) {
+    static String concatenateContent(RawDrucksache rawDrucksache) {
         StringBuilder stringBuilder = new StringBuilder();
         for (String content : rawDrucksache.getExtractedContent()) {
             stringBuilder.append(content);
@@ -19,23 +19,25 @@
 package com.jejking.hh.nord.matcher;
 
 
-import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
 
 import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Transaction;
 
-import rx.Observable;
 import rx.functions.Action1;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
-import com.jejking.hh.nord.IteratorUtils;
+import com.google.common.collect.ListMultimap;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
 
 /**
  * Class to create appropriately labelled {@link DrucksachenGazetteerKeywordMatcher}
- * populated from the Neo4j gazetteer.
+ * populated from the Neo4j gazetteer, along with a {@link GazetteerNodeLookup} 
+ * mapping every keyword back to the gazetteer nodes it stands for.
  * 
  * @author jejking
  */
@@ -49,40 +51,74 @@ public class DrucksachenGazetteerKeywordMatcherFactory {
      * @return
      */
     public ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> createKeywordMatchersFromGazetteer(GraphDatabaseService graph, Iterable<String> labels) {
+        return createKeywordMatchers(createNodeLookupFromGazetteer(graph, labels));
+    }
+    
+    /**
+     * Creates matchers for all labels held in a lookup previously built 
+     * with {@link #createNodeLookupFromGazetteer(GraphDatabaseService, Iterable)}.
+     * 
+     * @param nodeLookup
+     * @return map of label to matcher
+     */
+    public ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> createKeywordMatchers(GazetteerNodeLookup nodeLookup) {
+        final ImmutableMap.Builder<String, DrucksachenGazetteerKeywordMatcher> mapBuilder = ImmutableMap.builder();
+        for (String label : nodeLookup.getLabels()) {
+            mapBuilder.put(label, new DrucksachenGazetteerKeywordMatcher(nodeLookup.getKeywords(label), label));
+        }
+        return mapBuilder.build();
+    }
+    
+    /**
+     * Reads all named nodes of the given labels from the gazetteer and builds a table
+     * from each name, and each of its morphological variants, to the ids of the nodes 
+     * bearing that name.
+     * 
+     * @param graph
+     * @param labels
+     * @return lookup table
+     */
+    public GazetteerNodeLookup createNodeLookupFromGazetteer(GraphDatabaseService graph, Iterable<String> labels) {
         
-        final ImmutableMap.Builder<String, DrucksachenGazetteerKeywordMatcher> mapBuilder = ImmutableMap.builder(); 
+        ImmutableMap.Builder<String, ImmutableListMultimap<String, Long>> mapBuilder = ImmutableMap.builder(); 
         
         try(Transaction tx = graph.beginTx()) {
             ExecutionEngine executionEngine = new ExecutionEngine(graph);
             
-            
             for (final String label : labels) {
-                buildMatcherForLabel(mapBuilder, executionEngine, label);
+                mapBuilder.put(label, buildNodeIdsForLabel(executionEngine, label));
             }
         }
-        return mapBuilder.build();
+        return new GazetteerNodeLookup(mapBuilder.build());
     }
 
 
-    private void buildMatcherForLabel(
-            final ImmutableMap.Builder<String, DrucksachenGazetteerKeywordMatcher> mapBuilder,
-            ExecutionEngine executionEngine, final String label) {
-        String query = "match (n:" + label + ") where n.NAME IS NOT NULL return distinct n.NAME";
-        // this line needed so compiler can figure out the type of the iterator...
-        Iterator<String> nameIterator = executionEngine.execute(query).columnAs("n.NAME");
+    private ImmutableListMultimap<String, Long> buildNodeIdsForLabel(ExecutionEngine executionEngine, final String label) {
+        String query = "match (n:" + label + ") where n.NAME IS NOT NULL return n.NAME as name, id(n) as id";
         
-        Observable.from(IteratorUtils.toIterable(nameIterator))
-            .flatMap(new MorphologicalExpander(label))
-            .toList()
-            .subscribe(new Action1<List<String>>() {
+        final ListMultimap<String, Long> exactNames = ArrayListMultimap.create();
+        ExecutionResult result = executionEngine.execute(query);
+        for (Map<String, Object> row : result) {
+            exactNames.put((String) row.get("name"), (Long) row.get("id"));
+        }
+        
+        final ImmutableListMultimap.Builder<String, Long> nodeIdsBuilder = ImmutableListMultimap.builder();
+        nodeIdsBuilder.putAll(exactNames);
+        
+        MorphologicalExpander morphologicalExpander = new MorphologicalExpander(label);
+        for (final String name : exactNames.keySet()) {
+            morphologicalExpander.call(name).subscribe(new Action1<String>() {
 
                 @Override
-                public void call(List<String> morphologicallyExpandedList) {
-                    DrucksachenGazetteerKeywordMatcher matcher = new DrucksachenGazetteerKeywordMatcher(
-                            morphologicallyExpandedList, label);
-                    mapBuilder.put(label, matcher);
+                public void call(String variant) {
+                    // an exact name always takes precedence over a variant of another name
+                    if (!exactNames.containsKey(variant)) {
+                        nodeIdsBuilder.putAll(variant, exactNames.get(name));
+                    }
                 }
             });
+        }
+        return nodeIdsBuilder.build();
     }
 
 }
@@ -0,0 +1,91 @@
+/*
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable table that resolves, for each gazetteer label, every keyword that can be
+ * matched (including morphological variants) to the ids of the gazetteer nodes it refers to.
+ *
+ * <p>Built by the {@link DrucksachenGazetteerKeywordMatcherFactory} at the same time as the
+ * keyword matchers so that linking matches back to the gazetteer is an in-memory lookup.</p>
+ *
+ * @author jejking
+ *
+ */
+public final class GazetteerNodeLookup {
+
+    private final ImmutableMap<String, ImmutableListMultimap<String, Long>> nodeIdsByLabel;
+
+    /**
+     * Constructor.
+     * @param nodeIdsByLabel map of label to multimap of keyword to node ids, may not be <code>null</code>
+     * @throws NullPointerException if parameter is <code>null</code>
+     */
+    public GazetteerNodeLookup(ImmutableMap<String, ImmutableListMultimap<String, Long>> nodeIdsByLabel) {
+        this.nodeIdsByLabel = checkNotNull(nodeIdsByLabel);
+    }
+
+    /**
+     * @param label gazetteer label
+     * @return <code>true</code> if the lookup was built for the label
+     */
+    public boolean hasLabel(String label) {
+        return this.nodeIdsByLabel.containsKey(label);
+    }
+
+    /**
+     * @return all labels the lookup was built for
+     */
+    public ImmutableSet<String> getLabels() {
+        return this.nodeIdsByLabel.keySet();
+    }
+
+    /**
+     * @param label gazetteer label
+     * @return all keywords for the label, empty if label not known
+     */
+    public ImmutableSet<String> getKeywords(String label) {
+        if (hasLabel(label)) {
+            return this.nodeIdsByLabel.get(label).keySet();
+        } else {
+            return ImmutableSet.of();
+        }
+    }
+
+    /**
+     * @param label gazetteer label
+     * @param keyword keyword as matched in a text
+     * @return ids of gazetteer nodes with that label the keyword refers to, empty if none
+     */
+    public ImmutableList<Long> getNodeIds(String label, String keyword) {
+        if (hasLabel(label)) {
+            return this.nodeIdsByLabel.get(label).get(keyword);
+        } else {
+            return ImmutableList.of();
+        }
+    }
+
+}
@@ -18,42 +18,73 @@
  */
 package com.jejking.hh.nord.matcher;
 
+import static com.jejking.hh.nord.corpus.DrucksacheNames.CONTENT_HASH;
 import static com.jejking.hh.nord.corpus.DrucksacheNames.DRUCKSACHE;
 import static com.jejking.hh.nord.corpus.DrucksacheNames.DRUCKSACHE_ID;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.tooling.GlobalGraphOperations;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.jejking.hh.nord.AbstractNeoImporter;
 import com.jejking.hh.nord.corpus.DrucksacheDateEnhancer;
 import com.jejking.hh.nord.corpus.RawDrucksache;
+import com.jejking.hh.nord.corpus.RawDrucksacheFiles;
 
 import rx.Observable;
 import rx.functions.Func1;
 
 
 /**
- * Class to import a directory full of serialised {@link RawDrucksache} instances into 
- * Neo4j, creating references as we go to the gazetteer entries which could be matched
+ * Class to import a directory full of {@link RawDrucksache} instances, as segments or
+ * individually serialised files (see {@link RawDrucksacheFiles}), into Neo4j, creating references as we go to the gazetteer entries which could be matched
  * to the text using the {@link GazetteerKeywordMatcher} instances populated from the 
  * Gazetteer.
  * 
+ * <p>{@link #updateMatchesInNeo(Iterable, GraphDatabaseService)} imports incrementally: only <i>Drucksachen</i>
+ * not yet in the graph, whose content has changed since they were written, or containing keywords added to
+ * or removed from the gazetteer since the last import, are matched and written again.</p>
+ * 
+ * <p>By default the whole pipeline runs on the calling thread. If a parallelism greater than one is
+ * configured, date enhancement and labelling are spread across a pool of worker threads while the
+ * documents are read and the results are written to Neo4j, in the original order, by the calling thread alone.</p>
+ * 
+ * <p>Documents are written in batches, one transaction per batch, using a 
+ * {@link BatchingRawDrucksacheNeoWriter}.</p>
+ * 
  * @author jejking
  *
  */
 public class ImportAndMatch extends AbstractNeoImporter<Iterable<File>> {
 
-    private final RawDrucksachenLabeller rawDrucksachenLabeller;
+    private final Func1<RawDrucksache, RawDrucksacheWithLabelledMatches> rawDrucksachenLabeller;
+    private final DrucksacheDateEnhancer drucksacheDateEnhancer = new DrucksacheDateEnhancer();
+    private final int parallelism;
+    private final int batchSize;
+    private final Optional<GazetteerNodeLookup> nodeLookup;
+    private final ImmutableMap<String, ImmutableSet<String>> keywordsByLabel;
     
     /**
      * Constructor. Needs to be supplied with a suitably initialised map of {@link DrucksachenGazetteerKeywordMatcher}
@@ -64,21 +95,73 @@ public class ImportAndMatch extends AbstractNeoImporter<Iterable<File>> {
      * @throws NullPointerException if param is <code>null</code>
      */
     public ImportAndMatch(ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchersMap) {
-        this.rawDrucksachenLabeller = new RawDrucksachenLabeller(matchersMap);
+        this(matchersMap, Optional.<GazetteerNodeLookup>absent(), 1, BatchingRawDrucksacheNeoWriter.DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Constructor allowing the labelling stage to run in parallel.
+     * 
+     * @param matchersMap may not be <code>null</code>
+     * @param nodeLookup optional table resolving keywords to gazetteer node ids, as created alongside the
+     *  matchers by the {@link DrucksachenGazetteerKeywordMatcherFactory}. May not be <code>null</code>.
+     * @param parallelism number of worker threads to read and label documents with, must be at least 1.
+     * @param batchSize number of documents to write to Neo4j per transaction, must be at least 1.
+     * @throws NullPointerException if map or lookup is <code>null</code>
+     * @throws IllegalArgumentException if parallelism or batch size is less than 1
+     */
+    public ImportAndMatch(ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchersMap, 
+            Optional<GazetteerNodeLookup> nodeLookup, int parallelism, int batchSize) {
+        this(matchersMap, new RawDrucksachenLabeller(matchersMap), nodeLookup, parallelism, batchSize);
+    }
+    
+    /**
+     * Constructor taking the function to label the documents with, rather than a {@link RawDrucksachenLabeller}
+     * using the matchers.
+     * 
+     * @param matchersMap matchers whose keywords are compared with those of the previous import, may not be <code>null</code>
+     * @param rawDrucksachenLabeller function to label the documents with, may not be <code>null</code>
+     * @param nodeLookup as for {@link #ImportAndMatch(ImmutableMap, Optional, int, int)}
+     * @param parallelism as for {@link #ImportAndMatch(ImmutableMap, Optional, int, int)}
+     * @param batchSize as for {@link #ImportAndMatch(ImmutableMap, Optional, int, int)}
+     */
+    ImportAndMatch(ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchersMap, 
+            Func1<RawDrucksache, RawDrucksacheWithLabelledMatches> rawDrucksachenLabeller,
+            Optional<GazetteerNodeLookup> nodeLookup, int parallelism, int batchSize) {
+        checkArgument(parallelism >= 1, "parallelism must be at least 1");
+        checkArgument(batchSize >= 1, "batch size must be at least 1");
+        this.rawDrucksachenLabeller = checkNotNull(rawDrucksachenLabeller);
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.nodeLookup = checkNotNull(nodeLookup);
+        
+        ImmutableMap.Builder<String, ImmutableSet<String>> keywordsByLabelBuilder = ImmutableMap.builder();
+        for (Map.Entry<String, DrucksachenGazetteerKeywordMatcher> entry : matchersMap.entrySet()) {
+            keywordsByLabelBuilder.put(entry.getKey(), entry.getValue().getGazetteerKeywordMatcher().getKeywordSet());
+        }
+        this.keywordsByLabel = keywordsByLabelBuilder.build();
     }
     
     /**
-     * Creates indices.
+     * Creates indices, unless they exist already.
      * 
      * @param graph
      */
     public void createDrucksachenIndexes(GraphDatabaseService graph) {
         try (Transaction tx = graph.beginTx()) {
             Schema schema = graph.schema();
-            schema
-                .indexFor(DynamicLabel.label(DRUCKSACHE))
-                .on(DRUCKSACHE_ID)
-                .create();
+            Label drucksacheLabel = DynamicLabel.label(DRUCKSACHE);
+            boolean indexExists = false;
+            for (IndexDefinition indexDefinition : schema.getIndexes(drucksacheLabel)) {
+                for (String propertyKey : indexDefinition.getPropertyKeys()) {
+                    indexExists |= propertyKey.equals(DRUCKSACHE_ID);
+                }
+            }
+            if (!indexExists) {
+                schema
+                    .indexFor(drucksacheLabel)
+                    .on(DRUCKSACHE_ID)
+                    .create();
+            }
             tx.success();
         }
     }
@@ -86,22 +169,162 @@ public class ImportAndMatch extends AbstractNeoImporter<Iterable<File>> {
     
     @Override
     public void writeToNeo(Iterable<File> files, final GraphDatabaseService graph) {
-        Observable.from(files)
-        .map(new Func1<File, RawDrucksache>() {
+        writeSelectedToNeo(files, new Func1<RawDrucksache, Boolean>() {
 
             @Override
-            public RawDrucksache call(File t1) {
-                try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(t1)))) {
-                    return (RawDrucksache) ois.readObject();
-                } catch (IOException | ClassNotFoundException e) {
-                    throw new RuntimeException(e);
+            public Boolean call(RawDrucksache rawDrucksache) {
+                return true;
+            }
+            
+        }, graph);
+        MatchedKeywordsSnapshot.save(graph, this.keywordsByLabel);
+    }
+    
+    /**
+     * Imports incrementally. Compares the keywords of the matchers with those saved by the previous import in a 
+     * {@link MatchedKeywordsSnapshot} and only matches and writes those <i>Drucksachen</i> which are not yet
+     * in the graph, whose {@link RawDrucksache#contentHash()} differs from the one stored when they were
+     * last written, or which contain a keyword that has been added or removed since. If there is no
+     * snapshot, all are written as by {@link #writeToNeo(Iterable, GraphDatabaseService)}.
+     * 
+     * @param files files as for {@link #writeToNeo(Iterable, GraphDatabaseService)}
+     * @param graph graph to update
+     */
+    public void updateMatchesInNeo(Iterable<File> files, final GraphDatabaseService graph) {
+        Optional<ImmutableMap<String, ImmutableSet<String>>> previousKeywords = MatchedKeywordsSnapshot.load(graph);
+        if (!previousKeywords.isPresent()) {
+            System.out.println("No keyword snapshot found, matching all Drucksachen");
+            writeToNeo(files, graph);
+            return;
+        }
+        
+        ImmutableMap<String, ImmutableSet<String>> changedKeywords = MatchedKeywordsSnapshot.changedKeywords(
+                                                                        previousKeywords.get(), this.keywordsByLabel);
+        for (Map.Entry<String, ImmutableSet<String>> entry : changedKeywords.entrySet()) {
+            System.out.println(entry.getValue().size() + " keywords of type " + entry.getKey() + " changed");
+        }
+        
+        final KeywordChangeDetector keywordChangeDetector = new KeywordChangeDetector(changedKeywords);
+        final Map<String, Optional<String>> existingContentHashes = loadContentHashes(graph);
+        final AtomicInteger selectedCount = new AtomicInteger();
+        final AtomicInteger skippedCount = new AtomicInteger();
+        
+        writeSelectedToNeo(files, new Func1<RawDrucksache, Boolean>() {
+
+            @Override
+            public Boolean call(RawDrucksache rawDrucksache) {
+                Optional<String> existingContentHash = existingContentHashes.get(rawDrucksache.getDrucksachenId());
+                boolean selected = existingContentHash == null 
+                                    || contentChanged(existingContentHash, rawDrucksache)
+                                    || keywordChangeDetector.call(rawDrucksache);
+                if (selected) {
+                    selectedCount.incrementAndGet();
+                } else {
+                    skippedCount.incrementAndGet();
                 }
+                return selected;
             }
             
-        })
-        .map(new DrucksacheDateEnhancer())
+        }, graph);
+        MatchedKeywordsSnapshot.save(graph, this.keywordsByLabel);
+        System.out.println("Matched " + selectedCount.get() + " new, changed or affected Drucksachen, skipped " + skippedCount.get());
+    }
+    
+    /*
+     * The hash is stored as written, that is after date enhancement. Nodes written before hashes were
+     * stored have none and so count as changed.
+     */
+    private boolean contentChanged(Optional<String> existingContentHash, RawDrucksache rawDrucksache) {
+        return !existingContentHash.isPresent() 
+                || !existingContentHash.get().equals(this.drucksacheDateEnhancer.call(rawDrucksache).contentHash());
+    }
+    
+    /*
+     * Drucksachen id to content hash of all Drucksachen in the graph.
+     */
+    private Map<String, Optional<String>> loadContentHashes(GraphDatabaseService graph) {
+        Map<String, Optional<String>> contentHashes = new HashMap<>();
+        try (Transaction tx = graph.beginTx()) {
+            for (Node node : GlobalGraphOperations.at(graph).getAllNodesWithLabel(DynamicLabel.label(DRUCKSACHE))) {
+                contentHashes.put((String) node.getProperty(DRUCKSACHE_ID), 
+                                  Optional.fromNullable((String) node.getProperty(CONTENT_HASH, null)));
+            }
+            tx.success();
+        }
+        return contentHashes;
+    }
+    
+    private void writeSelectedToNeo(Iterable<File> files, Func1<RawDrucksache, Boolean> selection, GraphDatabaseService graph) {
+        if (this.parallelism == 1) {
+            writeToNeoSequentially(files, selection, graph);
+        } else {
+            writeToNeoInParallel(files, selection, graph);
+        }
+    }
+
+    private void writeToNeoSequentially(Iterable<File> files, Func1<RawDrucksache, Boolean> selection, final GraphDatabaseService graph) {
+        Observable.from(RawDrucksacheFiles.readAll(files))
+        .filter(selection)
+        .map(drucksacheDateEnhancer)
         .map(rawDrucksachenLabeller)
-        .subscribe(new RawDrucksacheWithLabelledMatchesNeoImporter(graph));
-     }
+        .subscribe(new BatchingRawDrucksacheNeoWriter(graph, this.batchSize, this.nodeLookup));
+    }
+    
+    /*
+     * At most a fixed window of documents is in flight at any time so that fast workers cannot
+     * run arbitrarily far ahead of the single writer. Futures are taken from the head of the
+     * window, so documents are written in the order supplied. Documents not selected leave
+     * an empty result in the window.
+     */
+    private void writeToNeoInParallel(Iterable<File> files, final Func1<RawDrucksache, Boolean> selection, final GraphDatabaseService graph) {
+        final int maxInFlight = this.parallelism * 4;
+        BatchingRawDrucksacheNeoWriter writer = new BatchingRawDrucksacheNeoWriter(graph, this.batchSize, this.nodeLookup);
+        
+        ExecutorService workers = Executors.newFixedThreadPool(this.parallelism);
+        Deque<Future<Optional<RawDrucksacheWithLabelledMatches>>> inFlight = new ArrayDeque<>(maxInFlight);
+        try {
+            for (final RawDrucksache rawDrucksache : RawDrucksacheFiles.readAll(files)) {
+                if (inFlight.size() == maxInFlight) {
+                    writeIfSelected(writer, awaitResult(inFlight.removeFirst()));
+                }
+                inFlight.addLast(workers.submit(new Callable<Optional<RawDrucksacheWithLabelledMatches>>() {
+
+                    @Override
+                    public Optional<RawDrucksacheWithLabelledMatches> call() throws Exception {
+                        if (!selection.call(rawDrucksache)) {
+                            return Optional.absent();
+                        }
+                        return Optional.of(rawDrucksachenLabeller.call(drucksacheDateEnhancer.call(rawDrucksache)));
+                    }
+                    
+                }));
+            }
+            while (!inFlight.isEmpty()) {
+                writeIfSelected(writer, awaitResult(inFlight.removeFirst()));
+            }
+            writer.onCompleted();
+        } catch (RuntimeException e) {
+            writer.onError(e);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void writeIfSelected(BatchingRawDrucksacheNeoWriter writer, Optional<RawDrucksacheWithLabelledMatches> result) {
+        if (result.isPresent()) {
+            writer.onNext(result.get());
+        }
+    }
+
+    private Optional<RawDrucksacheWithLabelledMatches> awaitResult(Future<Optional<RawDrucksacheWithLabelledMatches>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
 
 }
@@ -0,0 +1,75 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import rx.functions.Func1;
+
+import com.google.common.collect.ImmutableMap;
+import com.jejking.hh.nord.corpus.RawDrucksache;
+
+/**
+ * Predicate which is <code>true</code> for a {@link RawDrucksache} whose header or body contains
+ * at least one of a set of changed keywords, meaning its matches against the gazetteer may have changed.
+ * 
+ * <p>The text is prepared exactly as by the {@link RawDrucksachenLabeller} but only scanned for the
+ * changed keywords, typically very few, rather than the whole gazetteer.</p>
+ * 
+ * @see MatchedKeywordsSnapshot#changedKeywords(Map, Map)
+ * @author jejking
+ *
+ */
+public final class KeywordChangeDetector implements Func1<RawDrucksache, Boolean> {
+
+    private final MultiLabelGazetteerKeywordMatcher changedKeywordsMatcher;
+    private final boolean anyChanges;
+    
+    /**
+     * Constructor.
+     * @param changedKeywordsByLabel map of label to keywords added or removed, may not be <code>null</code>
+     */
+    public KeywordChangeDetector(Map<String, ? extends Iterable<String>> changedKeywordsByLabel) {
+        this.changedKeywordsMatcher = new MultiLabelGazetteerKeywordMatcher(checkNotNull(changedKeywordsByLabel));
+        this.anyChanges = !this.changedKeywordsMatcher.getKeywordToLabels().isEmpty();
+    }
+    
+    @Override
+    public Boolean call(RawDrucksache rawDrucksache) {
+        if (!this.anyChanges) {
+            return false;
+        }
+        return containsMatch(this.changedKeywordsMatcher.call(DrucksachenGazetteerKeywordMatcher.extractTitle(rawDrucksache)))
+                || containsMatch(this.changedKeywordsMatcher.call(
+                        DrucksachenGazetteerKeywordMatcher.filterAuthorityNames(
+                                DrucksachenGazetteerKeywordMatcher.concatenateContent(rawDrucksache))));
+    }
+    
+    private boolean containsMatch(ImmutableMap<String, ImmutableMap<String, Integer>> matches) {
+        for (ImmutableMap<String, Integer> labelMatches : matches.values()) {
+            if (!labelMatches.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,136 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static com.jejking.hh.nord.corpus.DrucksacheNames.KEYWORD_SNAPSHOT;
+
+import java.util.Map;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Keeps the keyword sets, per gazetteer label, that the <i>Drucksachen</i> in the graph were last matched 
+ * against. They are held as string array properties of a single node with the label
+ * {@link com.jejking.hh.nord.corpus.DrucksacheNames#KEYWORD_SNAPSHOT}, one property per gazetteer label.
+ * 
+ * <p>Comparing the snapshot with the keyword sets of the current gazetteer yields the keywords
+ * for which matches may have changed.</p>
+ * 
+ * @see ImportAndMatch#updateMatchesInNeo(Iterable, GraphDatabaseService)
+ * @author jejking
+ *
+ */
+public final class MatchedKeywordsSnapshot {
+
+    private static final Label SNAPSHOT_LABEL = DynamicLabel.label(KEYWORD_SNAPSHOT);
+    
+    private MatchedKeywordsSnapshot() {
+        // no instances
+    }
+    
+    /**
+     * Loads the snapshot.
+     * 
+     * @param graph graph to load from
+     * @return map of label to keywords, absent if no snapshot has been saved yet
+     */
+    public static Optional<ImmutableMap<String, ImmutableSet<String>>> load(GraphDatabaseService graph) {
+        try (Transaction tx = graph.beginTx()) {
+            Optional<Node> snapshotNode = findSnapshotNode(graph);
+            if (!snapshotNode.isPresent()) {
+                tx.success();
+                return Optional.absent();
+            }
+            
+            ImmutableMap.Builder<String, ImmutableSet<String>> keywordsByLabel = ImmutableMap.builder();
+            for (String label : snapshotNode.get().getPropertyKeys()) {
+                keywordsByLabel.put(label, ImmutableSet.copyOf((String[]) snapshotNode.get().getProperty(label)));
+            }
+            tx.success();
+            return Optional.of(keywordsByLabel.build());
+        }
+    }
+    
+    /**
+     * Saves the snapshot, replacing any saved previously.
+     * 
+     * @param graph graph to save to
+     * @param keywordsByLabel map of label to keywords
+     */
+    public static void save(GraphDatabaseService graph, Map<String, ? extends Iterable<String>> keywordsByLabel) {
+        try (Transaction tx = graph.beginTx()) {
+            Optional<Node> existingNode = findSnapshotNode(graph);
+            Node snapshotNode = existingNode.isPresent() ? existingNode.get() : graph.createNode(SNAPSHOT_LABEL);
+            
+            for (String label : snapshotNode.getPropertyKeys()) {
+                snapshotNode.removeProperty(label);
+            }
+            for (Map.Entry<String, ? extends Iterable<String>> entry : keywordsByLabel.entrySet()) {
+                snapshotNode.setProperty(entry.getKey(), ImmutableSet.copyOf(entry.getValue()).toArray(new String[0]));
+            }
+            tx.success();
+        }
+    }
+    
+    /**
+     * Determines which keywords have been added or removed, per label. A label
+     * present in only one of the maps has all its keywords changed.
+     * 
+     * @param previous keywords as previously matched against
+     * @param current keywords to be matched against now
+     * @return map of label to the keywords added or removed, only containing labels with changes
+     */
+    public static ImmutableMap<String, ImmutableSet<String>> changedKeywords(Map<String, ? extends Iterable<String>> previous, 
+            Map<String, ? extends Iterable<String>> current) {
+        
+        ImmutableMap.Builder<String, ImmutableSet<String>> changed = ImmutableMap.builder();
+        for (String label : Sets.union(previous.keySet(), current.keySet())) {
+            ImmutableSet<String> previousKeywords = previous.containsKey(label) 
+                                                        ? ImmutableSet.copyOf(previous.get(label))
+                                                        : ImmutableSet.<String>of();
+            ImmutableSet<String> currentKeywords = current.containsKey(label) 
+                                                        ? ImmutableSet.copyOf(current.get(label))
+                                                        : ImmutableSet.<String>of();
+            
+            ImmutableSet<String> changedForLabel = Sets.symmetricDifference(previousKeywords, currentKeywords).immutableCopy();
+            if (!changedForLabel.isEmpty()) {
+                changed.put(label, changedForLabel);
+            }
+        }
+        return changed.build();
+    }
+    
+    private static Optional<Node> findSnapshotNode(GraphDatabaseService graph) {
+        try (ResourceIterator<Node> iterator = GlobalGraphOperations.at(graph).getAllNodesWithLabel(SNAPSHOT_LABEL).iterator()) {
+            return iterator.hasNext() ? Optional.of(iterator.next()) : Optional.<Node>absent();
+        }
+    }
+    
+}
@@ -0,0 +1,172 @@
+/*
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ahocorasick.interval.IntervalTree;
+import org.ahocorasick.interval.Intervalable;
+import org.ahocorasick.trie.Emit;
+import org.ahocorasick.trie.Trie;
+
+import rx.functions.Func1;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+/**
+ * Function that matches a text against the keywords of several gazetteer entry types
+ * at once. All keywords are held in a single Aho-Corasick {@link Trie}, each tagged with
+ * the label (or labels) it was supplied under, so the text is scanned only once
+ * regardless of how many labels are in play.
+ *
+ * <p>The result is equivalent to running one {@link GazetteerKeywordMatcher} per label:
+ * overlapping matches are resolved within each label, so a long keyword of one type does
+ * not suppress a shorter, overlapping keyword of another type.</p>
+ *
+ * @author jejking
+ *
+ */
+public final class MultiLabelGazetteerKeywordMatcher implements Func1<String, ImmutableMap<String, ImmutableMap<String, Integer>>> {
+
+    private final ImmutableSetMultimap<String, String> keywordToLabels;
+    private final ImmutableSet<String> labels;
+    private final Trie ahoCorasickTrie;
+
+    /**
+     * Constructor.
+     *
+     * @param keywordsByLabel non-null map of label to the keywords of that type of gazetteer entry.
+     * @throws NullPointerException if parameter is <code>null</code>
+     */
+    public MultiLabelGazetteerKeywordMatcher(Map<String, ? extends Iterable<String>> keywordsByLabel) {
+
+        ImmutableSetMultimap.Builder<String, String> keywordToLabelsBuilder = ImmutableSetMultimap.builder();
+        for (Map.Entry<String, ? extends Iterable<String>> entry : checkNotNull(keywordsByLabel).entrySet()) {
+            for (String keyword : entry.getValue()) {
+                keywordToLabelsBuilder.put(keyword, entry.getKey());
+            }
+        }
+        this.keywordToLabels = keywordToLabelsBuilder.build();
+        this.labels = ImmutableSet.copyOf(keywordsByLabel.keySet());
+
+        // overlaps are removed per label in call(), not across the whole trie
+        this.ahoCorasickTrie = new Trie().onlyWholeWords();
+        for (String keyword : this.keywordToLabels.keySet()) {
+            this.ahoCorasickTrie.addKeyword(keyword);
+        }
+
+        // the trie computes its failure states lazily on first use, do it now
+        // so that the matcher can be safely shared between threads afterwards
+        this.ahoCorasickTrie.parseText("");
+    }
+
+    /**
+     * Convenience factory to assemble a combined matcher from the keyword sets
+     * of existing per-label matchers.
+     *
+     * @param matchersMap map of label to matcher, may not be <code>null</code>
+     * @return combined matcher
+     */
+    public static MultiLabelGazetteerKeywordMatcher fromMatchers(Map<String, DrucksachenGazetteerKeywordMatcher> matchersMap) {
+        ImmutableMap.Builder<String, ImmutableSet<String>> keywordsByLabel = ImmutableMap.builder();
+        for (Map.Entry<String, DrucksachenGazetteerKeywordMatcher> entry : checkNotNull(matchersMap).entrySet()) {
+            keywordsByLabel.put(entry.getKey(), entry.getValue().getGazetteerKeywordMatcher().getKeywordSet());
+        }
+        return new MultiLabelGazetteerKeywordMatcher(keywordsByLabel.build());
+    }
+
+    /**
+     * Finds all keywords in the text.
+     *
+     * @param textToMatchAgainst text to scan
+     * @return map of label to map of keyword and occurrence count. Every label supplied
+     *   at construction is present, with an empty map if nothing of that type was found.
+     */
+    @Override
+    public ImmutableMap<String, ImmutableMap<String, Integer>> call(String textToMatchAgainst) {
+
+        Collection<Emit> emittedMatches = this.ahoCorasickTrie.parseText(textToMatchAgainst);
+
+        // distribute the emits to the labels their keywords belong to
+        Map<String, List<Emit>> emitsByLabel = new HashMap<>();
+        for (Emit emittedMatch : emittedMatches) {
+            for (String label : this.keywordToLabels.get(emittedMatch.getKeyword())) {
+                List<Emit> labelEmits = emitsByLabel.get(label);
+                if (labelEmits == null) {
+                    labelEmits = new ArrayList<>();
+                    emitsByLabel.put(label, labelEmits);
+                }
+                labelEmits.add(emittedMatch);
+            }
+        }
+
+        ImmutableMap.Builder<String, ImmutableMap<String, Integer>> resultBuilder = ImmutableMap.builder();
+        for (String label : this.labels) {
+            List<Emit> labelEmits = emitsByLabel.get(label);
+            if (labelEmits == null) {
+                resultBuilder.put(label, ImmutableMap.<String, Integer>of());
+            } else {
+                resultBuilder.put(label, countKeywords(removeOverlaps(labelEmits)));
+            }
+        }
+        return resultBuilder.build();
+    }
+
+    /*
+     * Same overlap resolution as the trie applies internally - longest match wins.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Emit> removeOverlaps(List<Emit> emits) {
+        if (emits.size() > 1) {
+            IntervalTree intervalTree = new IntervalTree((List<Intervalable>) (List<?>) emits);
+            intervalTree.removeOverlaps((List<Intervalable>) (List<?>) emits);
+        }
+        return emits;
+    }
+
+    private ImmutableMap<String, Integer> countKeywords(List<Emit> emits) {
+        HashMap<String, Integer> tempMap = new HashMap<>();
+        for (Emit emit : emits) {
+            String keyword = emit.getKeyword();
+            if (tempMap.containsKey(keyword)) {
+                tempMap.put(keyword, tempMap.get(keyword) + 1);
+            } else {
+                tempMap.put(keyword, Integer.valueOf(1));
+            }
+        }
+        return ImmutableMap.copyOf(tempMap);
+    }
+
+    public ImmutableSet<String> getLabels() {
+        return labels;
+    }
+
+    public ImmutableSetMultimap<String, String> getKeywordToLabels() {
+        return keywordToLabels;
+    }
+
+}
@@ -19,7 +19,9 @@
 
 package com.jejking.hh.nord.matcher;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.jejking.hh.nord.IteratorUtils.toIterable;
+import static com.jejking.hh.nord.corpus.DrucksacheNames.CONTENT_HASH;
 import static com.jejking.hh.nord.corpus.DrucksacheNames.DATE;
 import static com.jejking.hh.nord.corpus.DrucksacheNames.DRUCKSACHE;
 import static com.jejking.hh.nord.corpus.DrucksacheNames.DRUCKSACHE_ID;
@@ -28,6 +30,10 @@ import static com.jejking.hh.nord.corpus.DrucksacheNames.ORIGINAL_URL;
 import static com.jejking.hh.nord.corpus.DrucksacheNames.REFS_BODY;
 import static com.jejking.hh.nord.corpus.DrucksacheNames.REFS_HEADER;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.joda.time.format.DateTimeFormat;
@@ -39,13 +45,13 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.ResourceIterable;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 
 import rx.functions.Action1;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.jejking.hh.nord.AbstractNeoImporter;
 import com.jejking.hh.nord.corpus.DrucksachenPropertyKeys;
 import com.jejking.hh.nord.corpus.RawDrucksache;
@@ -56,6 +62,15 @@ import com.jejking.hh.nord.gazetteer.GazetteerRelationshipTypes;
  * Class to import a {@link RawDrucksacheWithLabelledMatches} into Neo4j. The assumption is that
  * the gazetteer has already been prepared in the graph database, otherwise not much will happen. 
  * 
+ * <p>If a {@link GazetteerNodeLookup} is supplied, matches are resolved to gazetteer nodes by id
+ * from that table. Otherwise the schema index is queried for each match, falling back to a
+ * regular expression query on the label if the exact name cannot be found.</p>
+ * 
+ * <p>A <i>Drucksache</i> already in the graph, identified by its id, is updated in place: its
+ * properties are overwritten and its references replaced by those found in the current matches.
+ * The {@link RawDrucksache#contentHash()} is stored with the node so that later imports can tell
+ * whether the document has changed since.</p>
+ * 
  * @author jejking
  *
  */
@@ -63,9 +78,20 @@ public final class RawDrucksacheWithLabelledMatchesNeoImporter extends AbstractN
 
     private final GraphDatabaseService graph;
     private final DateTimeFormatter dateFormat = DateTimeFormat.forPattern("dd.MM.yyyy");
+    private final Optional<GazetteerNodeLookup> nodeLookup;
 
     public RawDrucksacheWithLabelledMatchesNeoImporter(GraphDatabaseService graph) {
+        this(graph, Optional.<GazetteerNodeLookup>absent());
+    }
+    
+    /**
+     * Constructor.
+     * @param graph graph to write to
+     * @param nodeLookup optional pre-resolved table of keyword to gazetteer node ids, may not be <code>null</code>
+     */
+    public RawDrucksacheWithLabelledMatchesNeoImporter(GraphDatabaseService graph, Optional<GazetteerNodeLookup> nodeLookup) {
         this.graph = graph;
+        this.nodeLookup = checkNotNull(nodeLookup);
     }
 
     @Override
@@ -77,18 +103,32 @@ public final class RawDrucksacheWithLabelledMatchesNeoImporter extends AbstractN
     public void writeToNeo(RawDrucksacheWithLabelledMatches rawDrucksacheWithLabelledMatches, GraphDatabaseService graph) {
         
         try (Transaction tx = graph.beginTx()) {
-            Node drucksachenNode = createDrucksacheNode(rawDrucksacheWithLabelledMatches, graph);
-            createRelationshipsToGazetteer(rawDrucksacheWithLabelledMatches, drucksachenNode, graph);
+            writeWithinTransaction(rawDrucksacheWithLabelledMatches, graph);
             tx.success();
         }
         
     }
     
+    /**
+     * Writes the data to the graph database, assuming that the caller has already opened
+     * a transaction on the current thread and will take care of committing it.
+     * 
+     * @param rawDrucksacheWithLabelledMatches data to be written
+     * @param graph graph to be written to
+     */
+    void writeWithinTransaction(RawDrucksacheWithLabelledMatches rawDrucksacheWithLabelledMatches, GraphDatabaseService graph) {
+        Node drucksachenNode = upsertDrucksacheNode(rawDrucksacheWithLabelledMatches, graph);
+        createRelationshipsToGazetteer(rawDrucksacheWithLabelledMatches, drucksachenNode, graph);
+    }
+    
 
     private void createRelationshipsToGazetteer(RawDrucksacheWithLabelledMatches rawDrucksacheWithLabelledMatches, Node drucksachenNode, GraphDatabaseService graph) {
         /*
-         * Go through the labelled matches.
+         * Go through the labelled matches, first aggregating the counts per gazetteer node
+         * so that each relationship is then written just once with both properties.
          */
+        Map<Node, ReferenceCounts> referencesByTarget = new LinkedHashMap<>();
+        
         for (Map.Entry<String, Matches> matchesEntry : rawDrucksacheWithLabelledMatches.getMatchesMap().entrySet()) {
             String labelText = matchesEntry.getKey();
             Matches matches = matchesEntry.getValue();
@@ -97,24 +137,50 @@ public final class RawDrucksacheWithLabelledMatchesNeoImporter extends AbstractN
             
             // matches in header...
             for (String headerMatch : matches.getMatchesInHeader().keySet()) {
-                createRelationship(neoLabel, drucksachenNode, headerMatch, matches.getMatchesInHeader().get(headerMatch), REFS_HEADER);
+                collectReferences(neoLabel, headerMatch, matches.getMatchesInHeader().get(headerMatch), true, referencesByTarget);
             }
             
             // matches in body...
             for (String bodyMatch : matches.getMatchesInBody().keySet()) {
-                createRelationship(neoLabel, drucksachenNode, bodyMatch, matches.getMatchesInBody().get(bodyMatch), REFS_BODY);
+                collectReferences(neoLabel, bodyMatch, matches.getMatchesInBody().get(bodyMatch), false, referencesByTarget);
             }
         }
         
+        writeReferences(drucksachenNode, referencesByTarget);
     }
 
-    private void createRelationship(Label neoLabel, Node drucksachenNode, String match, Integer matchCount, String relationshipProperty) {
+    private void collectReferences(Label neoLabel, String match, Integer matchCount, boolean inHeader, 
+            Map<Node, ReferenceCounts> referencesByTarget) {
+        for (Node targetNode : findTargetNodes(neoLabel, match)) {
+            ReferenceCounts referenceCounts = referencesByTarget.get(targetNode);
+            if (referenceCounts == null) {
+                referenceCounts = new ReferenceCounts();
+                referencesByTarget.put(targetNode, referenceCounts);
+            }
+            if (inHeader) {
+                referenceCounts.header += matchCount;
+            } else {
+                referenceCounts.body += matchCount;
+            }
+        }
+    }
+
+    private Iterable<Node> findTargetNodes(Label neoLabel, String match) {
+        
+        if (this.nodeLookup.isPresent() && this.nodeLookup.get().hasLabel(neoLabel.name())) {
+            return findTargetNodesFromLookup(neoLabel, match);
+        }
         
         // find all matches of appropriate type in the neo4j database. Exact match
-        ResourceIterable<Node> nodesFromExactMatch = graph.findNodesByLabelAndProperty(neoLabel, GazetteerPropertyNames.NAME, match);
+        List<Node> nodesFromExactMatch = new ArrayList<>();
+        try (ResourceIterator<Node> iterator = graph.findNodesByLabelAndProperty(neoLabel, GazetteerPropertyNames.NAME, match).iterator()) {
+            while (iterator.hasNext()) {
+                nodesFromExactMatch.add(iterator.next());
+            }
+        }
         
-        if (nodesFromExactMatch.iterator().hasNext()) {
-            createRelationshipsForNodes(drucksachenNode, matchCount, relationshipProperty, nodesFromExactMatch);    
+        if (!nodesFromExactMatch.isEmpty()) {
+            return nodesFromExactMatch;
         } else {
             System.out.println("Falling back to regular expression for match " + match);
             ExecutionEngine engine = new ExecutionEngine(graph);
@@ -122,54 +188,108 @@ public final class RawDrucksacheWithLabelledMatchesNeoImporter extends AbstractN
             String query = "match (n:" + neoLabel.name() + ") where n.NAME =~ \"" + truncatedMatch + ".*\" return n";
             
             ResourceIterator<Node> nodesFromRegEx = engine.execute(query).columnAs("n");
-            createRelationshipsForNodes(drucksachenNode, matchCount, relationshipProperty, toIterable(nodesFromRegEx));   
+            return ImmutableList.copyOf(toIterable(nodesFromRegEx));
         }
         
+    }
+
+    private Iterable<Node> findTargetNodesFromLookup(Label neoLabel, String match) {
+        ImmutableList<Long> nodeIds = this.nodeLookup.get().getNodeIds(neoLabel.name(), match);
+        if (nodeIds.isEmpty()) {
+            System.err.println("No gazetteer entry of type " + neoLabel.name() + " for match " + match);
+        }
         
-        
+        List<Node> targetNodes = new ArrayList<>(nodeIds.size());
+        for (Long nodeId : nodeIds) {
+            targetNodes.add(graph.getNodeById(nodeId));
+        }
+        return targetNodes;
     }
 
-    private void createRelationshipsForNodes(Node drucksachenNode, Integer matchCount, String relationshipProperty,
-            Iterable<Node> targetResourceIterable) {
-        for (Node targetNode : targetResourceIterable) {
-            Relationship rel = null; 
-            Optional<Relationship> existingRelationship = getRelationship(drucksachenNode, targetNode);
-            if (existingRelationship.isPresent()) {
-                rel = existingRelationship.get();
-            } else {
-                rel = drucksachenNode.createRelationshipTo(targetNode, GazetteerRelationshipTypes.REFERS_TO);
+    /*
+     * Afterwards the node refers to exactly the targets supplied, so any relationships
+     * from an earlier import which are no longer supported by a match are removed.
+     */
+    private void writeReferences(Node drucksachenNode, Map<Node, ReferenceCounts> referencesByTarget) {
+        Map<Node, Relationship> existingRelationships = getExistingRelationships(drucksachenNode);
+        
+        for (Map.Entry<Node, ReferenceCounts> entry : referencesByTarget.entrySet()) {
+            Relationship rel = existingRelationships.remove(entry.getKey());
+            if (rel == null) {
+                rel = drucksachenNode.createRelationshipTo(entry.getKey(), GazetteerRelationshipTypes.REFERS_TO);
             }
-            rel.setProperty(relationshipProperty, matchCount);
+            ReferenceCounts referenceCounts = entry.getValue();
+            setOrRemoveCount(rel, REFS_HEADER, referenceCounts.header);
+            setOrRemoveCount(rel, REFS_BODY, referenceCounts.body);
+        }
+        
+        for (Relationship staleRelationship : existingRelationships.values()) {
+            staleRelationship.delete();
+        }
+    }
+
+    private void setOrRemoveCount(Relationship rel, String propertyName, int count) {
+        if (count > 0) {
+            rel.setProperty(propertyName, count);
+        } else if (rel.hasProperty(propertyName)) {
+            rel.removeProperty(propertyName);
         }
     }
 
-    private Optional<Relationship> getRelationship(Node drucksachenNode, Node targetNode) {
-        Relationship targetRel = null;
+    /*
+     * One pass over the relationships already present, so that the cost of an update stays
+     * linear in the number of targets.
+     */
+    private Map<Node, Relationship> getExistingRelationships(Node drucksachenNode) {
+        Map<Node, Relationship> existingRelationships = new HashMap<>();
         Iterable<Relationship> relationshipIterable = drucksachenNode.getRelationships(GazetteerRelationshipTypes.REFERS_TO, Direction.OUTGOING);
         for (Relationship rel : relationshipIterable) {
-            if (rel.getEndNode().equals(targetNode)) {
-                targetRel = rel;
-                break;
-            }
+            existingRelationships.put(rel.getEndNode(), rel);
         }
-        return Optional.fromNullable(targetRel);
+        return existingRelationships;
     }
 
-    private Node createDrucksacheNode(RawDrucksacheWithLabelledMatches rawDrucksacheWithLabelledMatches, GraphDatabaseService graph) {
-        Node drucksacheNode = graph.createNode();
+    /*
+     * Re-importing a Drucksache updates the existing node rather than creating a duplicate.
+     */
+    private Node upsertDrucksacheNode(RawDrucksacheWithLabelledMatches rawDrucksacheWithLabelledMatches, GraphDatabaseService graph) {
         RawDrucksache original = rawDrucksacheWithLabelledMatches.getOriginal();
+        Label drucksacheLabel = DynamicLabel.label(DRUCKSACHE);
+        
+        Node drucksacheNode = null;
+        try (ResourceIterator<Node> iterator = graph.findNodesByLabelAndProperty(drucksacheLabel, DRUCKSACHE_ID, original.getDrucksachenId()).iterator()) {
+            if (iterator.hasNext()) {
+                drucksacheNode = iterator.next();
+            }
+        }
+        if (drucksacheNode == null) {
+            drucksacheNode = graph.createNode(drucksacheLabel);
+            drucksacheNode.setProperty(DRUCKSACHE_ID, original.getDrucksachenId());
+        }
+        
         // set some properties
-        drucksacheNode.setProperty(DRUCKSACHE_ID, original.getDrucksachenId());
         drucksacheNode.setProperty(ORIGINAL_URL, original.getOriginalUrl().toExternalForm());
+        drucksacheNode.setProperty(CONTENT_HASH, original.contentHash());
         if (original.getDate().isPresent()) {
             drucksacheNode.setProperty(DATE, this.dateFormat.print(original.getDate().get()));    
+        } else if (drucksacheNode.hasProperty(DATE)) {
+            drucksacheNode.removeProperty(DATE);
         }
         if (original.getExtractedProperties().containsKey(DrucksachenPropertyKeys.BETREFF)) {
             drucksacheNode.setProperty(HEADER, original.getExtractedProperties().get(DrucksachenPropertyKeys.BETREFF));
+        } else if (drucksacheNode.hasProperty(HEADER)) {
+            drucksacheNode.removeProperty(HEADER);
         }
-        drucksacheNode.addLabel(DynamicLabel.label(DRUCKSACHE));
         return drucksacheNode;
     }
 
     
+    /**
+     * Mutable holder for the number of references to one gazetteer node.
+     */
+    private static final class ReferenceCounts {
+        int header = 0;
+        int body = 0;
+    }
+    
 }
\ No newline at end of file
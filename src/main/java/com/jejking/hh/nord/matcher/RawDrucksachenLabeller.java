@@ -20,8 +20,6 @@ package com.jejking.hh.nord.matcher;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.util.Map;
-
 import rx.functions.Func1;
 
 import com.google.common.collect.ImmutableMap;
@@ -30,26 +28,36 @@ import com.jejking.hh.nord.corpus.RawDrucksache;
 /**
  * Function to apply a series of {@link DrucksachenGazetteerKeywordMatcher} functions associated
  * with a map of labels to a {@link RawDrucksache} to produce a {@link RawDrucksacheWithLabelledMatches}.
+ * 
+ * <p>The keywords of all the matchers are combined into a single {@link MultiLabelGazetteerKeywordMatcher}
+ * so that the body and header of each <i>Drucksache</i> are scanned once each, however many labels
+ * are supplied.</p>
  * @author jejking
  *
  */
 public final class RawDrucksachenLabeller implements Func1<RawDrucksache, RawDrucksacheWithLabelledMatches> {
     
-    private final ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchersMap;
+    private final MultiLabelGazetteerKeywordMatcher multiLabelMatcher;
     
     public RawDrucksachenLabeller(ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchersMap) {
-        this.matchersMap = checkNotNull(matchersMap);
+        this.multiLabelMatcher = MultiLabelGazetteerKeywordMatcher.fromMatchers(checkNotNull(matchersMap));
     }
     
     @Override
     public RawDrucksacheWithLabelledMatches call(RawDrucksache rawDrucksache) {
         
+        ImmutableMap<String, ImmutableMap<String, Integer>> matchesInBody = this.multiLabelMatcher.call(
+                DrucksachenGazetteerKeywordMatcher.filterAuthorityNames(
+                        DrucksachenGazetteerKeywordMatcher.concatenateContent(rawDrucksache)));
+        ImmutableMap<String, ImmutableMap<String, Integer>> matchesInHeader = this.multiLabelMatcher.call(
+                DrucksachenGazetteerKeywordMatcher.extractTitle(rawDrucksache));
+        
         ImmutableMap.Builder<String, Matches> matchesMapBuilder = ImmutableMap.builder();
         
-        for (Map.Entry<String, DrucksachenGazetteerKeywordMatcher> entry : matchersMap.entrySet()) {
-            matchesMapBuilder.put(entry.getKey(), entry.getValue().call(rawDrucksache));
+        for (String label : this.multiLabelMatcher.getLabels()) {
+            matchesMapBuilder.put(label, new Matches(matchesInBody.get(label), matchesInHeader.get(label)));
         }
         
         return new RawDrucksacheWithLabelledMatches(rawDrucksache, matchesMapBuilder.build());
     }
-}
\ No newline at end of file
+}
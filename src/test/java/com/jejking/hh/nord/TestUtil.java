@@ -29,8 +29,10 @@ import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.jejking.hh.nord.gazetteer.opendata.AdminAreaTreeNode;
 import com.jejking.hh.nord.gazetteer.opendata.AdminAreaTreeNodeTransformer;
+import com.jejking.hh.nord.gazetteer.opendata.GmlPolygon;
 import com.jejking.hh.nord.gazetteer.opendata.HamburgPolygonTreeToNeoImporter;
 import com.jejking.hh.nord.gazetteer.opendata.HamburgRawTreeBuilder;
 import com.jejking.hh.nord.gazetteer.osm.poi.PointOfInterest;
@@ -39,7 +41,6 @@ import com.jejking.hh.nord.gazetteer.osm.poi.RxPointOfInterestCollectionBuilder;
 import com.jejking.hh.nord.gazetteer.osm.streets.OsmStreetCollectionToNeoImporter;
 import com.jejking.hh.nord.gazetteer.osm.streets.RxOsmStreetCollectionBuilder;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.Polygon;
 
 /**
  * Helper class to set up database and load data.
@@ -64,8 +65,8 @@ public class TestUtil {
         AdminAreaTreeNodeTransformer t = new AdminAreaTreeNodeTransformer();
 
         HamburgRawTreeBuilder builder = new HamburgRawTreeBuilder();
-        AdminAreaTreeNode<String> hh = builder.buildRawTree();
-        AdminAreaTreeNode<Polygon> polygonHamburg = t.call(hh);
+        AdminAreaTreeNode<ImmutableList<GmlPolygon>> hh = builder.buildPolygonTree();
+        AdminAreaTreeNode<Geometry> polygonHamburg = t.transformPolygonTree(hh);
 
         HamburgPolygonTreeToNeoImporter importer = new HamburgPolygonTreeToNeoImporter();
         importer.writeToNeo(polygonHamburg, graph);
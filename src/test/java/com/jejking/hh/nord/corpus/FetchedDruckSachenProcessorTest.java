@@ -0,0 +1,275 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+/**
+ * Tests for {@link FetchedDruckSachenProcessor}.
+ * 
+ * @author jejking
+ *
+ */
+public class FetchedDruckSachenProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File inputDirectory;
+    private File outputDirectory;
+    private final Map<URL, Optional<LocalDate>> urlDateMap = new HashMap<>();
+    
+    @Before
+    public void setUp() throws Exception {
+        this.inputDirectory = this.folder.newFolder("fetched");
+        this.outputDirectory = this.folder.newFolder("processed");
+    }
+    
+    @Test
+    public void writesDocumentsInOrderOfSourceNameAndLowestSourceWinsDuplicateId() throws Exception {
+        givenFetchedDocument("http://foo.com/3", "3", "drei");
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/9", "2", "zwei, doppelt");
+        givenFetchedDocument("http://foo.com/2", "2", "zwei");
+        givenFetchedDocument("http://foo.com/4", "4", "vier");
+        
+        for (int run = 0; run < 5; run++) {
+            File runDirectory = this.folder.newFolder("run" + run);
+            // many threads and a small window, so that parsing finishes out of order
+            new FetchedDruckSachenProcessor(2, true, 4, 2).preProcessFetchedDocuments(this.inputDirectory, runDirectory, 
+                                                                                 ImmutableMap.copyOf(this.urlDateMap));
+            
+            assertEquals(ImmutableList.of("1: eins", "2: zwei", "3: drei", "4: vier"), storedDocuments(runDirectory));
+        }
+    }
+    
+    @Test
+    public void skipsUnparseableSource() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedFile("http://foo.com/2", "<html><body>keine Drucksache</body></html>");
+        
+        process();
+        
+        assertEquals(ImmutableList.of("1: eins"), storedDocuments(this.outputDirectory));
+    }
+    
+    @Test
+    public void unchangedSourceTakesOverIdOfVanishedSource() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/2", "2", "zwei");
+        givenFetchedDocument("http://foo.com/9", "2", "zwei, doppelt");
+        process();
+        
+        removeFetchedFile("http://foo.com/2");
+        process();
+        
+        // documents copied out of compacted segments follow those written afresh
+        assertEquals(ImmutableList.of("2: zwei, doppelt", "1: eins"), storedDocuments(this.outputDirectory));
+    }
+    
+    @Test
+    public void renamedSourceKeepsItsDocument() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/5", "2", "zwei");
+        process();
+        
+        removeFetchedFile("http://foo.com/5");
+        givenFetchedDocument("http://foo.com/2", "2", "zwei, umbenannt");
+        process();
+        
+        assertEquals(ImmutableList.of("2: zwei, umbenannt", "1: eins"), storedDocuments(this.outputDirectory));
+    }
+    
+    @Test
+    public void newSourceWithLowerNameTakesOverIdOfUnchangedSource() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/5", "2", "zwei");
+        process();
+        
+        givenFetchedDocument("http://foo.com/2", "2", "zwei, neu");
+        process();
+        
+        assertEquals(ImmutableList.of("2: zwei, neu", "1: eins"), storedDocuments(this.outputDirectory));
+        
+        // and the old source takes it back once the new one has gone
+        removeFetchedFile("http://foo.com/2");
+        process();
+        
+        assertEquals(ImmutableList.of("2: zwei", "1: eins"), storedDocuments(this.outputDirectory));
+    }
+    
+    @Test
+    public void replacesSegmentsWrittenWithoutManifest() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/2", "2", "zwei");
+        process();
+        assertTrue(new File(this.outputDirectory, PreprocessingManifest.FILE_NAME).delete());
+        
+        process();
+        
+        assertEquals(ImmutableList.of("1: eins", "2: zwei"), storedDocuments(this.outputDirectory));
+    }
+    
+    @Test
+    public void leavesSegmentsAloneIfNothingChanged() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/2", "2", "zwei");
+        givenFetchedDocument("http://foo.com/3", "3", "drei");
+        process();
+        List<String> segmentsBefore = segmentNames(this.outputDirectory);
+        
+        process();
+        
+        assertEquals(segmentsBefore, segmentNames(this.outputDirectory));
+        assertEquals(ImmutableList.of("1: eins", "2: zwei", "3: drei"), storedDocuments(this.outputDirectory));
+    }
+    
+    @Test
+    public void recoversFromCrashBeforeStaleSegmentsAreDeleted() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/2", "2", "zwei");
+        process();
+        File backup = backUpOutput();
+        
+        givenFetchedDocument("http://foo.com/2", "2", "zwei, neu");
+        process();
+        // as if the run had stopped after saving the manifest, the replaced segments are still there
+        restoreSegments(backup);
+        
+        process();
+        
+        assertEquals(ImmutableList.of("2: zwei, neu", "1: eins"), storedDocuments(this.outputDirectory));
+    }
+    
+    @Test
+    public void recoversFromCrashBeforeManifestIsSaved() throws Exception {
+        givenFetchedDocument("http://foo.com/1", "1", "eins");
+        givenFetchedDocument("http://foo.com/2", "2", "zwei");
+        process();
+        File backup = backUpOutput();
+        
+        givenFetchedDocument("http://foo.com/2", "2", "zwei, neu");
+        process();
+        // as if the run had stopped after writing the new segments, the old manifest and segments are still there
+        restoreSegments(backup);
+        Files.copy(new File(backup, PreprocessingManifest.FILE_NAME), 
+                   new File(this.outputDirectory, PreprocessingManifest.FILE_NAME));
+        
+        process();
+        
+        assertEquals(ImmutableList.of("2: zwei, neu", "1: eins"), storedDocuments(this.outputDirectory));
+    }
+    
+    private File backUpOutput() throws Exception {
+        File backup = this.folder.newFolder();
+        for (File file : this.outputDirectory.listFiles()) {
+            Files.copy(file, new File(backup, file.getName()));
+        }
+        return backup;
+    }
+    
+    private void restoreSegments(File backup) throws Exception {
+        for (String segmentName : segmentNames(backup)) {
+            Files.copy(new File(backup, segmentName), new File(this.outputDirectory, segmentName));
+        }
+    }
+    
+    private void process() {
+        new FetchedDruckSachenProcessor(2, true, 2, 2).preProcessFetchedDocuments(this.inputDirectory, this.outputDirectory, 
+                                                                           ImmutableMap.copyOf(this.urlDateMap));
+    }
+    
+    private void givenFetchedDocument(String url, String drucksachenId, String betreff) throws Exception {
+        givenFetchedFile(url, "<html><body>"
+                + "<div id=\"risname\"><h1>Drucksache - " + drucksachenId + "</h1></div>"
+                + "<table><tr><td class=\"kb1\">Betreff:</td><td>" + betreff + "</td></tr></table>"
+                + "</body></html>");
+    }
+    
+    private void removeFetchedFile(String url) {
+        assertTrue(fetchedFile(url).delete());
+    }
+    
+    private File fetchedFile(String url) {
+        // named as the fetcher names them, by the hex encoded url
+        return new File(this.inputDirectory, Hex.encodeHexString(url.getBytes(Charsets.UTF_8)) + ".gz");
+    }
+    
+    private void givenFetchedFile(String url, String html) throws Exception {
+        this.urlDateMap.put(new URL(url), Optional.<LocalDate>absent());
+        try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(fetchedFile(url)));
+             Writer writer = new OutputStreamWriter(outputStream, Charsets.UTF_8)) {
+            writer.write(html);
+        }
+    }
+    
+    /*
+     * Every document in every segment, in segment order, as id and Betreff.
+     */
+    private static List<String> storedDocuments(File directory) {
+        List<File> segments = new ArrayList<>();
+        for (String segmentName : segmentNames(directory)) {
+            segments.add(new File(directory, segmentName));
+        }
+        List<String> documents = new ArrayList<>();
+        for (RawDrucksache rawDrucksache : RawDrucksacheFiles.readAll(segments)) {
+            documents.add(rawDrucksache.getDrucksachenId() + ": " + rawDrucksache.getExtractedProperties().get("Betreff"));
+        }
+        return documents;
+    }
+    
+    private static List<String> segmentNames(File directory) {
+        List<String> segmentNames = new ArrayList<>();
+        for (File file : directory.listFiles()) {
+            if (RawDrucksacheFiles.isSegment(file)) {
+                segmentNames.add(file.getName());
+            }
+        }
+        Collections.sort(segmentNames);
+        return segmentNames;
+    }
+    
+}
@@ -0,0 +1,105 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+
+import org.apache.commons.codec.Charsets;
+import org.apache.commons.codec.binary.Hex;
+import org.joda.time.LocalDate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for {@link MappedRawDrucksacheStore}.
+ * 
+ * @author jejking
+ *
+ */
+public class MappedRawDrucksacheStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void fetchesDocumentsByIdFromSegmentsAndSerialisedFiles() throws Exception {
+        givenSegment("drucksachen-00000.seg", true, drucksache("1", "Betreff"), drucksache("2", "Art"));
+        givenSegment("drucksachen-00001.seg", false, drucksache("3", "Betreff"));
+        givenSerialisedFile(drucksache("4", "Betreff"));
+        
+        MappedRawDrucksacheStore store = MappedRawDrucksacheStore.open(this.folder.getRoot());
+        
+        assertEquals(4, store.size());
+        assertEquals(ImmutableSet.of("1", "2", "3", "4"), store.getDrucksachenIds());
+        assertEquals("Art 2", store.get("2").get().getExtractedProperties().get("Art"));
+        assertEquals("Betreff 3", store.get("3").get().getExtractedProperties().get("Betreff"));
+        assertEquals("Betreff 4", store.get("4").get().getExtractedProperties().get("Betreff"));
+        assertEquals(ImmutableList.of("content of 1"), store.get("1").get().getExtractedContent());
+    }
+    
+    @Test
+    public void absentIfIdNotKnown() throws Exception {
+        givenSegment("drucksachen-00000.seg", true, drucksache("1", "Betreff"));
+        
+        MappedRawDrucksacheStore store = MappedRawDrucksacheStore.open(this.folder.getRoot());
+        
+        assertTrue(store.contains("1"));
+        assertFalse(store.contains("2"));
+        assertFalse(store.get("2").isPresent());
+    }
+    
+    private void givenSegment(String name, boolean compress, RawDrucksache... drucksachen) throws Exception {
+        try (RawDrucksacheSegmentWriter writer = RawDrucksacheSegmentWriter.create(this.folder.newFile(name), compress)) {
+            for (RawDrucksache rawDrucksache : drucksachen) {
+                writer.write(rawDrucksache);
+            }
+        }
+    }
+    
+    private void givenSerialisedFile(RawDrucksache rawDrucksache) throws Exception {
+        File file = this.folder.newFile(Hex.encodeHexString(rawDrucksache.getDrucksachenId().getBytes(Charsets.UTF_8)) + ".dat");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            oos.writeObject(rawDrucksache);
+        }
+    }
+    
+    private RawDrucksache drucksache(String id, String propertyKey) throws Exception {
+        return new RawDrucksache(
+                    id, 
+                    new URL("http://foo.com/" + id),
+                    Optional.<LocalDate>absent(), 
+                    ImmutableMap.of(propertyKey, propertyKey + " " + id), 
+                    ImmutableList.of("content of " + id));
+    }
+    
+}
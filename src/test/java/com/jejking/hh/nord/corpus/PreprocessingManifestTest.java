@@ -0,0 +1,76 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+
+/**
+ * Tests for {@link PreprocessingManifest}.
+ * 
+ * @author jejking
+ *
+ */
+public class PreprocessingManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void emptyIfNoManifestSavedYet() throws Exception {
+        PreprocessingManifest manifest = PreprocessingManifest.load(this.folder.getRoot());
+        assertTrue(manifest.snapshot().isEmpty());
+    }
+    
+    @Test
+    public void savesAndLoadsEntries() throws Exception {
+        PreprocessingManifest manifest = new PreprocessingManifest();
+        manifest.put("abc.gz", new PreprocessingManifest.Entry("1234", 1, Optional.of("20-1234"), Optional.of("drucksachen-00000.seg")));
+        manifest.put("def.gz", new PreprocessingManifest.Entry("5678", 1, Optional.<String>absent(), Optional.<String>absent()));
+        manifest.save(this.folder.getRoot());
+        manifest.save(this.folder.getRoot()); // replaces
+        
+        PreprocessingManifest loaded = PreprocessingManifest.load(this.folder.getRoot());
+        
+        assertEquals(2, loaded.snapshot().size());
+        PreprocessingManifest.Entry abc = loaded.get("abc.gz").get();
+        assertEquals("1234", abc.getSourceHash());
+        assertEquals(Optional.of("20-1234"), abc.getDrucksachenId());
+        assertEquals(Optional.of("drucksachen-00000.seg"), abc.getSegment());
+        PreprocessingManifest.Entry def = loaded.get("def.gz").get();
+        assertFalse(def.getDrucksachenId().isPresent());
+        assertFalse(def.getSegment().isPresent());
+    }
+    
+    @Test
+    public void entryUpToDateOnlyIfHashAndExtractorVersionMatch() {
+        PreprocessingManifest.Entry entry = new PreprocessingManifest.Entry("1234", 1, Optional.of("20-1234"), Optional.of("drucksachen-00000.seg"));
+        assertTrue(entry.isUpToDate("1234", 1));
+        assertFalse(entry.isUpToDate("1235", 1));
+        assertFalse(entry.isUpToDate("1234", 2));
+    }
+    
+}
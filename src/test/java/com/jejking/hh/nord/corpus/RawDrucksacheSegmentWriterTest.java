@@ -0,0 +1,97 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.corpus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests for {@link RawDrucksacheSegmentWriter} and {@link RawDrucksacheSegmentReader}.
+ * 
+ * @author jejking
+ *
+ */
+public class RawDrucksacheSegmentWriterTest {
+
+    @Test
+    public void roundTripsDocumentsCompressed() throws Exception {
+        roundTrip(true);
+    }
+    
+    @Test
+    public void roundTripsDocumentsUncompressed() throws Exception {
+        roundTrip(false);
+    }
+    
+    @Test(expected = IOException.class)
+    public void rejectsStreamWithoutSegmentHeader() throws Exception {
+        new RawDrucksacheSegmentReader(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6}));
+    }
+    
+    private void roundTrip(boolean compress) throws Exception {
+        RawDrucksache first = new RawDrucksache(
+                                "20-1234", 
+                                new URL("http://foo.com/1"),
+                                Optional.of(new LocalDate(2014, DateTimeConstants.JUNE, 14)), 
+                                ImmutableMap.of("Betreff", "Superspannend", "Art", "Antrag"), 
+                                ImmutableList.of("foo", Strings.repeat("Ü", 70000)));
+        RawDrucksache second = new RawDrucksache(
+                                "20-1235", 
+                                new URL("http://foo.com/2"),
+                                Optional.<LocalDate>absent(), 
+                                ImmutableMap.of("Art", "Anfrage", "Status", "öffentlich"), 
+                                ImmutableList.<String>of());
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RawDrucksacheSegmentWriter writer = new RawDrucksacheSegmentWriter(bytes, compress)) {
+            writer.write(first);
+            writer.write(second);
+            assertEquals(2, writer.getDocumentCount());
+        }
+        
+        try (RawDrucksacheSegmentReader reader = new RawDrucksacheSegmentReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertSameContent(first, reader.read().get());
+            assertSameContent(second, reader.read().get());
+            assertFalse(reader.read().isPresent());
+        }
+    }
+    
+    private void assertSameContent(RawDrucksache expected, RawDrucksache actual) {
+        assertEquals(expected.getDrucksachenId(), actual.getDrucksachenId());
+        assertEquals(expected.getOriginalUrl().toExternalForm(), actual.getOriginalUrl().toExternalForm());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getExtractedProperties(), actual.getExtractedProperties());
+        assertEquals(expected.getExtractedContent(), actual.getExtractedContent());
+    }
+    
+}
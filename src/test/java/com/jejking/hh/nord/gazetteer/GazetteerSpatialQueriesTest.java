@@ -0,0 +1,119 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer;
+
+import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.ADMINISTRATIVE;
+import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.POINTS_OF_INTEREST;
+import static com.jejking.hh.nord.gazetteer.GazetteerLayerNames.STREETS;
+import static com.jejking.hh.nord.gazetteer.GazetteerPropertyNames.NAME;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jaitools.jts.CoordinateSequence2D;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import com.jejking.hh.nord.GeographicFunctions;
+import com.jejking.hh.nord.TestUtil;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Tests for {@link GazetteerSpatialQueries}.
+ * 
+ * @author jejking
+ *
+ */
+public class GazetteerSpatialQueriesTest {
+
+    private static GraphDatabaseService graph;
+    private static Envelope aroundMundsburgerBruecke;
+    
+    @BeforeClass
+    public static void init() {
+        graph = TestUtil.createTestDatabase();
+        TestUtil.writeHamburgPolygonsToGraph(graph);
+        TestUtil.writeUhlenhorstOsmStreetsToGraph(graph);
+        TestUtil.writeUhlenhorstPoisToGraph(graph);
+        
+        // bus stop Mundsburger Brücke stadtauswärts
+        Point point = new Point(new CoordinateSequence2D(10.0206119, 53.5660032), new GeometryFactory());
+        aroundMundsburgerBruecke = GeographicFunctions.computeEnvelopeAroundPoint(point, 50);
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        graph.shutdown();
+    }
+    
+    @Test
+    public void searchesOnlyTheNamedLayer() {
+        try (Transaction tx = graph.beginTx()) {
+            Set<String> labels = labels(new GazetteerSpatialQueries(graph)
+                                            .intersectWindow(aroundMundsburgerBruecke, ADMINISTRATIVE));
+            
+            assertTrue(labels.contains(GazetteerEntryTypes.NUMBERED_DISTRICT));
+            assertFalse(labels.contains(GazetteerEntryTypes.STREET));
+        }
+    }
+    
+    @Test
+    public void searchesSeveralLayers() {
+        try (Transaction tx = graph.beginTx()) {
+            GazetteerSpatialQueries queries = new GazetteerSpatialQueries(graph);
+            Set<String> names = new HashSet<>();
+            for (Node node : queries.intersectWindow(aroundMundsburgerBruecke, ADMINISTRATIVE, STREETS)) {
+                names.add((String) node.getProperty(NAME, ""));
+            }
+            
+            assertTrue(names.contains("Uhlenhorst"));
+            assertTrue(names.contains("Mundsburger Damm"));
+            
+            assertTrue(labels(queries.intersectWindow(aroundMundsburgerBruecke, STREETS, POINTS_OF_INTEREST))
+                            .contains(GazetteerEntryTypes.STREET));
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownLayerIsRejected() {
+        try (Transaction tx = graph.beginTx()) {
+            new GazetteerSpatialQueries(graph).intersectWindow(aroundMundsburgerBruecke, "NO_SUCH_LAYER");
+        }
+    }
+    
+    private static Set<String> labels(Iterable<Node> nodes) {
+        Set<String> labels = new HashSet<>();
+        for (Node node : nodes) {
+            for (Label label : node.getLabels()) {
+                labels.add(label.name());
+            }
+        }
+        return labels;
+    }
+    
+}
@@ -50,6 +50,60 @@ public class AdminAreaTreeNodeTest {
         thenTheResultIsAsExpected(rootInt);
     }
 
+    @Test
+    public void parallelFMapGivesSameTreeAsFMap() {
+        AdminAreaTreeNode<String> root = givenAnInputTree();
+        Func1<String, Integer> toInteger = new Func1<String, Integer>() {
+
+            @Override
+            public Integer call(String t1) {
+                return Integer.valueOf(t1);
+            }
+
+        };
+
+        AdminAreaTreeNode<Integer> rootInt = root.parallelFmap(toInteger, 2).call(root);
+
+        thenTheResultIsAsExpected(rootInt);
+        assertEquals(root.fmap(toInteger).call(root), rootInt);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parallelismMustBePositive() {
+        AdminAreaTreeNode<String> root = givenAnInputTree();
+        root.parallelFmap(new Func1<String, String>() {
+
+            @Override
+            public String call(String t1) {
+                return t1;
+            }
+
+        }, 0);
+    }
+
+    @Test
+    public void fusedFMapAppliesBothFunctions() {
+        AdminAreaTreeNode<String> root = givenAnInputTree();
+
+        AdminAreaTreeNode<Integer> rootInt = root.fmap(new Func1<String, String>() {
+
+            @Override
+            public String call(String t1) {
+                return t1 + "0";
+            }
+
+        }, new Func1<String, Integer>() {
+
+            @Override
+            public Integer call(String t1) {
+                return Integer.valueOf(t1) / 10;
+            }
+
+        }).call(root);
+
+        thenTheResultIsAsExpected(rootInt);
+    }
+
     private void thenTheResultIsAsExpected(AdminAreaTreeNode<Integer> rootInt) {
         assertEquals(0, rootInt.getContent().intValue());
         assertEquals("root", rootInt.getName());
@@ -19,14 +19,21 @@
 package com.jejking.hh.nord.gazetteer.opendata;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
 import com.jejking.hh.nord.gazetteer.opendata.AdminAreaTreeNodeTransformer.ConvertPolygonToWGS84;
 import com.jejking.hh.nord.gazetteer.opendata.AdminAreaTreeNodeTransformer.CreatePolygon;
+import com.jejking.hh.nord.gazetteer.opendata.AdminAreaTreeNodeTransformer.CreateWGS84Polygon;
 import com.jejking.hh.nord.gazetteer.opendata.AdminAreaTreeNodeTransformer.CreateWkt;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
 
 /**
@@ -38,6 +45,7 @@ import com.vividsolutions.jts.geom.Polygon;
 public class AdminAreaTreeNodeTransformerTest {
 
     @Test
+    @SuppressWarnings("deprecation")
     public void wktConversionWorks() {
         String in = "0 0 1 1 3 3.5";
         String expected = "POLYGON((0 0, 1 1, 3 3.5))";
@@ -47,6 +55,7 @@ public class AdminAreaTreeNodeTransformerTest {
     }
 
     @Test
+    @SuppressWarnings("deprecation")
     public void createPolygonFromWkt() {
         // these results obtained from the helpful website at http://cs2cs.mygeodata.eu/
         double[][] expected = new double[][] { { 4.51125611529d, 0.0d }, { 4.51126507418d, 0.000405871916451d },
@@ -67,6 +76,38 @@ public class AdminAreaTreeNodeTransformerTest {
 
     }
 
+    @Test
+    public void malformedPosListGivesNoPolygon() {
+        CreateWGS84Polygon createPolygon = new AdminAreaTreeNodeTransformer().new CreateWGS84Polygon();
+        
+        assertFalse(createPolygon.call("0 0 1 45 3").isPresent());
+        assertFalse(createPolygon.call("0 0 1 45 3 x 0 0").isPresent());
+        assertTrue(createPolygon.call("0 0 1 45 3 350 0 0").isPresent());
+    }
+    
+    @Test
+    public void areasWithoutGeometryAreLeftOut() {
+        AdminAreaTreeNodeTransformer transformer = new AdminAreaTreeNodeTransformer();
+        Optional<Geometry> polygon = transformer.new CreateWGS84Polygon().call("0 0 1 45 3 350 0 0");
+        
+        AdminAreaTreeNode<Optional<Geometry>> root = new AdminAreaTreeNode<>("Hamburg", GazetteerEntryTypes.CITY, 
+                                                                              Optional.<Geometry>absent());
+        AdminAreaTreeNode<Optional<Geometry>> nord = new AdminAreaTreeNode<>("Hamburg-Nord", GazetteerEntryTypes.BOROUGH, 
+                                                                              polygon);
+        nord.getChildren().put("Uhlenhorst", new AdminAreaTreeNode<>("Uhlenhorst", GazetteerEntryTypes.NAMED_AREA, polygon));
+        nord.getChildren().put("Winterhude", new AdminAreaTreeNode<>("Winterhude", GazetteerEntryTypes.NAMED_AREA, 
+                                                                     Optional.<Geometry>absent()));
+        root.getChildren().put("Hamburg-Nord", nord);
+        root.getChildren().put("Wandsbek", new AdminAreaTreeNode<>("Wandsbek", GazetteerEntryTypes.BOROUGH, 
+                                                                   Optional.<Geometry>absent()));
+        
+        AdminAreaTreeNode<Geometry> hamburg = transformer.new BuildHamburgRootPolygon().call(root);
+        
+        assertEquals(ImmutableSet.of("Hamburg-Nord"), hamburg.getChildren().keySet());
+        assertEquals(ImmutableSet.of("Uhlenhorst"), hamburg.getChildren().get("Hamburg-Nord").getChildren().keySet());
+        assertEquals(polygon.get().getArea(), hamburg.getContent().getArea(), 1e-12);
+    }
+
     @Test
     public void fixRootCreatesHamburgPolygon() {
         HamburgRawTreeBuilder builder = new HamburgRawTreeBuilder();
@@ -76,4 +117,40 @@ public class AdminAreaTreeNodeTransformerTest {
         transformer.call(rawHamburg); // does it work....
     }
 
+    @Test
+    public void polygonTreeKeepsExclavesAndHoles() {
+        AdminAreaTreeNode<Geometry> hamburg = transformPolygonTree();
+        
+        Geometry wandsbek = hamburg.getChildren().get("Wandsbek").getContent();
+        assertTrue(wandsbek instanceof MultiPolygon);
+        assertEquals(2, wandsbek.getNumGeometries());
+        
+        Geometry volksdorf = hamburg.getChildren().get("Wandsbek").getChildren().get("Volksdorf").getContent();
+        assertEquals(2, volksdorf.getNumGeometries());
+        
+        Geometry duvenstedt = hamburg.getChildren().get("Wandsbek").getChildren().get("Duvenstedt").getContent();
+        assertEquals(1, ((Polygon) duvenstedt).getNumInteriorRing());
+    }
+    
+    @Test
+    public void rootIsUnionOfAllBoroughPolygons() {
+        AdminAreaTreeNode<Geometry> hamburg = transformPolygonTree();
+        Geometry root = hamburg.getContent();
+        
+        double boroughArea = 0;
+        for (AdminAreaTreeNode<Geometry> borough : hamburg.getChildren().values()) {
+            Geometry boroughGeometry = borough.getContent();
+            assertTrue(root.getEnvelopeInternal().contains(boroughGeometry.getEnvelopeInternal()));
+            boroughArea += boroughGeometry.getArea();
+        }
+        // the boroughs share their borders, so the union is as large as all of them together
+        assertEquals(boroughArea, root.getArea(), boroughArea / 1000);
+        assertTrue(root.isValid());
+    }
+    
+    private AdminAreaTreeNode<Geometry> transformPolygonTree() {
+        HamburgRawTreeBuilder builder = new HamburgRawTreeBuilder();
+        return new AdminAreaTreeNodeTransformer().transformPolygonTree(builder.buildPolygonTree());
+    }
+
 }
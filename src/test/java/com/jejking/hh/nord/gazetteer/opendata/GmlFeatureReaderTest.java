@@ -0,0 +1,93 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.opendata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link GmlFeatureReader}.
+ * 
+ * @author jejking
+ *
+ */
+public class GmlFeatureReaderTest {
+
+    @Test
+    public void readsAllBoroughs() throws IOException {
+        List<GmlFeature> boroughs = readAll("/bezirke.xml");
+        assertEquals(7, boroughs.size());
+        for (GmlFeature borough : boroughs) {
+            assertTrue(borough.getProperty("OBJECTID").isPresent());
+            assertFalse(borough.getPolygons().isEmpty());
+        }
+    }
+    
+    @Test
+    public void keepsBothPolygonsOfWandsbek() throws IOException {
+        GmlFeature wandsbek = find(readAll("/bezirke.xml"), "OBJECTID", "5");
+        assertEquals(2, wandsbek.getPolygons().size());
+    }
+    
+    @Test
+    public void keepsHoleInDuvenstedt() throws IOException {
+        GmlFeature duvenstedt = find(readAll("/stadtteile.xml"), "Stadtteil", "Duvenstedt");
+        assertEquals(1, duvenstedt.getPolygons().size());
+        assertEquals(1, duvenstedt.getPolygons().get(0).getInteriors().size());
+    }
+    
+    @Test
+    public void keepsExclaveOfVolksdorf() throws IOException {
+        GmlFeature volksdorf = find(readAll("/stadtteile.xml"), "Stadtteil", "Volksdorf");
+        assertEquals(2, volksdorf.getPolygons().size());
+        assertEquals("Wandsbek", volksdorf.getProperty("Bezirk").get());
+    }
+    
+    @Test
+    public void readsAllNumberedDistricts() throws IOException {
+        assertEquals(180, readAll("/ortsteile.xml").size());
+    }
+    
+    private static List<GmlFeature> readAll(String path) throws IOException {
+        List<GmlFeature> features = new ArrayList<>();
+        try (GmlFeatureReader reader = new GmlFeatureReader(GmlFeatureReaderTest.class.getResourceAsStream(path))) {
+            while (reader.hasNext()) {
+                features.add(reader.next());
+            }
+        }
+        return features;
+    }
+    
+    private static GmlFeature find(List<GmlFeature> features, String property, String value) {
+        for (GmlFeature feature : features) {
+            if (feature.getProperty(property).asSet().contains(value)) {
+                return feature;
+            }
+        }
+        throw new AssertionError("no feature with " + property + " " + value);
+    }
+    
+}
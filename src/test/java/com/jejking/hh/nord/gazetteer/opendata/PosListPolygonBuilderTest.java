@@ -0,0 +1,88 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.opendata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.referencing.operation.transform.IdentityTransform;
+import org.junit.Test;
+import org.opengis.referencing.operation.MathTransform;
+
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Tests for {@link PosListPolygonBuilder}.
+ * 
+ * @author jejking
+ *
+ */
+public class PosListPolygonBuilderTest {
+
+    private final GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
+    
+    @Test
+    public void parsesPosListSeparatedByAnyWhitespace() {
+        assertArrayEquals(new double[] {0, 0, 1, 45, 3, 350.5, 0, 0}, 
+                          PosListPolygonBuilder.parsePosList("  0 0\n1 45\t3  350.5 0 0 "), 0);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void oddNumberOfValuesIsRejected() {
+        PosListPolygonBuilder.parsePosList("0 0 1 45 3");
+    }
+    
+    @Test
+    public void reprojectsInPlace() throws Exception {
+        // same expectations as for the route via WKT in AdminAreaTreeNodeTransformerTest
+        double[][] expected = new double[][] { { 4.51125611529d, 0.0d }, { 4.51126507418d, 0.000405871916451d },
+                { 4.5112829855d, 0.00315678165038d }, { 4.51125611529d, 0.0d } };
+        
+        MathTransform transform = CRS.findMathTransform(
+                CRS.getAuthorityFactory(true).createCoordinateReferenceSystem("urn:ogc:def:crs:EPSG:6.9:25832"),
+                DefaultGeographicCRS.WGS84);
+        PosListPolygonBuilder builder = new PosListPolygonBuilder(geometryFactory, transform);
+        
+        Coordinate[] coords = builder.buildPolygon("0 0 1 45 3 350 0 0").getCoordinates();
+        
+        assertEquals(expected.length, coords.length);
+        for (int i = 0; i < coords.length; i++) {
+            assertEquals(expected[i][0], coords[i].x, 0.0000000001);
+            assertEquals(expected[i][1], coords[i].y, 0.0000000001);
+        }
+    }
+    
+    @Test
+    public void keepsHoles() {
+        PosListPolygonBuilder builder = new PosListPolygonBuilder(geometryFactory, IdentityTransform.create(2));
+        
+        Polygon polygon = builder.buildPolygon(new GmlPolygon("0 0 10 0 10 10 0 10 0 0", 
+                                                              ImmutableList.of("4 4 6 4 6 6 4 6 4 4")));
+        
+        assertEquals(1, polygon.getNumInteriorRing());
+        assertEquals(96, polygon.getArea(), 0);
+    }
+    
+}
@@ -0,0 +1,107 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IdBitmap}.
+ * 
+ * @author jejking
+ *
+ */
+public class IdBitmapTest {
+
+    @Test
+    public void emptyBitmapContainsNothing() {
+        IdBitmap idBitmap = new IdBitmap();
+        
+        assertFalse(idBitmap.contains(0L));
+        assertFalse(idBitmap.contains(42L));
+        assertEquals(0L, idBitmap.size());
+        assertEquals(0L, idBitmap.getAllocatedBytes());
+    }
+    
+    @Test
+    public void containsAddedIdsOnly() {
+        IdBitmap idBitmap = new IdBitmap();
+        
+        assertTrue(idBitmap.add(1L));
+        assertTrue(idBitmap.add(63L));
+        assertTrue(idBitmap.add(64L));
+        assertTrue(idBitmap.add(3000000000L));
+        
+        assertTrue(idBitmap.contains(1L));
+        assertTrue(idBitmap.contains(63L));
+        assertTrue(idBitmap.contains(64L));
+        assertTrue(idBitmap.contains(3000000000L));
+        
+        assertFalse(idBitmap.contains(0L));
+        assertFalse(idBitmap.contains(2L));
+        assertFalse(idBitmap.contains(65L));
+        assertFalse(idBitmap.contains(2999999999L));
+        assertFalse(idBitmap.contains(3000000001L));
+        
+        assertEquals(4L, idBitmap.size());
+    }
+    
+    @Test
+    public void addingAnIdTwiceCountsOnce() {
+        IdBitmap idBitmap = new IdBitmap();
+        
+        assertTrue(idBitmap.add(12345L));
+        assertFalse(idBitmap.add(12345L));
+        
+        assertEquals(1L, idBitmap.size());
+    }
+    
+    @Test
+    public void allocatesOnlyPagesInUse() {
+        IdBitmap idBitmap = new IdBitmap();
+        
+        // same page
+        idBitmap.add(100L);
+        idBitmap.add(65535L);
+        long onePage = idBitmap.getAllocatedBytes();
+        assertEquals(8192L, onePage);
+        
+        // next page, then one far away
+        idBitmap.add(65536L);
+        idBitmap.add(5000000000L);
+        assertEquals(3 * onePage, idBitmap.getAllocatedBytes());
+    }
+    
+    @Test
+    public void lookupsInAnyOrderAreConsistent() {
+        IdBitmap idBitmap = new IdBitmap();
+        for (long id = 0; id < 1000000; id += 7) {
+            idBitmap.add(id);
+        }
+        
+        for (long id = 999999; id >= 0; id -= 3) {
+            assertEquals(id % 7 == 0, idBitmap.contains(id));
+        }
+        assertEquals(142858L, idBitmap.size());
+    }
+    
+}
@@ -0,0 +1,112 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.jejking.hh.nord.gazetteer.osm.poi.PointOfInterest;
+import com.jejking.hh.nord.gazetteer.osm.poi.RxPointOfInterestCollectionBuilder;
+import com.jejking.hh.nord.gazetteer.osm.streets.RxOsmStreetCollectionBuilder;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Tests for {@link OsmGazetteerCollections}.
+ * 
+ * @author jejking
+ *
+ */
+public class OsmGazetteerCollectionsTest {
+
+    private final GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
+    
+    @Test
+    public void singlePassCollectsSameAsSeparatePasses() {
+        OsmGazetteerCollections collections = OsmGazetteerCollections.fromStream(geometryFactory, 
+                OsmGazetteerCollectionsTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+        
+        RxOsmStreetCollectionBuilder streetBuilder = new RxOsmStreetCollectionBuilder(geometryFactory);
+        RxPointOfInterestCollectionBuilder poiBuilder = new RxPointOfInterestCollectionBuilder(geometryFactory);
+        
+        assertEquals(streetBuilder.streetsFromStream(
+                OsmGazetteerCollectionsTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm")),
+                collections.getStreets());
+        
+        ImmutableList<PointOfInterest> pois = poiBuilder.pointsOfInterestFromStream(
+                OsmGazetteerCollectionsTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+        assertEquals(pois.size(), collections.getPointsOfInterest().size());
+    }
+    
+    @Test
+    public void retainingReferencedNodesCollectsSameAsFullParse() {
+        OsmGazetteerCollections full = OsmGazetteerCollections.fromStream(geometryFactory, 
+                OsmGazetteerCollectionsTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+        
+        OsmGazetteerCollections retaining = OsmGazetteerCollections.fromSourcesRetainingReferencedNodes(geometryFactory, 
+                new Supplier<OsmSource>() {
+
+                    @Override
+                    public OsmSource get() {
+                        return new XmlOsmSource(
+                                OsmGazetteerCollectionsTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+                    }
+                    
+                });
+        
+        assertFalse(full.getStreets().isEmpty());
+        assertEquals(full.getStreets(), retaining.getStreets());
+        
+        assertFalse(full.getPointsOfInterest().isEmpty());
+        assertEquals(describe(full.getPointsOfInterest()), describe(retaining.getPointsOfInterest()));
+    }
+    
+    @Test
+    public void collectsStreetsAndPointsOfInterest() {
+        OsmGazetteerCollections collections = OsmGazetteerCollections.fromStream(geometryFactory, 
+                OsmGazetteerCollectionsTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+        
+        assertNotNull(collections.getStreets().get("Mundsburger Damm"));
+        assertNull(collections.getStreets().get("Foostraße"));
+        assertFalse(collections.getPointsOfInterest().isEmpty());
+    }
+    
+    /*
+     * Points of interest don't implement equals, so compare what they are made of.
+     */
+    private static List<String> describe(List<PointOfInterest> pointsOfInterest) {
+        List<String> descriptions = new ArrayList<>();
+        for (PointOfInterest poi : pointsOfInterest) {
+            descriptions.add(poi.getLabel() + " " + poi.getName() + " " + poi.getStreet() + " " + poi.getHouseNumber() 
+                    + " " + poi.getPoint().toText());
+        }
+        return Ordering.natural().sortedCopy(descriptions);
+    }
+    
+}
@@ -0,0 +1,171 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.jejking.hh.nord.gazetteer.osm.BZip2BlockScanner.CompressedBlock;
+
+/**
+ * Tests for {@link ParallelBZip2InputStream}.
+ * 
+ * @author jejking
+ *
+ */
+public class ParallelBZip2InputStreamTest {
+
+    @Test
+    public void decompressesMultipleBlocksInOrder() throws IOException {
+        byte[] original = someText(100000);
+        // smallest block size, so we get several blocks
+        byte[] compressed = compress(original, 1);
+        
+        assertArrayEquals(original, decompress(compressed, 3));
+    }
+    
+    @Test
+    public void decompressesOnOneThread() throws IOException {
+        byte[] original = someText(30000);
+        assertArrayEquals(original, decompress(compress(original, 1), 1));
+    }
+    
+    @Test
+    public void decompressesConcatenatedStreams() throws IOException {
+        byte[] first = someText(25000);
+        byte[] second = someText(100);
+        
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        concatenated.write(compress(first, 1));
+        concatenated.write(compress(second, 9));
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        
+        assertArrayEquals(expected.toByteArray(), decompress(concatenated.toByteArray(), 2));
+    }
+    
+    @Test
+    public void emptyStreamHasNoBytes() throws IOException {
+        assertEquals(0, decompress(compress(new byte[0], 9), 2).length);
+    }
+    
+    @Test(expected = IOException.class)
+    public void truncatedStreamFails() throws IOException {
+        byte[] compressed = compress(someText(30000), 1);
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        decompress(truncated, 2);
+    }
+    
+    @Test
+    public void joinsBlockSplitByChanceMarker() throws IOException {
+        byte[] original = someText(100000);
+        List<CompressedBlock> blocks = scan(compress(original, 1));
+        splitBlock(blocks, 1);
+        
+        assertArrayEquals(original, decompress(blocks, 3));
+    }
+    
+    @Test
+    public void joinsLastBlockSplitByChanceMarker() throws IOException {
+        byte[] original = someText(100000);
+        List<CompressedBlock> blocks = scan(compress(original, 1));
+        splitBlock(blocks, blocks.size() - 1);
+        
+        assertArrayEquals(original, decompress(blocks, 1));
+    }
+    
+    private static List<CompressedBlock> scan(byte[] compressed) throws IOException {
+        BZip2BlockScanner scanner = new BZip2BlockScanner(new ByteArrayInputStream(compressed));
+        List<CompressedBlock> blocks = new ArrayList<>();
+        for (CompressedBlock block = scanner.nextBlock(); block != null; block = scanner.nextBlock()) {
+            blocks.add(block);
+        }
+        return blocks;
+    }
+    
+    /*
+     * Splits the block as the scanner would on finding a marker somewhere in its middle.
+     */
+    private static void splitBlock(List<CompressedBlock> blocks, int index) {
+        CompressedBlock block = blocks.get(index);
+        int splitByte = block.getBits().length / 2;
+        CompressedBlock head = new CompressedBlock(Arrays.copyOfRange(block.getBits(), 0, splitByte), splitByte * 8L);
+        CompressedBlock tail = new CompressedBlock(Arrays.copyOfRange(block.getBits(), splitByte, block.getBits().length), 
+                block.getBitCount() - splitByte * 8L);
+        blocks.set(index, head);
+        blocks.add(index + 1, tail);
+    }
+    
+    private static byte[] decompress(List<CompressedBlock> blocks, int threads) throws IOException {
+        final Iterator<CompressedBlock> iterator = blocks.iterator();
+        BZip2BlockSource blockSource = new BZip2BlockSource() {
+            
+            @Override
+            public CompressedBlock nextBlock() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+        };
+        try (InputStream inputStream = new ParallelBZip2InputStream(new ByteArrayInputStream(new byte[0]), blockSource, threads)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+    
+    private static byte[] decompress(byte[] compressed, int threads) throws IOException {
+        try (InputStream inputStream = new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), threads)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+    
+    private static byte[] compress(byte[] data, int blockSize) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (BZip2CompressorOutputStream outputStream = new BZip2CompressorOutputStream(compressed, blockSize)) {
+            outputStream.write(data);
+        }
+        return compressed.toByteArray();
+    }
+    
+    private static byte[] someText(int nodes) {
+        Random random = new Random(nodes);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < nodes; i++) {
+            sb.append("<node id=\"").append(i).append("\" lat=\"").append(53 + random.nextDouble())
+              .append("\" lon=\"").append(10 + random.nextDouble()).append("\"/>\n");
+        }
+        return sb.toString().getBytes(Charsets.UTF_8);
+    }
+    
+}
@@ -0,0 +1,67 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Tests for {@link SortedArrayNodeLocationStore}.
+ * 
+ * @author jejking
+ *
+ */
+public class SortedArrayNodeLocationStoreTest {
+
+    @Test
+    public void findsNodesPutInAscendingOrder() {
+        SortedArrayNodeLocationStore store = new SortedArrayNodeLocationStore(2);
+        for (long id = 1; id <= 100; id++) {
+            store.put(id * 10, id, -id);
+        }
+        
+        assertEquals(100, store.size());
+        assertEquals(new Coordinate(42, -42), store.getCoordinate(420));
+        assertNull(store.getCoordinate(421));
+        assertNull(store.getCoordinate(0));
+    }
+    
+    @Test
+    public void findsNodesPutOutOfOrderAndLastLocationWins() {
+        SortedArrayNodeLocationStore store = new SortedArrayNodeLocationStore();
+        store.put(30, 3, 3);
+        store.put(10, 1, 1);
+        store.put(20, 2, 2);
+        store.put(10, 11, 11);
+        
+        assertEquals(3, store.size());
+        assertEquals(new Coordinate(11, 11), store.getCoordinate(10));
+        assertEquals(new Coordinate(2, 2), store.getCoordinate(20));
+        assertEquals(new Coordinate(3, 3), store.getCoordinate(30));
+        
+        // and carries on appending afterwards
+        store.put(40, 4, 4);
+        assertEquals(new Coordinate(4, 4), store.getCoordinate(40));
+    }
+    
+}
@@ -0,0 +1,275 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.pbf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.junit.Test;
+
+import rx.functions.Action1;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jejking.osm.OsmNode;
+import com.jejking.osm.OsmRelation;
+import com.jejking.osm.OsmWay;
+
+/**
+ * Tests for {@link PbfOsmSource}.
+ * 
+ * @author jejking
+ *
+ */
+public class PbfOsmSourceTest {
+
+    private static final ImmutableList<String> STRING_TABLE = ImmutableList.of(
+            "", "name", "Foostraße", "highway", "residential", "type", "multipolygon", "outer", "amenity", "school");
+    
+    @Test
+    public void emitsNodesWaysAndRelationsInOrder() throws IOException {
+        PbfOsmSource source = new PbfOsmSource(new ByteArrayInputStream(pbfFile("OsmSchema-V0.6", "DenseNodes")), 
+                                               JTSFactoryFinder.getGeometryFactory(null), 2);
+        final List<Object> emitted = new ArrayList<>();
+        Action1<Object> collector = new Action1<Object>() {
+
+            @Override
+            public void call(Object element) {
+                emitted.add(element);
+            }
+            
+        };
+        source.getNodeObservable().subscribe(collector);
+        source.getWayObservable().subscribe(collector);
+        source.getRelationObservable().subscribe(collector);
+        
+        source.parse();
+        
+        // two identical data blobs
+        assertEquals(10, emitted.size());
+        
+        OsmNode school = (OsmNode) emitted.get(0);
+        assertEquals(1L, school.getId());
+        assertEquals(ImmutableMap.of("amenity", "school"), school.getProperties());
+        assertEquals(10.0, school.getPoint().getX(), 0.0000001);
+        assertEquals(53.5, school.getPoint().getY(), 0.0000001);
+        
+        OsmNode third = (OsmNode) emitted.get(2);
+        assertEquals(3L, third.getId());
+        assertTrue(third.getProperties().isEmpty());
+        assertEquals(10.002, third.getPoint().getX(), 0.0000001);
+        assertEquals(53.498, third.getPoint().getY(), 0.0000001);
+        
+        OsmWay way = (OsmWay) emitted.get(3);
+        assertEquals(10L, way.getId());
+        assertEquals(ImmutableList.of(1L, 2L, 3L), way.getNdRefs());
+        assertEquals(ImmutableMap.of("highway", "residential", "name", "Foostraße"), way.getProperties());
+        
+        OsmRelation relation = (OsmRelation) emitted.get(4);
+        assertEquals(20L, relation.getId());
+        assertEquals("multipolygon", relation.getProperties().get("type"));
+        assertEquals(1, relation.getMembers().size());
+        assertEquals(10L, relation.getMembers().get(0).getRef());
+        assertEquals("outer", relation.getMembers().get(0).getRole().get());
+        
+        assertEquals(1L, ((OsmNode) emitted.get(5)).getId());
+    }
+    
+    @Test(expected = RuntimeException.class)
+    public void rejectsUnsupportedRequiredFeature() throws IOException {
+        PbfOsmSource source = new PbfOsmSource(new ByteArrayInputStream(pbfFile("OsmSchema-V0.6", "HistoricalInformation")), 
+                                               JTSFactoryFinder.getGeometryFactory(null));
+        source.parse();
+    }
+    
+    @Test
+    public void readsPackedAndUnpackedFields() throws IOException {
+        Message message = new Message()
+                                .packed(1, 1, 300, 2)
+                                .varint(1, 7)
+                                .sint(2, -3)
+                                .string(3, "foo");
+        
+        ProtobufReader reader = new ProtobufReader(message.toByteArray());
+        assertTrue(reader.next());
+        assertEquals(1, reader.fieldNumber());
+        long[] packed = reader.readVarints();
+        assertEquals(3, packed.length);
+        assertEquals(300, packed[1]);
+        
+        assertTrue(reader.next());
+        assertEquals(7, reader.readVarints()[0]);
+        
+        assertTrue(reader.next());
+        assertEquals(-3, reader.readSInt64());
+        
+        assertTrue(reader.next());
+        assertEquals(3, reader.fieldNumber());
+        assertEquals("foo", reader.readString());
+        assertFalse(reader.next());
+    }
+    
+    private static byte[] pbfFile(String... requiredFeatures) throws IOException {
+        Message headerBlock = new Message();
+        for (String feature : requiredFeatures) {
+            headerBlock.string(4, feature);
+        }
+        byte[] dataBlob = zlibBlob(primitiveBlock());
+        
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(file);
+        writeBlob(out, "OSMHeader", new Message().bytes(1, headerBlock.toByteArray()).toByteArray());
+        writeBlob(out, "OSMData", dataBlob);
+        writeBlob(out, "OSMData", dataBlob);
+        return file.toByteArray();
+    }
+    
+    private static void writeBlob(DataOutputStream out, String type, byte[] blob) throws IOException {
+        byte[] blobHeader = new Message().string(1, type).varint(3, blob.length).toByteArray();
+        out.writeInt(blobHeader.length);
+        out.write(blobHeader);
+        out.write(blob);
+    }
+    
+    private static byte[] zlibBlob(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+        return new Message().varint(2, data.length).bytes(3, compressed).toByteArray();
+    }
+    
+    private static byte[] primitiveBlock() {
+        Message stringTable = new Message();
+        for (String s : STRING_TABLE) {
+            stringTable.string(1, s);
+        }
+        
+        // three nodes, 0.001 degrees apart, the first one tagged, with granularity 100
+        Message dense = new Message()
+                                .packedSint(1, 1, 1, 1)
+                                .packedSint(8, 535000000, -10000, -10000)
+                                .packedSint(9, 100000000, 10000, 10000)
+                                .packed(10, 8, 9, 0, 0, 0);
+        
+        Message way = new Message()
+                                .varint(1, 10)
+                                .packed(2, 3, 1)
+                                .packed(3, 4, 2)
+                                .packedSint(8, 1, 1, 1);
+        
+        Message relation = new Message()
+                                .varint(1, 20)
+                                .packed(2, 5)
+                                .packed(3, 6)
+                                .packed(8, 7)
+                                .packedSint(9, 10)
+                                .packed(10, 1);
+        
+        // granularity after the groups, to check the decoder does not rely on field order
+        return new Message()
+                    .message(1, stringTable)
+                    .message(2, new Message().message(2, dense))
+                    .message(2, new Message().message(3, way))
+                    .message(2, new Message().message(4, relation))
+                    .varint(17, 100)
+                    .toByteArray();
+    }
+    
+    /**
+     * Just enough of a protocol buffers writer to build test data.
+     */
+    private static final class Message {
+        
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        Message varint(int field, long value) {
+            writeVarint(this.out, (field << 3) | ProtobufReader.WIRE_TYPE_VARINT);
+            writeVarint(this.out, value);
+            return this;
+        }
+        
+        Message sint(int field, long value) {
+            return varint(field, zigZag(value));
+        }
+        
+        Message bytes(int field, byte[] value) {
+            writeVarint(this.out, (field << 3) | ProtobufReader.WIRE_TYPE_LENGTH_DELIMITED);
+            writeVarint(this.out, value.length);
+            this.out.write(value, 0, value.length);
+            return this;
+        }
+        
+        Message string(int field, String value) {
+            return bytes(field, value.getBytes(Charsets.UTF_8));
+        }
+        
+        Message message(int field, Message value) {
+            return bytes(field, value.toByteArray());
+        }
+        
+        Message packed(int field, long... values) {
+            ByteArrayOutputStream packed = new ByteArrayOutputStream();
+            for (long value : values) {
+                writeVarint(packed, value);
+            }
+            return bytes(field, packed.toByteArray());
+        }
+        
+        Message packedSint(int field, long... values) {
+            long[] encoded = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                encoded[i] = zigZag(values[i]);
+            }
+            return packed(field, encoded);
+        }
+        
+        byte[] toByteArray() {
+            return this.out.toByteArray();
+        }
+        
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+        
+        private static void writeVarint(ByteArrayOutputStream out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+    
+}
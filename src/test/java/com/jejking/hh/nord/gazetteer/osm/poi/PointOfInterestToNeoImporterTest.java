@@ -26,6 +26,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.neo4j.graphdb.Direction;
@@ -36,11 +42,17 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.Index;
+import org.neo4j.tooling.GlobalGraphOperations;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.jejking.hh.nord.TestUtil;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
 import com.jejking.hh.nord.gazetteer.GazetteerRelationshipTypes;
 import com.jejking.hh.nord.gazetteer.osm.poi.PointOfInterestToNeoImporter;
+import com.jejking.hh.nord.gazetteer.osm.streets.OsmStreetCollectionToNeoImporter;
+import com.jejking.hh.nord.gazetteer.osm.streets.RxOsmStreetCollectionBuilder;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Tests {@link PointOfInterestToNeoImporter}.
@@ -119,5 +131,175 @@ public class PointOfInterestToNeoImporterTest {
             }
         }
     }
+    
+    @Test
+    public void smallBatchesWriteAllPointsOfInterest() {
+        GraphDatabaseService batchedGraph = TestUtil.createTestDatabase();
+        try {
+            TestUtil.writeUhlenhorstOsmStreetsToGraph(batchedGraph);
+            List<PointOfInterest> pois = new RxPointOfInterestCollectionBuilder(JTSFactoryFinder.getGeometryFactory())
+                                            .pointsOfInterestFromStream(PointOfInterestToNeoImporterTest.class
+                                                    .getResourceAsStream("/uhlenhorst-direct-export.osm"));
+            
+            new PointOfInterestToNeoImporter(7).writeToNeo(pois, batchedGraph);
+            
+            try (Transaction tx = batchedGraph.beginTx()) {
+                assertEquals(countSchools(graph), countSchools(batchedGraph));
+                try (ResourceIterator<Node> iterator = batchedGraph
+                                                        .findNodesByLabelAndProperty(
+                                                                DynamicLabel.label(GazetteerEntryTypes.SCHOOL),
+                                                                NAME, "Gymnasium Lerchenfeld")
+                                                        .iterator()) {
+                    Node school = iterator.next();
+                    assertTrue(school.hasRelationship(GazetteerRelationshipTypes.CONTAINS, Direction.INCOMING));
+                }
+            }
+        } finally {
+            batchedGraph.shutdown();
+        }
+    }
+    
+    @Test
+    public void linksToStreetsByHandedOverNodeIds() {
+        GraphDatabaseService linkedGraph = TestUtil.createTestDatabase();
+        try {
+            Map<String, Geometry> streets = new RxOsmStreetCollectionBuilder(JTSFactoryFinder.getGeometryFactory(null))
+                                                .streetsFromStream(PointOfInterestToNeoImporterTest.class
+                                                        .getResourceAsStream("/uhlenhorst-direct-export.osm"));
+            ImmutableMap<String, Long> streetNodeIds = new OsmStreetCollectionToNeoImporter()
+                                                            .writeStreetsToNeo(streets, linkedGraph);
+            assertEquals(streets.keySet(), streetNodeIds.keySet());
+            
+            // point Lerchenfeld at another street's node, which looking it up in the graph never would
+            Map<String, Long> misleadingNodeIds = new HashMap<>(streetNodeIds);
+            misleadingNodeIds.put("Lerchenfeld", streetNodeIds.get("Mundsburger Damm"));
+            
+            List<PointOfInterest> pois = new RxPointOfInterestCollectionBuilder(JTSFactoryFinder.getGeometryFactory())
+                                            .pointsOfInterestFromStream(PointOfInterestToNeoImporterTest.class
+                                                    .getResourceAsStream("/uhlenhorst-direct-export.osm"));
+            new PointOfInterestToNeoImporter(PointOfInterestToNeoImporter.DEFAULT_BATCH_SIZE, misleadingNodeIds)
+                .writeToNeo(pois, linkedGraph);
+            
+            try (Transaction tx = linkedGraph.beginTx()) {
+                try (ResourceIterator<Node> iterator = linkedGraph
+                                                        .findNodesByLabelAndProperty(
+                                                                DynamicLabel.label(GazetteerEntryTypes.SCHOOL),
+                                                                NAME, "Gymnasium Lerchenfeld")
+                                                        .iterator()) {
+                    Node school = iterator.next();
+                    Relationship contains = school.getRelationships(GazetteerRelationshipTypes.CONTAINS, 
+                                                                    Direction.INCOMING).iterator().next();
+                    assertEquals(streetNodeIds.get("Mundsburger Damm").longValue(), contains.getStartNode().getId());
+                    assertEquals("Mundsburger Damm", contains.getStartNode().getProperty(NAME));
+                }
+            }
+        } finally {
+            linkedGraph.shutdown();
+        }
+    }
+    
+    @Test
+    public void reportsProgressToListener() {
+        GraphDatabaseService reportingGraph = TestUtil.createTestDatabase();
+        try {
+            List<PointOfInterest> pois = new RxPointOfInterestCollectionBuilder(JTSFactoryFinder.getGeometryFactory())
+                                            .pointsOfInterestFromStream(PointOfInterestToNeoImporterTest.class
+                                                    .getResourceAsStream("/uhlenhorst-direct-export.osm"));
+            final int poiCount = pois.size();
+            final List<Integer> batchNumbers = new ArrayList<>();
+            final int[] finished = new int[2];
+            
+            new PointOfInterestToNeoImporter(7, ImmutableMap.<String, Long>of(), 
+                    new PointOfInterestToNeoImporter.ProgressListener() {
+                
+                        @Override
+                        public void batchWritten(int batchNumber, int batchCount, int written, int failed, 
+                                long elapsedMillis) {
+                            batchNumbers.add(batchNumber);
+                            assertEquals(Math.min(batchNumber * 7, poiCount), written + failed);
+                        }
+                
+                        @Override
+                        public void importFinished(int written, int failed, long commitMillis, long elapsedMillis) {
+                            finished[0] = written;
+                            finished[1] = failed;
+                        }
+                    }).writeToNeo(pois, reportingGraph);
+            
+            assertEquals((pois.size() + 6) / 7, batchNumbers.size());
+            assertEquals(Integer.valueOf(batchNumbers.size()), batchNumbers.get(batchNumbers.size() - 1));
+            assertEquals(pois.size(), finished[0]);
+            assertEquals(0, finished[1]);
+        } finally {
+            reportingGraph.shutdown();
+        }
+    }
+    
+    @Test
+    public void failedPointOfInterestIsRolledBackAndOthersWritten() {
+        GraphDatabaseService failingGraph = TestUtil.createTestDatabase();
+        try {
+            List<PointOfInterest> pois = new RxPointOfInterestCollectionBuilder(JTSFactoryFinder.getGeometryFactory())
+                                            .pointsOfInterestFromStream(PointOfInterestToNeoImporterTest.class
+                                                    .getResourceAsStream("/uhlenhorst-direct-export.osm"));
+            int onLerchenfeld = 0;
+            for (PointOfInterest poi : pois) {
+                if (poi.getStreet().equals(Optional.of("Lerchenfeld"))) {
+                    onLerchenfeld++;
+                }
+            }
+            assertTrue(onLerchenfeld > 0);
+            final int[] finished = new int[2];
+            
+            // linking to a street node that does not exist fails after the point has been added to the layer
+            new PointOfInterestToNeoImporter(7, ImmutableMap.of("Lerchenfeld", Long.MAX_VALUE), 
+                    new PointOfInterestToNeoImporter.ProgressListener() {
+                
+                        @Override
+                        public void batchWritten(int batchNumber, int batchCount, int written, int failed, 
+                                long elapsedMillis) {
+                            // not of interest here
+                        }
+                
+                        @Override
+                        public void importFinished(int written, int failed, long commitMillis, long elapsedMillis) {
+                            finished[0] = written;
+                            finished[1] = failed;
+                        }
+                    }).writeToNeo(pois, failingGraph);
+            
+            assertEquals(pois.size() - onLerchenfeld, finished[0]);
+            assertEquals(onLerchenfeld, finished[1]);
+            try (Transaction tx = failingGraph.beginTx()) {
+                int named = 0;
+                for (Node node : GlobalGraphOperations.at(failingGraph).getAllNodes()) {
+                    assertFalse("Gymnasium Lerchenfeld".equals(node.getProperty(NAME, null)));
+                    if (node.hasProperty(NAME)) {
+                        named++;
+                    }
+                }
+                assertTrue(named > 0);
+            }
+        } finally {
+            failingGraph.shutdown();
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void batchSizeMustBePositive() {
+        new PointOfInterestToNeoImporter(0);
+    }
+    
+    private static int countSchools(GraphDatabaseService graphDatabaseService) {
+        int count = 0;
+        try (Transaction tx = graphDatabaseService.beginTx()) {
+            for (@SuppressWarnings("unused") Node node : GlobalGraphOperations.at(graphDatabaseService)
+                    .getAllNodesWithLabel(DynamicLabel.label(GazetteerEntryTypes.SCHOOL))) {
+                count++;
+            }
+            tx.success();
+        }
+        return count;
+    }
 
 }
@@ -43,6 +43,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
 import com.jejking.hh.nord.gazetteer.osm.RelationWaysToPolygonTest;
+import com.jejking.hh.nord.gazetteer.osm.XmlOsmSource;
 import com.jejking.hh.nord.gazetteer.osm.poi.PointOfInterest;
 import com.jejking.hh.nord.gazetteer.osm.poi.RxPointOfInterestCollectionBuilder;
 import com.jejking.osm.OsmMetadataHolder;
@@ -195,5 +196,19 @@ public class RxPointOfInterestCollectionBuilderTest {
         assertEquals(lerchenfeldGymnasium.getPoint().getX(), 10.03019, 0.00001);
         assertEquals(lerchenfeldGymnasium.getPoint().getY(), 53.56902, 0.00001);
     }
+    
+    @Test(expected = IllegalStateException.class)
+    public void mayOnlyBeUsedOnce() {
+        builder.pointsOfInterestFromStream(RxPointOfInterestCollectionBuilder.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+        
+        builder.pointsOfInterestFromStream(RxPointOfInterestCollectionBuilder.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void mayOnlyBeAttachedOnce() {
+        builder.attachTo(new XmlOsmSource(RxPointOfInterestCollectionBuilder.class.getResourceAsStream("/uhlenhorst-direct-export.osm")));
+        
+        builder.attachTo(new XmlOsmSource(RxPointOfInterestCollectionBuilder.class.getResourceAsStream("/uhlenhorst-direct-export.osm")));
+    }
 
 }
@@ -0,0 +1,134 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.streets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import com.google.common.collect.ImmutableSet;
+import com.jejking.hh.nord.TestUtil;
+import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
+import com.jejking.hh.nord.gazetteer.GazetteerPropertyNames;
+import com.jejking.hh.nord.gazetteer.GazetteerRelationshipTypes;
+
+/**
+ * Tests for {@link ParallelStreetToAdminPolygonMapper}, which should give the same
+ * results as {@link StreetToAdminPolygonMapper}.
+ * 
+ * @author jejking
+ *
+ */
+public class ParallelStreetToAdminPolygonMapperTest {
+
+    private static GraphDatabaseService graphDatabaseService;
+    
+    @BeforeClass
+    public static void init() {
+        graphDatabaseService = TestUtil.createTestDatabase();
+        TestUtil.writeHamburgPolygonsToGraph(graphDatabaseService);
+        TestUtil.writeHamburgNordOsmStreetsToGraph(graphDatabaseService);
+        
+        // small batches to exercise the batching
+        new ParallelStreetToAdminPolygonMapper(4, 100).mapStreetsToPolygons(graphDatabaseService);
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        graphDatabaseService.shutdown();
+    }
+    
+    @Test
+    public void peterstrasseIn106() {
+        assertEquals(ImmutableSet.of("106"), containingDistricts("Peterstraße"));
+    }
+    
+    @Test
+    public void schwanenwikIn415and416() {
+        assertEquals(ImmutableSet.of("415", "416"), containingDistricts("Schwanenwik"));
+    }
+    
+    @Test
+    public void containsSameStreetsAsSequentialMapper() {
+        GraphDatabaseService sequentialGraph = TestUtil.createTestDatabase();
+        try {
+            TestUtil.writeHamburgPolygonsToGraph(sequentialGraph);
+            TestUtil.writeHamburgNordOsmStreetsToGraph(sequentialGraph);
+            new StreetToAdminPolygonMapper().mapStreetsToPolygons(sequentialGraph);
+            
+            Set<String> expected = districtStreetPairs(sequentialGraph);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, districtStreetPairs(graphDatabaseService));
+        } finally {
+            sequentialGraph.shutdown();
+        }
+    }
+    
+    /*
+     * Each district number and street name linked by a CONTAINS relationship.
+     */
+    private static Set<String> districtStreetPairs(GraphDatabaseService graph) {
+        Set<String> pairs = new HashSet<>();
+        try (Transaction tx = graph.beginTx()) {
+            for (Node district : GlobalGraphOperations.at(graph)
+                                    .getAllNodesWithLabel(DynamicLabel.label(GazetteerEntryTypes.NUMBERED_DISTRICT))) {
+                for (Relationship rel : district.getRelationships(Direction.OUTGOING, GazetteerRelationshipTypes.CONTAINS)) {
+                    Node street = rel.getEndNode();
+                    if (street.hasLabel(DynamicLabel.label(GazetteerEntryTypes.STREET))) {
+                        pairs.add(district.getProperty(GazetteerPropertyNames.NUMBER) + " contains " 
+                                + street.getProperty(GazetteerPropertyNames.NAME));
+                    }
+                }
+            }
+        }
+        return pairs;
+    }
+    
+    private Set<String> containingDistricts(String streetName) {
+        Set<String> districts = new HashSet<>();
+        try (Transaction tx = graphDatabaseService.beginTx()) {
+            Node street = getNode(streetName);
+            for (Relationship rel : street.getRelationships(Direction.INCOMING, GazetteerRelationshipTypes.CONTAINS)) {
+                districts.add((String) rel.getStartNode().getProperty(GazetteerPropertyNames.NUMBER));
+            }
+        }
+        return districts;
+    }
+    
+    private Node getNode(String streetName) {
+        return graphDatabaseService.findNodesByLabelAndProperty(
+                                        DynamicLabel.label(GazetteerEntryTypes.STREET), 
+                                        GazetteerPropertyNames.NAME,
+                                        streetName).iterator().next();
+    }
+    
+}
@@ -20,6 +20,7 @@ package com.jejking.hh.nord.gazetteer.osm.streets;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 
 import java.util.Map;
@@ -27,6 +28,7 @@ import java.util.Map;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.junit.Test;
 
+import com.jejking.hh.nord.gazetteer.osm.XmlOsmSource;
 import com.jejking.hh.nord.gazetteer.osm.streets.RxOsmStreetCollectionBuilder;
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -55,4 +57,32 @@ public class RxOsmStreetCollectionBuilderTest {
         assertNull(fooStrasse);
 
     }
+    
+    @Test(expected = IllegalStateException.class)
+    public void mayOnlyBeUsedOnce() {
+        RxOsmStreetCollectionBuilder builder = new RxOsmStreetCollectionBuilder(
+                JTSFactoryFinder.getGeometryFactory(null));
+        builder.streetsFromStream(RxOsmStreetCollectionBuilderTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+        
+        builder.streetsFromStream(RxOsmStreetCollectionBuilderTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void mayOnlyBeAttachedOnce() {
+        RxOsmStreetCollectionBuilder builder = new RxOsmStreetCollectionBuilder(
+                JTSFactoryFinder.getGeometryFactory(null));
+        builder.attachTo(new XmlOsmSource(RxOsmStreetCollectionBuilderTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm")));
+        
+        builder.attachTo(new XmlOsmSource(RxOsmStreetCollectionBuilderTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm")));
+    }
+    
+    @Test
+    public void mergesStreetsOnce() {
+        RxOsmStreetCollectionBuilder builder = new RxOsmStreetCollectionBuilder(
+                JTSFactoryFinder.getGeometryFactory(null));
+        Map<String, Geometry> streets = builder.streetsFromStream(
+                RxOsmStreetCollectionBuilderTest.class.getResourceAsStream("/uhlenhorst-direct-export.osm"));
+        
+        assertSame(streets, builder.getStreets());
+    }
 }
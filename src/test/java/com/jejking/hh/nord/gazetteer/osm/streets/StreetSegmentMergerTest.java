@@ -0,0 +1,97 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.gazetteer.osm.streets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Tests for {@link StreetSegmentMerger}.
+ * 
+ * @author jejking
+ *
+ */
+public class StreetSegmentMergerTest {
+
+    private static GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
+    
+    @Test
+    public void singleSegmentIsReturnedAsIs() {
+        LineString segment = segment(0, 0, 1, 0);
+        
+        Geometry merged = new StreetSegmentMerger(geometryFactory).merge(ImmutableList.of(segment));
+        
+        assertSame(segment, merged);
+    }
+    
+    @Test
+    public void mergedSegmentsEqualPairwiseUnion() {
+        List<LineString> segments = ImmutableList.of(segment(0, 0, 1, 0), 
+                                                     segment(1, 0, 2, 0),
+                                                     segment(2, 0, 2, 1),
+                                                     segment(1, 0, 2, 0)); // duplicated in the data
+        
+        Geometry merged = new StreetSegmentMerger(geometryFactory).merge(segments);
+        
+        Geometry pairwise = segments.get(0);
+        for (LineString segment : segments.subList(1, segments.size())) {
+            pairwise = segment.union(pairwise);
+        }
+        
+        assertTrue(merged.equalsTopo(pairwise));
+        assertEquals(3.0, merged.getLength(), 0.000001);
+    }
+    
+    @Test
+    public void mergesAllStreetsOnSeveralThreads() {
+        Map<String, List<LineString>> segmentsByName = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            segmentsByName.put("Straße " + i, ImmutableList.of(segment(0, i, 1, i), segment(1, i, 2, i)));
+        }
+        
+        ImmutableMap<String, Geometry> sequential = new StreetSegmentMerger(geometryFactory, 1).mergeAll(segmentsByName);
+        ImmutableMap<String, Geometry> parallel = new StreetSegmentMerger(geometryFactory, 4).mergeAll(segmentsByName);
+        
+        assertEquals(ImmutableList.copyOf(segmentsByName.keySet()), parallel.keySet().asList());
+        for (String name : segmentsByName.keySet()) {
+            assertTrue(sequential.get(name).equalsTopo(parallel.get(name)));
+            assertEquals(2.0, parallel.get(name).getLength(), 0.000001);
+        }
+    }
+    
+    private static LineString segment(double x1, double y1, double x2, double y2) {
+        return geometryFactory.createLineString(new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y2)});
+    }
+    
+}
@@ -0,0 +1,139 @@
+/*
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jejking.hh.nord.corpus.DrucksacheNames;
+import com.jejking.hh.nord.corpus.RawDrucksache;
+
+/**
+ * Tests for {@link BatchingRawDrucksacheNeoWriter}.
+ *
+ * @author jejking
+ *
+ */
+public class BatchingRawDrucksacheNeoWriterTest {
+
+    private GraphDatabaseService graph;
+
+    @Before
+    public void givenAGraphDatabase() {
+        this.graph = new TestGraphDatabaseFactory()
+            .newImpermanentDatabaseBuilder()
+            .newGraphDatabase();
+    }
+
+    @After
+    public void tearDownGraph() {
+        this.graph.shutdown();
+    }
+
+    @Test
+    public void writesFullBatchesAndPartialBatchOnCompletion() {
+        BatchingRawDrucksacheNeoWriter writer = new BatchingRawDrucksacheNeoWriter(this.graph, 2);
+
+        writer.onNext(drucksache("1"));
+        writer.onNext(drucksache("2"));
+        assertEquals(2, countDrucksachen()); // first batch committed
+
+        writer.onNext(drucksache("3"));
+        writer.onCompleted();
+        assertEquals(3, countDrucksachen());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rollsBackOpenBatchOnError() {
+        BatchingRawDrucksacheNeoWriter writer = new BatchingRawDrucksacheNeoWriter(this.graph, 10);
+        writer.onNext(drucksache("1"));
+        try {
+            writer.onError(new IllegalStateException("boom"));
+        } finally {
+            assertEquals(0, countDrucksachen());
+        }
+    }
+
+    @Test
+    public void opensFreshTransactionAfterFailedCommit() {
+        BatchingRawDrucksacheNeoWriter writer = new BatchingRawDrucksacheNeoWriter(this.graph, 2);
+
+        writer.onNext(drucksache("1"));
+        // a nested transaction on the same thread marks the writer's open transaction for rollback
+        try (Transaction nested = this.graph.beginTx()) {
+            nested.failure();
+        }
+        try {
+            writer.onNext(drucksache("2"));
+            fail("commit of batch marked for rollback should fail");
+        } catch (TransactionFailureException expected) {
+            // the batch is lost, but the writer must not hang on to the dead transaction
+        }
+        assertEquals(0, countDrucksachen());
+
+        writer.onNext(drucksache("3"));
+        writer.onCompleted();
+        assertEquals(1, countDrucksachen());
+    }
+
+    private int countDrucksachen() {
+        int count = 0;
+        try (Transaction tx = this.graph.beginTx()) {
+            for (@SuppressWarnings("unused") Node node : GlobalGraphOperations.at(this.graph)
+                    .getAllNodesWithLabel(DynamicLabel.label(DrucksacheNames.DRUCKSACHE))) {
+                count++;
+            }
+            tx.success();
+        }
+        return count;
+    }
+
+    private RawDrucksacheWithLabelledMatches drucksache(String id) {
+        try {
+            RawDrucksache original = new RawDrucksache(
+                                        id,
+                                        new URL("http://foo.com/" + id),
+                                        Optional.<LocalDate>absent(),
+                                        ImmutableMap.of("Betreff", "Superspannend"),
+                                        ImmutableList.of("c", "d"));
+            return new RawDrucksacheWithLabelledMatches(original, ImmutableMap.<String, Matches>of());
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
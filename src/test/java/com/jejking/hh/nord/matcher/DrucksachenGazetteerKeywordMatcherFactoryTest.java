@@ -20,6 +20,7 @@ package com.jejking.hh.nord.matcher;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 
 import org.joda.time.DateTimeConstants;
@@ -27,6 +28,7 @@ import org.joda.time.LocalDate;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -34,6 +36,7 @@ import com.google.common.collect.ImmutableMap;
 import com.jejking.hh.nord.TestUtil;
 import com.jejking.hh.nord.corpus.RawDrucksache;
 import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
+import com.jejking.hh.nord.gazetteer.GazetteerPropertyNames;
 
 import static org.junit.Assert.*;
 
@@ -74,6 +77,28 @@ public class DrucksachenGazetteerKeywordMatcherFactoryTest {
         assertTrue(matchers.get(GazetteerEntryTypes.SCHOOL).getGazetteerKeywordMatcher().getKeywordSet().contains("Gymnasium Lerchenfeld"));
     }
 
+    @Test
+    public void nodeLookupResolvesNamesAndVariantsToSameNodes() {
+        DrucksachenGazetteerKeywordMatcherFactory factory = new DrucksachenGazetteerKeywordMatcherFactory();
+        GazetteerNodeLookup lookup = factory.createNodeLookupFromGazetteer(graph, 
+                                                ImmutableList.of(GazetteerEntryTypes.STREET));
+        
+        assertTrue(lookup.hasLabel(GazetteerEntryTypes.STREET));
+        assertFalse(lookup.hasLabel(GazetteerEntryTypes.SCHOOL));
+        
+        List<Long> exact = lookup.getNodeIds(GazetteerEntryTypes.STREET, "Mundsburger Damm");
+        assertFalse(exact.isEmpty());
+        assertEquals(exact, lookup.getNodeIds(GazetteerEntryTypes.STREET, "Mundsburger Damms"));
+        assertEquals(exact, lookup.getNodeIds(GazetteerEntryTypes.STREET, "Mundsburger Dammes"));
+        
+        try (Transaction tx = graph.beginTx()) {
+            assertEquals("Mundsburger Damm", graph.getNodeById(exact.get(0)).getProperty(GazetteerPropertyNames.NAME));
+            tx.success();
+        }
+        
+        assertTrue(lookup.getNodeIds(GazetteerEntryTypes.STREET, "Nichtexistierende Straße").isEmpty());
+    }
+
     @Test
     public void runsThrough() {
         DrucksachenGazetteerKeywordMatcherFactory factory = new DrucksachenGazetteerKeywordMatcherFactory();
@@ -0,0 +1,304 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.jejking.hh.nord.corpus.DrucksacheNames;
+import com.jejking.hh.nord.corpus.RawDrucksache;
+import com.jejking.hh.nord.corpus.RawDrucksacheSegmentWriter;
+import com.jejking.hh.nord.gazetteer.GazetteerPropertyNames;
+import com.jejking.hh.nord.gazetteer.GazetteerRelationshipTypes;
+
+import rx.functions.Func1;
+
+/**
+ * Tests for {@link ImportAndMatch#updateMatchesInNeo(Iterable, GraphDatabaseService)}, run sequentially
+ * and in parallel.
+ * 
+ * <p>Between imports the header of every <i>Drucksache</i> in the graph is overwritten, so that
+ * those written again can be told apart from those skipped.</p>
+ * 
+ * @author jejking
+ *
+ */
+public class ImportAndMatchTest {
+
+    private static final String STREET = "STREET";
+    private static final String NOT_REWRITTEN = "nicht neu geschrieben";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private GraphDatabaseService graph;
+    
+    @Before
+    public void setUp() {
+        this.graph = createGraph();
+    }
+    
+    private static GraphDatabaseService createGraph() {
+        GraphDatabaseService graphDatabaseService = new TestGraphDatabaseFactory()
+                                                        .newImpermanentDatabaseBuilder()
+                                                        .newGraphDatabase();
+        try (Transaction tx = graphDatabaseService.beginTx()) {
+            for (String name : ImmutableList.of("Kuhkamp", "Barstraße")) {
+                Node street = graphDatabaseService.createNode(DynamicLabel.label(STREET));
+                street.setProperty(GazetteerPropertyNames.NAME, name);
+            }
+            tx.success();
+        }
+        return graphDatabaseService;
+    }
+    
+    @After
+    public void tearDown() {
+        this.graph.shutdown();
+    }
+    
+    @Test
+    public void writesNewDrucksache() throws Exception {
+        File first = givenSegment("first", drucksache("1", "Sanierung Barstraße"));
+        importAndMatch("Barstraße").updateMatchesInNeo(ImmutableList.of(first), this.graph);
+        markHeaders();
+        
+        File second = givenSegment("second", drucksache("2", "Sanierung Kuhkamp"));
+        importAndMatch("Barstraße").updateMatchesInNeo(ImmutableList.of(first, second), this.graph);
+        
+        assertEquals(NOT_REWRITTEN, header("1"));
+        assertEquals("Sanierung Kuhkamp", header("2"));
+    }
+    
+    @Test
+    public void rewritesDrucksacheContainingChangedKeyword() throws Exception {
+        File segment = givenSegment("segment", drucksache("1", "Sanierung Barstraße"), drucksache("2", "Sanierung Kuhkamp"));
+        importAndMatch("Barstraße").updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+        assertEquals(ImmutableSet.<String>of(), references("2"));
+        markHeaders();
+        
+        importAndMatch("Barstraße", "Kuhkamp").updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+        
+        assertEquals(NOT_REWRITTEN, header("1"));
+        assertEquals("Sanierung Kuhkamp", header("2"));
+        assertEquals(ImmutableSet.of("Kuhkamp"), references("2"));
+    }
+    
+    @Test
+    public void rewritesDrucksacheWithChangedContent() throws Exception {
+        File segment = givenSegment("segment", drucksache("1", "Sanierung Barstraße"), drucksache("2", "Sanierung Barstraße"));
+        importAndMatch("Barstraße", "Kuhkamp").updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+        markHeaders();
+        
+        // extracted again, now with different content
+        assertTrue(segment.delete());
+        segment = givenSegment("segment", drucksache("1", "Sanierung Barstraße"), drucksache("2", "Sanierung Kuhkamp"));
+        importAndMatch("Barstraße", "Kuhkamp").updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+        
+        assertEquals(NOT_REWRITTEN, header("1"));
+        assertEquals("Sanierung Kuhkamp", header("2"));
+        assertEquals(ImmutableSet.of("Kuhkamp"), references("2"));
+    }
+    
+    @Test
+    public void skipsUnchangedDrucksache() throws Exception {
+        File segment = givenSegment("segment", drucksache("1", "Sanierung Barstraße"), drucksache("2", "Sanierung Kuhkamp"));
+        importAndMatch("Barstraße", "Kuhkamp").updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+        markHeaders();
+        
+        importAndMatch("Barstraße", "Kuhkamp").updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+        
+        assertEquals(NOT_REWRITTEN, header("1"));
+        assertEquals(NOT_REWRITTEN, header("2"));
+        assertEquals(ImmutableSet.of("Barstraße"), references("1"));
+        assertEquals(ImmutableSet.of("Kuhkamp"), references("2"));
+    }
+    
+    @Test
+    public void parallelImportWritesSameAsSequentialImportInInputOrder() throws Exception {
+        File segment = givenSegment("segment", someDrucksachen(20));
+        importAndMatch("Barstraße", "Kuhkamp").updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+        
+        GraphDatabaseService parallelGraph = createGraph();
+        try {
+            // a small window and batches, so that several of each are needed
+            new ImportAndMatch(matchers("Barstraße", "Kuhkamp"), Optional.<GazetteerNodeLookup>absent(), 3, 4)
+                .updateMatchesInNeo(ImmutableList.of(segment), parallelGraph);
+            
+            List<String> sequentiallyWritten = writtenDrucksachen(this.graph);
+            assertEquals(20, sequentiallyWritten.size());
+            assertEquals(sequentiallyWritten, writtenDrucksachen(parallelGraph));
+        } finally {
+            parallelGraph.shutdown();
+        }
+    }
+    
+    @Test
+    public void parallelImportRollsBackBatchAndRethrowsIfLabellingFails() throws Exception {
+        File segment = givenSegment("segment", someDrucksachen(10));
+        final RawDrucksachenLabeller labeller = new RawDrucksachenLabeller(matchers("Barstraße", "Kuhkamp"));
+        final IllegalStateException failure = new IllegalStateException("labelling failed");
+        Func1<RawDrucksache, RawDrucksacheWithLabelledMatches> failingLabeller = 
+                new Func1<RawDrucksache, RawDrucksacheWithLabelledMatches>() {
+            
+            @Override
+            public RawDrucksacheWithLabelledMatches call(RawDrucksache rawDrucksache) {
+                if (rawDrucksache.getDrucksachenId().equals("7")) {
+                    throw failure;
+                }
+                return labeller.call(rawDrucksache);
+            }
+        };
+        
+        try {
+            new ImportAndMatch(matchers("Barstraße", "Kuhkamp"), failingLabeller, Optional.<GazetteerNodeLookup>absent(), 3, 4)
+                .updateMatchesInNeo(ImmutableList.of(segment), this.graph);
+            fail("labelling failure not reported");
+        } catch (RuntimeException e) {
+            assertTrue(Throwables.getCausalChain(e).contains(failure));
+        }
+        
+        // the first batch was committed, the one under way when labelling failed rolled back
+        List<String> written = writtenDrucksachen(this.graph);
+        assertEquals(4, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertTrue(written.get(i).startsWith((i + 1) + ": "));
+        }
+    }
+    
+    private static ImportAndMatch importAndMatch(String... streets) {
+        return new ImportAndMatch(matchers(streets));
+    }
+    
+    private static ImmutableMap<String, DrucksachenGazetteerKeywordMatcher> matchers(String... streets) {
+        return ImmutableMap.of(STREET, new DrucksachenGazetteerKeywordMatcher(ImmutableList.copyOf(streets), STREET));
+    }
+    
+    private static RawDrucksache[] someDrucksachen(int count) throws Exception {
+        RawDrucksache[] drucksachen = new RawDrucksache[count];
+        for (int i = 0; i < count; i++) {
+            drucksachen[i] = drucksache(Integer.toString(i + 1), i % 3 == 0 ? "Sanierung Barstraße" 
+                                                                : i % 3 == 1 ? "Sanierung Kuhkamp" : "Haushalt");
+        }
+        return drucksachen;
+    }
+    
+    /*
+     * Every Drucksache in the graph, in the order written, with its header and references.
+     */
+    private static List<String> writtenDrucksachen(GraphDatabaseService graphDatabaseService) {
+        SortedMap<Long, String> byNodeId = new TreeMap<>();
+        try (Transaction tx = graphDatabaseService.beginTx()) {
+            for (Node node : GlobalGraphOperations.at(graphDatabaseService)
+                                .getAllNodesWithLabel(DynamicLabel.label(DrucksacheNames.DRUCKSACHE))) {
+                Set<String> references = new TreeSet<>();
+                for (Relationship rel : node.getRelationships(GazetteerRelationshipTypes.REFERS_TO)) {
+                    references.add((String) rel.getEndNode().getProperty(GazetteerPropertyNames.NAME));
+                }
+                byNodeId.put(node.getId(), node.getProperty(DrucksacheNames.DRUCKSACHE_ID) + ": " 
+                        + node.getProperty(DrucksacheNames.HEADER) + " " + references);
+            }
+            tx.success();
+        }
+        return new ArrayList<>(byNodeId.values());
+    }
+    
+    private File givenSegment(String name, RawDrucksache... drucksachen) throws Exception {
+        File file = new File(this.folder.getRoot(), name + RawDrucksacheSegmentWriter.FILE_SUFFIX);
+        try (RawDrucksacheSegmentWriter writer = RawDrucksacheSegmentWriter.create(file, true)) {
+            for (RawDrucksache rawDrucksache : drucksachen) {
+                writer.write(rawDrucksache);
+            }
+        }
+        return file;
+    }
+    
+    private static RawDrucksache drucksache(String id, String betreff) throws Exception {
+        return new RawDrucksache(id, 
+                                 new URL("http://foo.com/" + id), 
+                                 Optional.<LocalDate>absent(), 
+                                 ImmutableMap.of("Betreff", betreff), 
+                                 ImmutableList.of("Beschluss zu " + betreff));
+    }
+    
+    private void markHeaders() {
+        try (Transaction tx = this.graph.beginTx()) {
+            for (String drucksachenId : ImmutableList.of("1", "2")) {
+                drucksacheNode(drucksachenId).setProperty(DrucksacheNames.HEADER, NOT_REWRITTEN);
+            }
+            tx.success();
+        }
+    }
+    
+    private String header(String drucksachenId) {
+        try (Transaction tx = this.graph.beginTx()) {
+            String header = (String) drucksacheNode(drucksachenId).getProperty(DrucksacheNames.HEADER);
+            tx.success();
+            return header;
+        }
+    }
+    
+    private Set<String> references(String drucksachenId) {
+        try (Transaction tx = this.graph.beginTx()) {
+            Set<String> references = new HashSet<>();
+            for (Relationship rel : drucksacheNode(drucksachenId).getRelationships(GazetteerRelationshipTypes.REFERS_TO)) {
+                references.add((String) rel.getEndNode().getProperty(GazetteerPropertyNames.NAME));
+            }
+            tx.success();
+            return references;
+        }
+    }
+    
+    private Node drucksacheNode(String drucksachenId) {
+        return this.graph.findNodesByLabelAndProperty(DynamicLabel.label(DrucksacheNames.DRUCKSACHE), 
+                                                      DrucksacheNames.DRUCKSACHE_ID, drucksachenId)
+                         .iterator().next();
+    }
+    
+}
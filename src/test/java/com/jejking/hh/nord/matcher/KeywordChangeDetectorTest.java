@@ -0,0 +1,76 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.jejking.hh.nord.corpus.RawDrucksache;
+
+/**
+ * Tests for {@link KeywordChangeDetector}.
+ * 
+ * @author jejking
+ *
+ */
+public class KeywordChangeDetectorTest {
+
+    private final KeywordChangeDetector detector = new KeywordChangeDetector(ImmutableMap.of(
+                                                        "STREET", ImmutableSet.of("Kuhkamp"),
+                                                        "PARK", ImmutableSet.of("Stadtpark")));
+    
+    @Test
+    public void detectsChangedKeywordInHeader() throws Exception {
+        assertTrue(this.detector.call(drucksache("Sanierung Kuhkamp", "Nichts weiter.")));
+    }
+    
+    @Test
+    public void detectsChangedKeywordInBody() throws Exception {
+        assertTrue(this.detector.call(drucksache("Grünanlagen", "Neue Bänke im Stadtpark.")));
+    }
+    
+    @Test
+    public void ignoresDocumentWithoutChangedKeywords() throws Exception {
+        assertFalse(this.detector.call(drucksache("Sanierung Barstraße", "Neue Bänke im Eppendorfer Park.")));
+    }
+    
+    @Test
+    public void detectsNothingIfNoKeywordsChanged() throws Exception {
+        KeywordChangeDetector noChanges = new KeywordChangeDetector(ImmutableMap.<String, ImmutableSet<String>>of());
+        assertFalse(noChanges.call(drucksache("Sanierung Kuhkamp", "Neue Bänke im Stadtpark.")));
+    }
+    
+    private static RawDrucksache drucksache(String betreff, String content) throws Exception {
+        return new RawDrucksache("20-1234", 
+                                 new URL("http://foo.com/20-1234"), 
+                                 Optional.<LocalDate>absent(), 
+                                 ImmutableMap.of("Betreff", betreff), 
+                                 ImmutableList.of(content));
+    }
+    
+}
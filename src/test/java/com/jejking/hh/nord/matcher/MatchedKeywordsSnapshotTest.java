@@ -0,0 +1,78 @@
+/* 
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for {@link MatchedKeywordsSnapshot}.
+ * 
+ * @author jejking
+ *
+ */
+public class MatchedKeywordsSnapshotTest {
+
+    @Test
+    public void savesAndLoadsSnapshot() {
+        GraphDatabaseService graph = new TestGraphDatabaseFactory()
+                                            .newImpermanentDatabaseBuilder()
+                                            .newGraphDatabase();
+        try {
+            assertFalse(MatchedKeywordsSnapshot.load(graph).isPresent());
+            
+            MatchedKeywordsSnapshot.save(graph, ImmutableMap.of("STREET", ImmutableSet.of("Foostraße", "Kuhkamp")));
+            MatchedKeywordsSnapshot.save(graph, ImmutableMap.of("STREET", ImmutableSet.of("Foostraße"), 
+                                                                "SCHOOL", ImmutableSet.of("Gymnasium Lerchenfeld")));
+            
+            Optional<ImmutableMap<String, ImmutableSet<String>>> loaded = MatchedKeywordsSnapshot.load(graph);
+            assertEquals(ImmutableMap.of("STREET", ImmutableSet.of("Foostraße"), 
+                                         "SCHOOL", ImmutableSet.of("Gymnasium Lerchenfeld")), 
+                         loaded.get());
+        } finally {
+            graph.shutdown();
+        }
+    }
+    
+    @Test
+    public void changedKeywordsAreThoseAddedOrRemoved() {
+        ImmutableMap<String, ImmutableSet<String>> changed = MatchedKeywordsSnapshot.changedKeywords(
+                ImmutableMap.of("STREET", ImmutableSet.of("Foostraße", "Kuhkamp"),
+                                "PARK", ImmutableSet.of("Stadtpark"),
+                                "CINEMA", ImmutableSet.of("Abaton")),
+                ImmutableMap.of("STREET", ImmutableSet.of("Foostraße", "Barstraße"),
+                                "PARK", ImmutableSet.of("Stadtpark"),
+                                "SCHOOL", ImmutableSet.of("Gymnasium Lerchenfeld")));
+        
+        assertEquals(ImmutableSet.of("Kuhkamp", "Barstraße"), changed.get("STREET"));
+        assertFalse(changed.containsKey("PARK"));
+        assertEquals(ImmutableSet.of("Abaton"), changed.get("CINEMA"));
+        assertEquals(ImmutableSet.of("Gymnasium Lerchenfeld"), changed.get("SCHOOL"));
+        assertEquals(3, changed.size());
+    }
+    
+}
@@ -0,0 +1,85 @@
+/*
+ *  Hamburg-Nord Geocoder, by John King.
+ *  Copyright (C) 2014,  John King
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ */
+package com.jejking.hh.nord.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jejking.hh.nord.gazetteer.GazetteerEntryTypes;
+
+/**
+ * Tests for {@link MultiLabelGazetteerKeywordMatcher}.
+ *
+ * @author jejking
+ *
+ */
+public class MultiLabelGazetteerKeywordMatcherTest {
+
+    @Test
+    public void findsKeywordsOfAllLabelsInOnePass() {
+        MultiLabelGazetteerKeywordMatcher matcher = new MultiLabelGazetteerKeywordMatcher(ImmutableMap.of(
+                GazetteerEntryTypes.STREET, ImmutableList.of("Foostraße", "Kuhkamp"),
+                GazetteerEntryTypes.NAMED_AREA, ImmutableList.of("Uhlenhorst", "Barmbek-Süd"),
+                GazetteerEntryTypes.SCHOOL, ImmutableList.of("Gymnasium Lerchenfeld")));
+
+        ImmutableMap<String, ImmutableMap<String, Integer>> matches = matcher.call(
+                "In der Foostraße in Uhlenhorst gibt es eine Bar. Die Foostraße ist beliebt, der Kuhkamp nicht.");
+
+        assertEquals(3, matches.size());
+        assertEquals(2, matches.get(GazetteerEntryTypes.STREET).get("Foostraße").intValue());
+        assertEquals(1, matches.get(GazetteerEntryTypes.STREET).get("Kuhkamp").intValue());
+        assertEquals(1, matches.get(GazetteerEntryTypes.NAMED_AREA).size());
+        assertEquals(1, matches.get(GazetteerEntryTypes.NAMED_AREA).get("Uhlenhorst").intValue());
+        assertTrue(matches.get(GazetteerEntryTypes.SCHOOL).isEmpty());
+    }
+
+    @Test
+    public void resolvesOverlapsWithinLabelOnly() {
+        MultiLabelGazetteerKeywordMatcher matcher = new MultiLabelGazetteerKeywordMatcher(ImmutableMap.of(
+                GazetteerEntryTypes.STREET, ImmutableList.of("Winterhuder Weg", "Weg"),
+                GazetteerEntryTypes.SCHOOL, ImmutableList.of("Schule Winterhuder Weg")));
+
+        ImmutableMap<String, ImmutableMap<String, Integer>> matches = matcher.call(
+                "Die Schule Winterhuder Weg wird saniert.");
+
+        // the longer street name wins over the shorter one...
+        assertTrue(matches.get(GazetteerEntryTypes.STREET).containsKey("Winterhuder Weg"));
+        assertFalse(matches.get(GazetteerEntryTypes.STREET).containsKey("Weg"));
+        // ... but the school does not suppress the street
+        assertTrue(matches.get(GazetteerEntryTypes.SCHOOL).containsKey("Schule Winterhuder Weg"));
+    }
+
+    @Test
+    public void keywordSharedByTwoLabelsCountsForBoth() {
+        MultiLabelGazetteerKeywordMatcher matcher = new MultiLabelGazetteerKeywordMatcher(ImmutableMap.of(
+                GazetteerEntryTypes.PARK, ImmutableList.of("Stadtpark"),
+                GazetteerEntryTypes.TRANSPORT_STOP, ImmutableList.of("Stadtpark")));
+
+        ImmutableMap<String, ImmutableMap<String, Integer>> matches = matcher.call("Am Stadtpark.");
+
+        assertEquals(1, matches.get(GazetteerEntryTypes.PARK).get("Stadtpark").intValue());
+        assertEquals(1, matches.get(GazetteerEntryTypes.TRANSPORT_STOP).get("Stadtpark").intValue());
+    }
+
+}
@@ -20,7 +20,8 @@ package com.jejking.hh.nord.matcher;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-
+import java.util.HashMap;
+import java.util.Map;
 
 import org.joda.time.DateTimeConstants;
 import org.joda.time.LocalDate;
@@ -38,6 +39,7 @@ import org.neo4j.test.TestGraphDatabaseFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.jejking.hh.nord.AbstractNeoImporter;
 import com.jejking.hh.nord.corpus.DrucksacheNames;
@@ -80,6 +82,127 @@ public class RawDrucksacheWithLabelledMatchesNeoImporterTest {
         tearDownGraph();
     }
 
+    @Test
+    public void reimportUpdatesExistingDrucksacheAndReplacesReferences() {
+        
+        givenAGraphDatabase();
+        givenAGazetteer();
+        givenAnImporter();
+        givenADrucksacheWithLabelledMatches(new LocalDate(2014, DateTimeConstants.JUNE, 15));
+        whenTheImporterRuns();
+        
+        givenTheSameDrucksacheNowOnlyMatchingFuInBody();
+        whenTheImporterRuns();
+        
+        thenThereIsOneDrucksacheReferringOnlyToFu();
+        
+        tearDownGraph();
+    }
+
+    @Test
+    public void sumsCountsOfAllKeywordsReferringToTheSameNode() {
+        
+        givenAGraphDatabase();
+        givenAGazetteer();
+        
+        // "fu" and its variant "fus" both resolve to the same gazetteer node
+        long fuId = gazetteerNodeId("foo", "fu");
+        long pubId = gazetteerNodeId("bar", "pub");
+        GazetteerNodeLookup lookup = new GazetteerNodeLookup(ImmutableMap.of(
+                                            "foo", ImmutableListMultimap.of("fu", fuId, "fus", fuId),
+                                            "bar", ImmutableListMultimap.of("pubs", pubId)));
+        this.importer = new RawDrucksacheWithLabelledMatchesNeoImporter(this.graph, Optional.of(lookup));
+        
+        ImmutableMap<String, Integer> emptyMap = ImmutableMap.of();
+        this.importer.call(drucksache("one", ImmutableMap.of(
+                                "foo", new Matches(ImmutableMap.of("fu", 5), ImmutableMap.of("fu", 2, "fus", 3)),
+                                "bar", new Matches(ImmutableMap.of("pubs", 1), emptyMap))));
+        this.importer.call(drucksache("two", ImmutableMap.of(
+                                "foo", new Matches(ImmutableMap.of("fus", 7, "fu", 1), emptyMap))));
+        
+        try (Transaction tx = this.graph.beginTx()) {
+            Map<Long, Relationship> one = referencesOf("one");
+            assertEquals(2, one.size());
+            assertEquals(5, one.get(fuId).getProperty(DrucksacheNames.REFS_HEADER));
+            assertEquals(5, one.get(fuId).getProperty(DrucksacheNames.REFS_BODY));
+            assertFalse(one.get(pubId).hasProperty(DrucksacheNames.REFS_HEADER));
+            assertEquals(1, one.get(pubId).getProperty(DrucksacheNames.REFS_BODY));
+            
+            Map<Long, Relationship> two = referencesOf("two");
+            assertEquals(1, two.size());
+            assertFalse(two.get(fuId).hasProperty(DrucksacheNames.REFS_HEADER));
+            assertEquals(8, two.get(fuId).getProperty(DrucksacheNames.REFS_BODY));
+            tx.success();
+        }
+        
+        tearDownGraph();
+    }
+    
+    private long gazetteerNodeId(String label, String name) {
+        try (Transaction tx = this.graph.beginTx()) {
+            long id = this.graph.findNodesByLabelAndProperty(DynamicLabel.label(label), GazetteerPropertyNames.NAME, name)
+                            .iterator().next().getId();
+            tx.success();
+            return id;
+        }
+    }
+    
+    private Map<Long, Relationship> referencesOf(String drucksachenId) {
+        Node drucksacheNode = this.graph.findNodesByLabelAndProperty(DynamicLabel.label(DrucksacheNames.DRUCKSACHE), 
+                                                                     DrucksacheNames.DRUCKSACHE_ID, drucksachenId)
+                                        .iterator().next();
+        Map<Long, Relationship> references = new HashMap<>();
+        for (Relationship rel : drucksacheNode.getRelationships(GazetteerRelationshipTypes.REFERS_TO)) {
+            assertNull(references.put(rel.getEndNode().getId(), rel));
+        }
+        return references;
+    }
+    
+    private RawDrucksacheWithLabelledMatches drucksache(String id, ImmutableMap<String, Matches> matchesMap) {
+        try {
+            RawDrucksache original = new RawDrucksache(
+                                        id, 
+                                        new URL("http://foo.com/" + id), 
+                                        Optional.<LocalDate>absent(),
+                                        ImmutableMap.of("Betreff", "Superspannend"), 
+                                        ImmutableList.of("c", "d"));
+            return new RawDrucksacheWithLabelledMatches(original, matchesMap);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void givenTheSameDrucksacheNowOnlyMatchingFuInBody() {
+        ImmutableMap<String, Integer> emptyMap = ImmutableMap.of();
+        this.rawDrucksacheWithLabelledMatches = new RawDrucksacheWithLabelledMatches(
+                                                    this.rawDrucksacheWithLabelledMatches.getOriginal(),
+                                                    ImmutableMap.of(
+                                                        "foo", new Matches(ImmutableMap.of("fu", 5), emptyMap),
+                                                        "bar", new Matches(emptyMap, emptyMap)));
+    }
+    
+    private void thenThereIsOneDrucksacheReferringOnlyToFu() {
+        try(Transaction tx = this.graph.beginTx()) {
+            ResourceIterator<Node> iterator = this.graph.findNodesByLabelAndProperty(
+                                                DynamicLabel.label(DrucksacheNames.DRUCKSACHE), 
+                                                DrucksacheNames.DRUCKSACHE_ID,
+                                                "myId")
+                                               .iterator();
+            Node drucksacheNode = iterator.next();
+            assertFalse(iterator.hasNext());
+            
+            int relCount = 0;
+            for (Relationship rel : drucksacheNode.getRelationships(GazetteerRelationshipTypes.REFERS_TO)) {
+                relCount++;
+                assertEquals("fu", rel.getEndNode().getProperty(GazetteerPropertyNames.NAME));
+                assertFalse(rel.hasProperty(DrucksacheNames.REFS_HEADER));
+                assertEquals(5, rel.getProperty(DrucksacheNames.REFS_BODY));
+            }
+            assertEquals(1, relCount);
+            tx.success();
+        }
+    }
+    
     private void tearDownGraph() {
         this.graph.shutdown();
     }